@@ -1,14 +1,23 @@
 // Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
 package com.purej.cfg;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -17,6 +26,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
 
 /**
  * This class holds some configuration stored as string key/value pairs, provides typed access and supports automatic substitution
@@ -31,15 +46,31 @@ import java.util.Set;
  * @author Stefan Mueller
  */
 public class Cfg {
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+  private static final int PROPERTIES = 0;
+  private static final int JSON = 1;
+  private static final int YAML = 2;
+  private static final int COMPRESSED = 3;
+  private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+  private static final ClassValue<Map<String, Object>> ENUM_CONSTANTS = new ClassValue<Map<String, Object>>() {
+    @Override
+    protected Map<String, Object> computeValue(Class<?> type) {
+      Map<String, Object> constants = new HashMap<String, Object>();
+      for (Object constant : type.getEnumConstants()) {
+        constants.put(((Enum<?>) constant).name(), constant);
+      }
+      return constants;
+    }
+  };
   private final Map<String, String> _map;
+  private final CfgCache _cache;
   private final String _subsetPrefix;
 
   /**
    * Creates a new instance of this class using an empty key/value map.
    */
   public Cfg() {
-    _map = new HashMap<String, String>();
-    _subsetPrefix = null;
+    this(new HashMap<String, String>(), null);
   }
 
   /**
@@ -51,14 +82,7 @@ public class Cfg {
    * @param keyValues the map of key/value pairs
    */
   public Cfg(Map<?, ?> keyValues) {
-    _map = new HashMap<String, String>((int) (keyValues.size() / 0.7) + 1);
-    _subsetPrefix = null;
-    for (Map.Entry<?, ?> e : keyValues.entrySet()) {
-      if (e.getKey() == null) {
-        throw new CfgException("Key must not be null!");
-      }
-      _map.put(e.getKey().toString(), e.getValue() != null ? e.getValue().toString() : null);
-    }
+    this(copy(keyValues), null);
   }
 
   /**
@@ -70,7 +94,7 @@ public class Cfg {
    * @throws CfgException if the file or resource could not be found or an I/O error occurred
    */
   public Cfg(String resourceOrFile) throws CfgException {
-    this(load(resourceOrFile));
+    this(load(resourceOrFile), null);
   }
 
   /**
@@ -82,7 +106,7 @@ public class Cfg {
    * @throws CfgException if the file could not be found or an I/O error occurred
    */
   public Cfg(File file) throws CfgException {
-    this(load(file));
+    this(load(file), null);
   }
 
   /**
@@ -94,46 +118,111 @@ public class Cfg {
    * @throws IOException if the file could not be found or an I/O error occurred
    */
   public Cfg(InputStream stream) throws IOException {
-    this(load(stream));
+    this(load(stream), null);
+  }
+
+  /**
+   * Creates a new instance with the given state - only for internal usage.
+   */
+  Cfg(Map<String, String> map, String subsetPrefix) {
+    this(map, new CfgCache(), subsetPrefix);
   }
 
   /**
    * Creates a new instance with the given state - only for internal usage.
    */
-  private Cfg(Map<String, String> map, String subsetPrefix) {
+  private Cfg(Map<String, String> map, CfgCache cache, String subsetPrefix) {
     this._map = map;
+    this._cache = cache;
     this._subsetPrefix = subsetPrefix;
   }
 
-  private static Properties load(String resourceOrFile) throws CfgException {
+  private static Map<String, String> copy(Map<?, ?> keyValues) {
+    long tick = System.nanoTime();
+    Map<String, String> map = new HashMap<String, String>((int) (keyValues.size() / 0.7) + 1);
+    for (Map.Entry<?, ?> e : keyValues.entrySet()) {
+      if (e.getKey() == null) {
+        throw new CfgException("Key must not be null!");
+      }
+      map.put(e.getKey().toString(), e.getValue() != null ? e.getValue().toString() : null);
+    }
+    CfgStats.getInstance().recordCopy(System.nanoTime() - tick);
+    return map;
+  }
+
+  static Map<String, String> load(String resourceOrFile) throws CfgException {
+    return load(resourceOrFile, PROPERTIES);
+  }
+
+  static Map<String, String> load(File file) throws CfgException {
+    return load(file, PROPERTIES);
+  }
+
+  private static Map<String, String> load(String resourceOrFile, int format) throws CfgException {
+    long tick = System.nanoTime();
     InputStream stream = createInputStream(resourceOrFile);
+    CfgStats.getInstance().recordLookup(System.nanoTime() - tick);
     try {
-      return load(stream);
+      return load(stream, format);
     }
     finally {
       closeStream(stream);
     }
   }
 
-  private static Properties load(File file) throws CfgException {
+  private static Map<String, String> load(File file, int format) throws CfgException {
+    long tick = System.nanoTime();
     InputStream stream = createStream(file);
+    CfgStats.getInstance().recordLookup(System.nanoTime() - tick);
     try {
-      return load(stream);
+      return load(stream, format);
     }
     finally {
       closeStream(stream);
     }
   }
 
-  private static Properties load(InputStream stream) throws CfgException {
-    Properties properties = new Properties();
+  private static Map<String, String> load(InputStream stream) throws CfgException {
+    return load(stream, PROPERTIES);
+  }
+
+  private static Map<String, String> load(InputStream stream, int format) throws CfgException {
+    long tick = System.nanoTime();
+    final Map<String, String> map = new HashMap<String, String>();
     try {
-      properties.load(stream);
+      if (format == PROPERTIES) {
+        CfgPropertiesReader reader = new CfgPropertiesReader(new InputStreamReader(stream, ISO_8859_1), false);
+        while (reader.next()) {
+          map.put(reader.key(), reader.value());
+        }
+      }
+      else if (format == COMPRESSED) {
+        CfgCompressed.read(stream, map);
+      }
+      else {
+        // The flattened pairs are put into the map as they are parsed, no document tree is built:
+        CfgVisitor visitor = new CfgVisitor() {
+          @Override
+          public boolean visit(String key, String value) {
+            map.put(key, value);
+            return true;
+          }
+        };
+        Reader reader = new InputStreamReader(stream, CfgBinary.UTF8);
+        if (format == JSON) {
+          new CfgJsonReader(reader).parse(visitor);
+        }
+        else {
+          new CfgYamlReader(reader).parse(visitor);
+        }
+      }
     }
     catch (IOException e) {
-      throw new CfgException("The property stream could not be loaded!", e);
+      String name = format == PROPERTIES ? "property" : format == JSON ? "JSON" : format == YAML ? "YAML" : "compressed";
+      throw new CfgException("The " + name + " stream could not be loaded!", e);
     }
-    return properties;
+    CfgStats.getInstance().recordParse(System.nanoTime() - tick, map.size());
+    return map;
   }
 
   private static FileInputStream createStream(File file) {
@@ -173,6 +262,180 @@ public class Cfg {
     return createStream(file);
   }
 
+  /**
+   * Creates a new instance of this class that loads the config key/value pairs from the given JSON (UTF-8) resource
+   * or file. Nested objects and arrays are flattened into dotted keys in a single streaming pass without building a
+   * document tree, eg. <code>{"server": {"hosts": [{"name": "a"}], "port": 80}}</code> becomes
+   * <code>server.hosts.0.name=a</code> and <code>server.port=80</code>. Numbers and booleans are taken as written,
+   * JSON null as null value, empty objects and arrays produce no keys.
+   *
+   * @param resourceOrFile the JSON resource or file
+   * @return the loaded config
+   * @throws CfgException if the file or resource could not be found, is malformed or an I/O error occurred
+   */
+  public static Cfg fromJson(String resourceOrFile) throws CfgException {
+    return new Cfg(load(resourceOrFile, JSON), null);
+  }
+
+  /**
+   * Creates a new instance of this class that loads the config key/value pairs from the given JSON (UTF-8) file,
+   * see {@link #fromJson(String)}.
+   *
+   * @param file the JSON file
+   * @return the loaded config
+   * @throws CfgException if the file could not be found, is malformed or an I/O error occurred
+   */
+  public static Cfg fromJson(File file) throws CfgException {
+    return new Cfg(load(file, JSON), null);
+  }
+
+  /**
+   * Creates a new instance of this class that loads the config key/value pairs from the given JSON (UTF-8) stream,
+   * see {@link #fromJson(String)}.
+   *
+   * @param stream the input stream to load from, will remain open after this method returns
+   * @return the loaded config
+   * @throws CfgException if the stream is malformed or an I/O error occurred
+   */
+  public static Cfg fromJson(InputStream stream) throws CfgException {
+    return new Cfg(load(stream, JSON), null);
+  }
+
+  /**
+   * Creates a new instance of this class that loads the config key/value pairs from the given YAML (UTF-8) resource
+   * or file. Nested mappings and sequences are flattened into dotted keys in a single streaming pass like
+   * {@link #fromJson(String)}. A subset of YAML typically used for configs is supported: Block mappings and
+   * sequences, plain and quoted scalars, literal and folded block scalars, single-line flow collections of scalars
+   * and comments. Anchors, aliases, tags and multiple documents are reported as error.
+   *
+   * @param resourceOrFile the YAML resource or file
+   * @return the loaded config
+   * @throws CfgException if the file or resource could not be found, is malformed or an I/O error occurred
+   */
+  public static Cfg fromYaml(String resourceOrFile) throws CfgException {
+    return new Cfg(load(resourceOrFile, YAML), null);
+  }
+
+  /**
+   * Creates a new instance of this class that loads the config key/value pairs from the given YAML (UTF-8) file,
+   * see {@link #fromYaml(String)}.
+   *
+   * @param file the YAML file
+   * @return the loaded config
+   * @throws CfgException if the file could not be found, is malformed or an I/O error occurred
+   */
+  public static Cfg fromYaml(File file) throws CfgException {
+    return new Cfg(load(file, YAML), null);
+  }
+
+  /**
+   * Creates a new instance of this class that loads the config key/value pairs from the given YAML (UTF-8) stream,
+   * see {@link #fromYaml(String)}.
+   *
+   * @param stream the input stream to load from, will remain open after this method returns
+   * @return the loaded config
+   * @throws CfgException if the stream is malformed or an I/O error occurred
+   */
+  public static Cfg fromYaml(InputStream stream) throws CfgException {
+    return new Cfg(load(stream, YAML), null);
+  }
+
+  /**
+   * Creates a new instance of this class that loads the config key/value pairs from the given resource or file in the
+   * block-compressed format written by {@link #storeCompressed(File)}. The blocks are decompressed in parallel on the
+   * common fork/join pool while the following blocks are read, and every block is verified against its checksum.
+   *
+   * @param resourceOrFile the compressed resource or file
+   * @return the loaded config
+   * @throws CfgException if the file or resource could not be found, is corrupt or an I/O error occurred
+   */
+  public static Cfg fromCompressed(String resourceOrFile) throws CfgException {
+    return new Cfg(load(resourceOrFile, COMPRESSED), null);
+  }
+
+  /**
+   * Creates a new instance of this class that loads the config key/value pairs from the given file in the
+   * block-compressed format, see {@link #fromCompressed(String)}.
+   *
+   * @param file the compressed file
+   * @return the loaded config
+   * @throws CfgException if the file could not be found, is corrupt or an I/O error occurred
+   */
+  public static Cfg fromCompressed(File file) throws CfgException {
+    return new Cfg(load(file, COMPRESSED), null);
+  }
+
+  /**
+   * Creates a new instance of this class that loads the config key/value pairs from the given stream in the
+   * block-compressed format, see {@link #fromCompressed(String)}.
+   *
+   * @param stream the input stream to load from, will remain open after this method returns
+   * @return the loaded config
+   * @throws CfgException if the stream is corrupt or an I/O error occurred
+   */
+  public static Cfg fromCompressed(InputStream stream) throws CfgException {
+    return new Cfg(load(stream, COMPRESSED), null);
+  }
+
+  /**
+   * Creates a new instance of this class that loads the config key/value pairs from the given resource or file on first
+   * access instead of on construction, see {@link #Cfg(String)}.
+   * <p/>
+   * Loading is thread-safe and happens exactly once. If loading fails, every access throws a {@link CfgException}
+   * with the same failure. Use {@link #prefetch(Executor)} to load it in the background ahead of the first access.
+   *
+   * @param resourceOrFile the java properties resource or file
+   * @return the lazy config
+   */
+  public static Cfg lazy(String resourceOrFile) {
+    return new Cfg(new CfgLazyMap(resourceOrFile), null);
+  }
+
+  /**
+   * Creates a new instance of this class that loads the config key/value pairs from the given file on first access
+   * instead of on construction, see {@link #lazy(String)}.
+   *
+   * @param file the java properties file
+   * @return the lazy config
+   */
+  public static Cfg lazy(File file) {
+    return new Cfg(new CfgLazyMap(file), null);
+  }
+
+  /**
+   * Creates a new instance of this class from the given alternating keys and values, without any I/O or parsing.
+   * Used by classes generated with {@link CfgGenerator#generateConstants(Cfg, String)}.
+   *
+   * @param keyValues the keys and values, eg. key1, value1, key2, value2...
+   * @return the new config
+   * @throws CfgException if the number of arguments is odd or a key is null
+   */
+  public static Cfg of(String... keyValues) throws CfgException {
+    if (keyValues.length % 2 != 0) {
+      throw new CfgException("Key/value arguments must be a multiple of 2 but is " + keyValues.length + "!");
+    }
+    Map<String, String> map = new HashMap<String, String>((int) (keyValues.length / 2 / 0.7) + 1);
+    for (int i = 0; i < keyValues.length; i += 2) {
+      if (keyValues[i] == null) {
+        throw new CfgException("Key must not be null!");
+      }
+      map.put(keyValues[i], keyValues[i + 1]);
+    }
+    return new Cfg(map, null);
+  }
+
+  /**
+   * Loads this config with the given executor, if it is a lazy config that has not been loaded yet (see {@link #lazy(String)}).
+   * Does nothing otherwise. Loading failures are reported on first access.
+   *
+   * @param executor the executor to load with
+   */
+  public void prefetch(Executor executor) {
+    if (_map instanceof CfgLazyMap) {
+      ((CfgLazyMap) _map).prefetch(executor);
+    }
+  }
+
   /**
    * Checks the given value to be not smaller then the specified min-value.
    *
@@ -238,7 +501,133 @@ public class Cfg {
    */
   public Cfg subset(String subset) {
     String sub = subset.endsWith(".") ? subset : subset + ".";
-    return new Cfg(_map, toKey(sub));
+    return new Cfg(_map, _cache, toKey(sub));
+  }
+
+  /**
+   * Returns a subset config instance of the element with the given index of a repeated block, which is the same
+   * as <code>subset(subset + "." + index)</code>. For example, <code>subset("server", 3).getString("host")</code>
+   * returns the value of key <code>server.3.host</code>.
+   *
+   * @param subset the key of the repeated block
+   * @param index the index of the element
+   * @return the subset config instance of the element
+   */
+  public Cfg subset(String subset, int index) {
+    return subset(subset.endsWith(".") ? subset + index : subset + "." + index);
+  }
+
+  /**
+   * Returns the names of the immediate children of this config instance (or subset), eg. the distinct key segments
+   * up to the next dot. For example, a config with keys <code>server.0.host</code>, <code>server.1.host</code> and
+   * <code>timeout</code> has the children <code>server</code> and <code>timeout</code>, its subset
+   * <code>server</code> has the children <code>0</code> and <code>1</code>.
+   * <p/>
+   * Numeric names are ordered by value and before all other names, which are ordered alphabetically.
+   * The names are looked up in a sorted key index shared by a config and all its subsets, that is built on first
+   * use and rebuilt after keys have been added or removed. The lookup jumps over the keys of each child, so its
+   * cost does not depend on the number of keys below the children.
+   *
+   * @return the ordered child names
+   */
+  public List<String> childNames() {
+    return Collections.unmodifiableList(index().childNames(_subsetPrefix != null ? _subsetPrefix : "", false));
+  }
+
+  /**
+   * Returns the subset config instances of all immediate children of this config instance (or subset) that contain
+   * nested keys, in the same order as {@link #childNames()}. For example, a config with keys
+   * <code>server.0.host</code>, <code>server.1.host</code> has the subsets <code>server.0</code> and
+   * <code>server.1</code> below its subset <code>server</code>.
+   *
+   * @return the ordered subset config instances
+   */
+  public List<Cfg> subsets() {
+    List<String> names = index().childNames(_subsetPrefix != null ? _subsetPrefix : "", true);
+    List<Cfg> subsets = new ArrayList<Cfg>(names.size());
+    for (String name : names) {
+      subsets.add(new Cfg(_map, _cache, toKey(name + ".")));
+    }
+    return subsets;
+  }
+
+  private CfgIndex index() {
+    CfgIndex index = _cache.getIndex(_map.size());
+    if (index == null) {
+      int modCount = _cache.modCount();
+      index = new CfgIndex(_map.keySet());
+      _cache.setIndex(index, modCount);
+    }
+    return index;
+  }
+
+  /**
+   * Returns the publisher of the changes of this config and all its subsets (by {@link #put(String, String)},
+   * {@link #remove(String)} and {@link #merge(Cfg)}), with full keys. The publisher is created on first call,
+   * changes are only tracked while it has subscribers. Changes of the underlying map that bypass this config are
+   * not published.
+   *
+   * @return the change publisher
+   */
+  public CfgPublisher changes() {
+    return _cache.publisher();
+  }
+
+  private void publish(String fullKey, String value) {
+    CfgPublisher publisher = _cache.getPublisher();
+    if (publisher != null && publisher.hasSubscribers()) {
+      publisher.publish(fullKey, value);
+    }
+  }
+
+  /**
+   * Sets the recorder of accesses to this config and all its subsets, null to stop recording - only for internal usage.
+   */
+  void setRecorder(CfgWarmup recorder) {
+    _cache.setRecorder(recorder);
+  }
+
+  private void record(String key, int kind) {
+    CfgWarmup recorder = _cache.getRecorder();
+    if (recorder != null) {
+      recorder.record(toKey(key), kind);
+    }
+  }
+
+  /**
+   * Removes all cached values and indexes, after the underlying map has been changed - only for internal usage.
+   */
+  void clearCache() {
+    _cache.clear();
+  }
+
+  /**
+   * Returns the underlying map of a root config or null for a subset - only for internal usage.
+   */
+  Map<String, String> rootMap() {
+    return _subsetPrefix == null ? _map : null;
+  }
+
+  /**
+   * Binds the values of this config to a new instance of the given type, whose members are annotated with {@link CfgKey}.
+   * All values are converted and checked once when binding, so reading them afterwards requires no lookup or parsing.
+   * <p/>
+   * The given type might be:
+   * <ul>
+   * <li>An interface with annotated methods without parameters: A proxy returning the bound values is created.</li>
+   * <li>A class with a constructor whose parameters are all annotated (like the canonical constructor of a record):
+   * The instance is created with the bound values.</li>
+   * <li>A class with a constructor without parameters and annotated non-final fields: The fields of the created
+   * instance are set to the bound values.</li>
+   * </ul>
+   * The annotations of a type are analyzed once, later bindings of the same type reuse the analysis.
+   *
+   * @param type the type to be bound
+   * @return the new bound instance
+   * @throws CfgException if the type is not bindable or if values are missing or invalid (with all errors)
+   */
+  public <T> T bind(Class<T> type) throws CfgException {
+    return CfgBinder.bind(this, type);
   }
 
   /**
@@ -258,6 +647,62 @@ public class Cfg {
     return result;
   }
 
+  /**
+   * Performs the given action for each key/value pair of this config instance, in no particular order.
+   * If this config instance is a subset, only the entries of the subset are passed (with keys relative to the subset).
+   * <p/>
+   * Walks the underlying key/value pairs directly without copying them. Values are resolved (eg. substituted)
+   * one by one when passed to the action.
+   *
+   * @param action the action to be performed for each key and its (resolved) value
+   * @throws CfgException if a value could not be resolved
+   */
+  public void forEach(BiConsumer<String, String> action) throws CfgException {
+    for (Map.Entry<String, String> entry : _map.entrySet()) {
+      String key = entry.getKey();
+      if (_subsetPrefix == null || key.startsWith(_subsetPrefix)) {
+        action.accept(_subsetPrefix == null ? key : key.substring(_subsetPrefix.length()), resolve(key, entry.getValue()));
+      }
+    }
+  }
+
+  /**
+   * Returns whether any key/value pair of this config instance matches the given predicate. Stops at the first match,
+   * values are resolved (eg. substituted) only up to there.
+   * If this config instance is a subset, only the entries of the subset are tested (with keys relative to the subset).
+   *
+   * @param predicate the predicate to test each key and its (resolved) value with
+   * @return true if any key/value pair matches, false otherwise
+   * @throws CfgException if a value could not be resolved
+   */
+  public boolean anyValue(BiPredicate<String, String> predicate) throws CfgException {
+    for (Map.Entry<String, String> entry : _map.entrySet()) {
+      String key = entry.getKey();
+      if (_subsetPrefix == null || key.startsWith(_subsetPrefix)) {
+        if (predicate.test(_subsetPrefix == null ? key : key.substring(_subsetPrefix.length()), resolve(key, entry.getValue()))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a spliterator over the key/value pairs of this config instance whose keys start with the given prefix,
+   * for example to create a (parallel) stream with {@link java.util.stream.StreamSupport}. Keys are relative to
+   * this config instance (like {@link #getKeys()}), values are resolved (eg. substituted) lazily on
+   * {@link Map.Entry#getValue()}.
+   * <p/>
+   * The spliterator walks the underlying key/value pairs directly without copying them, so the config must not be
+   * modified while it is in use.
+   *
+   * @param prefix the prefix of the keys, an empty string for all keys
+   * @return the spliterator
+   */
+  public Spliterator<Map.Entry<String, String>> spliterator(String prefix) {
+    return new CfgSpliterator(_map.entrySet().spliterator(), toKey(prefix));
+  }
+
   /**
    * Merges all key/value pairs from the specified config to this config
    * and overwrites eventually existing key/value pairs.
@@ -270,6 +715,83 @@ public class Cfg {
       throw new CfgException("Only root level configs can be merged (no subsets)!");
     }
     _map.putAll(cfg._map);
+    _cache.clear();
+    CfgPublisher publisher = _cache.getPublisher();
+    if (publisher != null && publisher.hasSubscribers()) {
+      publisher.publish(cfg._map);
+    }
+  }
+
+  /**
+   * Overrides the given key/value pairs of this config (or subset) for the current thread until the returned scope
+   * is closed, best used with a try-with-resources statement:
+   * <pre>
+   *   try (CfgScope scope = cfg.withOverrides(overrides)) {
+   *     ...
+   *   }
+   * </pre>
+   * The overrides apply to all lookups by key of this config and all its subsets in the current thread (including
+   * substitutions), but not to iterations over all keys like {@link #forEach(BiConsumer)} or {@link #toMap()}.
+   * Other threads are not affected. As long as no scope of this config is open in any thread, lookups just check a
+   * counter of this config, otherwise they check the scopes of the current thread first. Lookups of other configs
+   * are never affected. An unclosed scope keeps the lookups of this config on that slower path.
+   * <p/>
+   * Note: The scope is bound to the current thread. Tasks handed over to other threads do not see the overrides.
+   *
+   * @param overrides the key/value pairs to override (a null value overrides with no value), is copied
+   * @return the opened scope, to be closed by the current thread
+   */
+  public CfgScope withOverrides(Map<String, String> overrides) {
+    Map<String, String> fullKeys = new HashMap<String, String>((int) (overrides.size() / 0.7) + 1);
+    for (Map.Entry<String, String> entry : overrides.entrySet()) {
+      fullKeys.put(toKey(entry.getKey()), entry.getValue());
+    }
+    return CfgScope.open(_cache, fullKeys);
+  }
+
+  /**
+   * Returns a config instance that overlays the key/value pairs of this config (or subset) with the given ones,
+   * without copying the key/value pairs of this config. Changes of this config are visible in the returned one.
+   * <p/>
+   * Keys are matched relaxed: case is ignored and the characters '_', '-' and '.' are treated the same, so the
+   * overlay key <code>MY_PATH1_INT_VALUE</code> overrides the key <code>my.path1.int.value</code>. Overlay keys
+   * without matching key are added with their lower-case, dotted form (eg. <code>my.path1.int.value</code>).
+   * The overlay keys are indexed once, a lookup costs a single probe into that index before falling back to this
+   * config. Changes of the given map after this call are not visible. If this config is a subset, the overlay keys
+   * are still matched against the full keys (eg. including the subset prefix).
+   * <p/>
+   * Note: Overlay values take precedence, also over values put into the returned config or into this config.
+   *
+   * @param overlay the key/value pairs that override the ones of this config
+   * @return the overlaid config instance
+   */
+  public Cfg withOverlay(Map<String, String> overlay) {
+    return new Cfg(new CfgOverlayMap(_map, _cache, overlay), new CfgCache(_cache), _subsetPrefix);
+  }
+
+  /**
+   * Returns a config instance that overlays the key/value pairs of this config with the environment variables,
+   * see {@link #withOverlay(Map)}.
+   *
+   * @return the overlaid config instance
+   */
+  public Cfg withEnvironment() {
+    return withOverlay(System.getenv());
+  }
+
+  /**
+   * Returns a config instance that overlays the key/value pairs of this config with the system properties,
+   * see {@link #withOverlay(Map)}.
+   *
+   * @return the overlaid config instance
+   */
+  public Cfg withSystemProperties() {
+    Properties properties = System.getProperties();
+    Map<String, String> overlay = new HashMap<String, String>();
+    for (String name : properties.stringPropertyNames()) {
+      overlay.put(name, properties.getProperty(name));
+    }
+    return withOverlay(overlay);
   }
 
   /**
@@ -278,7 +800,47 @@ public class Cfg {
    * @return true, if the key exists, false otherwise
    */
   public boolean containsKey(String key) {
-    return _map.containsKey(toKey(key));
+    return exists(toKey(key));
+  }
+
+  /**
+   * Returns whether or not this config contains the given key, given as char sequence (eg. a reused
+   * {@link StringBuilder} or {@link java.nio.CharBuffer}). The key is hashed and compared char by char against the
+   * existing keys without creating a string, also within a subset.
+   * @param key the key
+   * @return true, if the key exists, false otherwise
+   */
+  public boolean containsKey(CharSequence key) {
+    if (key == null) {
+      throw new CfgException("Key must not be null!");
+    }
+    if (_cache.hasOpenScopes()) {
+      return containsKey(key.toString());
+    }
+    return index().find(getPrefix(), key) != null;
+  }
+
+  /**
+   * Returns whether or not this config contains the given key, given as UTF-8 bytes of the given array slice.
+   * The key is hashed and compared against the existing keys without creating a string, also within a subset.
+   * @param key the array with the UTF-8 bytes of the key
+   * @param offset the offset of the key in the array
+   * @param length the length of the key in bytes
+   * @return true, if the key exists, false otherwise (also if the bytes are no valid UTF-8)
+   */
+  public boolean containsKey(byte[] key, int offset, int length) {
+    return findKey(key, null, offset, length) != null;
+  }
+
+  /**
+   * Returns whether or not this config contains the given key, given as UTF-8 bytes between position and limit of
+   * the given buffer. The position of the buffer is not changed.
+   * The key is hashed and compared against the existing keys without creating a string, also within a subset.
+   * @param key the buffer with the UTF-8 bytes of the key
+   * @return true, if the key exists, false otherwise (also if the bytes are no valid UTF-8)
+   */
+  public boolean containsKey(ByteBuffer key) {
+    return findKey(null, key, 0, 0) != null;
   }
 
   /**
@@ -295,16 +857,28 @@ public class Cfg {
    * Returns whether or not this cfg contains at least one key.
    */
   public boolean containsKeys() {
-    return getKeys().size() > 0;
+    if (_subsetPrefix == null) {
+      return !_map.isEmpty();
+    }
+    for (String key : _map.keySet()) {
+      if (key.startsWith(_subsetPrefix)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
    * Returns whether or not this cfg contains at least one key with an associated value that is not null and not not empty.
    */
   public boolean containsValues() {
-    for (String key : getKeys()) {
-      if (containsValue(key)) {
-        return true;
+    for (Map.Entry<String, String> entry : _map.entrySet()) {
+      String value = entry.getValue();
+      if (value != null && value.length() > 0 && (_subsetPrefix == null || entry.getKey().startsWith(_subsetPrefix))) {
+        value = resolve(entry.getKey(), value);
+        if (value != null && value.length() > 0) {
+          return true;
+        }
       }
     }
     return false;
@@ -324,7 +898,7 @@ public class Cfg {
     Map<String, String> result = new HashMap<String, String>();
     for (Map.Entry<String, String> entry : _map.entrySet()) {
       if (entry.getKey().startsWith(_subsetPrefix)) {
-        result.put(entry.getKey().substring(_subsetPrefix.length()), resolve(entry.getKey()));
+        result.put(entry.getKey().substring(_subsetPrefix.length()), resolve(entry.getKey(), entry.getValue()));
       }
     }
     return result;
@@ -351,6 +925,7 @@ public class Cfg {
    * @return the configured value or the specified default value
    */
   public Boolean getBoolean(String key, Boolean defaultValue) throws CfgException {
+    record(key, CfgWarmup.BOOLEAN);
     String value = getString(key, null);
     return value != null ? Boolean.valueOf(value) : defaultValue;
   }
@@ -377,13 +952,16 @@ public class Cfg {
    * @throws CfgException if the value could not be converted to an {@link Integer}
    */
   public Integer getInt(String key, Integer defaultValue) throws CfgException {
+    record(key, CfgWarmup.INT);
     String value = getString(key, null);
-    try {
-      return value != null ? Integer.valueOf(value) : defaultValue;
+    if (value == null) {
+      return defaultValue;
     }
-    catch (NumberFormatException e) {
+    Long result = parseLong(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    if (result == null) {
       throw new CfgException("Value '" + value + "' for key '" + key + "' is no valid int!");
     }
+    return Integer.valueOf(result.intValue());
   }
 
   /**
@@ -408,13 +986,16 @@ public class Cfg {
    * @throws CfgException if the value could not be converted to a {@link Long}
    */
   public Long getLong(String key, Long defaultValue) throws CfgException {
+    record(key, CfgWarmup.LONG);
     String value = getString(key, null);
-    try {
-      return value != null ? Long.valueOf(value) : defaultValue;
+    if (value == null) {
+      return defaultValue;
     }
-    catch (NumberFormatException e) {
+    Long result = parseLong(value, Long.MIN_VALUE, Long.MAX_VALUE);
+    if (result == null) {
       throw new CfgException("Value '" + value + "' for key '" + key + "' is no valid long!");
     }
+    return result;
   }
 
   /**
@@ -439,44 +1020,130 @@ public class Cfg {
    * @throws CfgException if the value could not be converted to a {@link BigDecimal}
    */
   public BigDecimal getBigDecimal(String key, BigDecimal defaultValue) throws CfgException {
+    record(key, CfgWarmup.BIG_DECIMAL);
     String value = getString(key, null);
-    try {
-      return value != null ? new BigDecimal(value) : defaultValue;
+    if (value == null) {
+      return defaultValue;
     }
-    catch (NumberFormatException e) {
+    BigDecimal result = parseBigDecimal(value);
+    if (result == null) {
       throw new CfgException("Value '" + value + "' for key '" + key + "' is no valid BigDecimal!");
     }
+    return result;
   }
 
   /**
-   * Returns the mandatory config value for the given key as enum.
-   * If the config value is not mandatory, use the {@link #getEnum(String, Class, Enum)} method.
+   * Returns the mandatory config value for the given key as {@link Duration}.
+   * If the config value is not mandatory, use the {@link #getDuration(String, Duration)} method.
    *
    * @param key the config key
    * @return the configured value, never null
-   * @throws CfgException if no value for the given key exists or the value could not be converted to the specified enum type
+   * @throws CfgException if no value for the given key exists or the value could not be converted to a {@link Duration}
    */
-  public <T extends Enum<T>> T getEnum(String key, Class<T> type) throws CfgException {
-    return checkNotNull(key, getEnum(key, type, null));
+  public Duration getDuration(String key) throws CfgException {
+    return checkNotNull(key, getDuration(key, null));
   }
 
   /**
-   * Returns the optional config value for the given key as enum.
+   * Returns the optional config value for the given key as {@link Duration}.
    * If the given key does not map to an existing config value, the specified default value is returned instead.
+   * <p/>
+   * Values are a (decimal) number followed by one of the units ns, us, ms, s, m, h or d, for example <code>250ms</code>,
+   * <code>30s</code> or <code>1.5h</code>. Values without unit are milliseconds, ISO-8601 values like <code>PT30S</code>
+   * are supported as well. Negative durations are invalid.
+   * The parsed duration is cached, so repeated calls return the same instance without parsing again (as long as the value
+   * does not change). Use {@link #checkMin(Comparable, Comparable)} and the like to check its range.
    *
    * @param key the config key
    * @param defaultValue the default value in case of a missing a config value
    * @return the configured value or the specified default value
-   * @throws CfgException if the value could not be converted to the specified enum type
+   * @throws CfgException if the value could not be converted to a {@link Duration}
    */
-  public <T extends Enum<T>> T getEnum(String key, Class<T> type, T defaultValue) throws CfgException {
+  public Duration getDuration(String key, Duration defaultValue) throws CfgException {
+    record(key, CfgWarmup.DURATION);
+    String fullKey = toKey(key);
+    String value = resolve(fullKey);
+    if (value == null || value.length() == 0) {
+      return defaultValue;
+    }
+    Duration result = parseDuration(fullKey, value);
+    if (result == null) {
+      throw new CfgException("Value '" + value + "' for key '" + key + "' is no valid Duration!");
+    }
+    return result;
+  }
+
+  /**
+   * Returns the mandatory config value for the given key as number of bytes.
+   * If the config value is not mandatory, use the {@link #getByteSize(String, Long)} method.
+   *
+   * @param key the config key
+   * @return the configured number of bytes
+   * @throws CfgException if no value for the given key exists or the value could not be converted to a byte size
+   */
+  public long getByteSize(String key) throws CfgException {
+    return checkNotNull(key, getByteSize(key, null)).longValue();
+  }
+
+  /**
+   * Returns the optional config value for the given key as number of bytes.
+   * If the given key does not map to an existing config value, the specified default value is returned instead.
+   * <p/>
+   * Values are a (decimal) number followed by a unit, for example <code>512</code>, <code>64k</code>, <code>64MiB</code>
+   * or <code>1.5GB</code>. The units k, m, g, t and KiB, MiB, GiB, TiB are powers of 1024, the units kB, MB, GB, TB are
+   * powers of 1000 (ignoring case). Values without unit are bytes.
+   * The parsed value is cached, so repeated calls do not parse again (as long as the value does not change).
+   *
+   * @param key the config key
+   * @param defaultValue the default value in case of a missing a config value
+   * @return the configured value or the specified default value
+   * @throws CfgException if the value could not be converted to a byte size
+   */
+  public Long getByteSize(String key, Long defaultValue) throws CfgException {
+    record(key, CfgWarmup.BYTE_SIZE);
+    String fullKey = toKey(key);
+    String value = resolve(fullKey);
+    if (value == null || value.length() == 0) {
+      return defaultValue;
+    }
+    Long result = parseByteSize(fullKey, value);
+    if (result == null) {
+      throw new CfgException("Value '" + value + "' for key '" + key + "' is no valid byte size!");
+    }
+    return result;
+  }
+
+  /**
+   * Returns the mandatory config value for the given key as enum.
+   * If the config value is not mandatory, use the {@link #getEnum(String, Class, Enum)} method.
+   *
+   * @param key the config key
+   * @return the configured value, never null
+   * @throws CfgException if no value for the given key exists or the value could not be converted to the specified enum type
+   */
+  public <T extends Enum<T>> T getEnum(String key, Class<T> type) throws CfgException {
+    return checkNotNull(key, getEnum(key, type, null));
+  }
+
+  /**
+   * Returns the optional config value for the given key as enum.
+   * If the given key does not map to an existing config value, the specified default value is returned instead.
+   *
+   * @param key the config key
+   * @param defaultValue the default value in case of a missing a config value
+   * @return the configured value or the specified default value
+   * @throws CfgException if the value could not be converted to the specified enum type
+   */
+  public <T extends Enum<T>> T getEnum(String key, Class<T> type, T defaultValue) throws CfgException {
     String value = getString(key, null);
-    try {
-      return value != null ? Enum.valueOf(type, value) : defaultValue;
+    if (value == null) {
+      return defaultValue;
     }
-    catch (Exception e) {
+    T result = parseEnum(value, type);
+    if (result == null) {
       throw new CfgException("Value '" + value + "' for key '" + key + "' is no valid Enum for '" + type + "'!");
     }
+    return result;
   }
 
   /**
@@ -500,10 +1167,380 @@ public class Cfg {
    * @return the configured value or the specified default value
    */
   public String getString(String key, String defaultValue) {
+    record(key, CfgWarmup.STRING);
     String value = resolve(toKey(key));
     return value != null && value.length() > 0 ? value : defaultValue;
   }
 
+  /**
+   * Returns the optional config value for the given key, given as char sequence (eg. a reused {@link StringBuilder}
+   * or {@link java.nio.CharBuffer}), as string. The key is hashed and compared char by char against the existing keys,
+   * the returned value is the stored one, so no garbage is created unless the value needs a substitution.
+   *
+   * @param key the config key
+   * @param defaultValue the default value in case of a missing a config value
+   * @return the configured value or the specified default value
+   */
+  public String getString(CharSequence key, String defaultValue) {
+    if (key == null) {
+      throw new CfgException("Key must not be null!");
+    }
+    if (_cache.hasOpenScopes()) {
+      return getString(key.toString(), defaultValue);
+    }
+    return valueOf(index().find(getPrefix(), key), defaultValue);
+  }
+
+  /**
+   * Returns the optional config value for the given key, given as UTF-8 bytes of the given array slice, as string.
+   * The key is hashed and compared against the existing keys, the returned value is the stored one, so no garbage is
+   * created unless the value needs a substitution.
+   *
+   * @param key the array with the UTF-8 bytes of the key
+   * @param offset the offset of the key in the array
+   * @param length the length of the key in bytes
+   * @param defaultValue the default value in case of a missing a config value
+   * @return the configured value or the specified default value (also if the bytes are no valid UTF-8)
+   */
+  public String getString(byte[] key, int offset, int length, String defaultValue) {
+    return valueOf(findKey(key, null, offset, length), defaultValue);
+  }
+
+  /**
+   * Returns the optional config value for the given key, given as UTF-8 bytes between position and limit of the
+   * given buffer, as string. The position of the buffer is not changed.
+   * The key is hashed and compared against the existing keys, the returned value is the stored one, so no garbage is
+   * created unless the value needs a substitution.
+   *
+   * @param key the buffer with the UTF-8 bytes of the key
+   * @param defaultValue the default value in case of a missing a config value
+   * @return the configured value or the specified default value (also if the bytes are no valid UTF-8)
+   */
+  public String getString(ByteBuffer key, String defaultValue) {
+    return valueOf(findKey(null, key, 0, 0), defaultValue);
+  }
+
+  /**
+   * Returns the resolved non-empty value of the given existing full key, the default value if it is null or empty.
+   */
+  private String valueOf(String fullKey, String defaultValue) {
+    if (fullKey == null) {
+      return defaultValue;
+    }
+    CfgWarmup recorder = _cache.getRecorder();
+    if (recorder != null) {
+      recorder.record(fullKey, CfgWarmup.STRING);
+    }
+    String value = resolve(fullKey, lookup(fullKey));
+    return value != null && value.length() > 0 ? value : defaultValue;
+  }
+
+  /**
+   * Returns the config value for the given key as string without throwing an exception if it is missing or invalid.
+   * A value that is empty after substitution is reported as missing.
+   *
+   * @param key the config key
+   * @return the result with the configured value or the reason why it is missing or invalid
+   */
+  public CfgResult<String> tryGetString(String key) {
+    record(key, CfgWarmup.STRING);
+    Object value = tryLookup(key);
+    if (!(value instanceof String)) {
+      return failed(key, value);
+    }
+    return CfgResult.ok((String) value);
+  }
+
+  /**
+   * Returns the config value for the given key as {@link Boolean} without throwing an exception if it is missing or
+   * invalid, see {@link #getBoolean(String, Boolean)}.
+   *
+   * @param key the config key
+   * @return the result with the configured value or the reason why it is missing or invalid
+   */
+  public CfgResult<Boolean> tryGetBoolean(String key) {
+    record(key, CfgWarmup.BOOLEAN);
+    Object value = tryLookup(key);
+    if (!(value instanceof String)) {
+      return failed(key, value);
+    }
+    return CfgResult.ok(Boolean.valueOf((String) value));
+  }
+
+  /**
+   * Returns the config value for the given key as {@link Integer} without throwing an exception if it is missing or
+   * invalid, see {@link #getInt(String, Integer)}.
+   *
+   * @param key the config key
+   * @return the result with the configured value or the reason why it is missing or invalid
+   */
+  public CfgResult<Integer> tryGetInt(String key) {
+    record(key, CfgWarmup.INT);
+    Object value = tryLookup(key);
+    if (!(value instanceof String)) {
+      return failed(key, value);
+    }
+    Long result = parseLong((String) value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    if (result == null) {
+      return CfgResult.error(CfgResult.NO_VALID_TYPE, key, (String) value, "int");
+    }
+    return CfgResult.ok(Integer.valueOf(result.intValue()));
+  }
+
+  /**
+   * Returns the config value for the given key as {@link Long} without throwing an exception if it is missing or
+   * invalid, see {@link #getLong(String, Long)}.
+   *
+   * @param key the config key
+   * @return the result with the configured value or the reason why it is missing or invalid
+   */
+  public CfgResult<Long> tryGetLong(String key) {
+    record(key, CfgWarmup.LONG);
+    Object value = tryLookup(key);
+    if (!(value instanceof String)) {
+      return failed(key, value);
+    }
+    Long result = parseLong((String) value, Long.MIN_VALUE, Long.MAX_VALUE);
+    if (result == null) {
+      return CfgResult.error(CfgResult.NO_VALID_TYPE, key, (String) value, "long");
+    }
+    return CfgResult.ok(result);
+  }
+
+  /**
+   * Returns the config value for the given key as {@link BigDecimal} without throwing an exception if it is missing or
+   * invalid, see {@link #getBigDecimal(String, BigDecimal)}.
+   *
+   * @param key the config key
+   * @return the result with the configured value or the reason why it is missing or invalid
+   */
+  public CfgResult<BigDecimal> tryGetBigDecimal(String key) {
+    record(key, CfgWarmup.BIG_DECIMAL);
+    Object value = tryLookup(key);
+    if (!(value instanceof String)) {
+      return failed(key, value);
+    }
+    BigDecimal result = parseBigDecimal((String) value);
+    if (result == null) {
+      return CfgResult.error(CfgResult.NO_VALID_TYPE, key, (String) value, "BigDecimal");
+    }
+    return CfgResult.ok(result);
+  }
+
+  /**
+   * Returns the config value for the given key as {@link Duration} without throwing an exception if it is missing or
+   * invalid, see {@link #getDuration(String, Duration)}.
+   *
+   * @param key the config key
+   * @return the result with the configured value or the reason why it is missing or invalid
+   */
+  public CfgResult<Duration> tryGetDuration(String key) {
+    record(key, CfgWarmup.DURATION);
+    Object value = tryLookup(key);
+    if (!(value instanceof String)) {
+      return failed(key, value);
+    }
+    Duration result = parseDuration(toKey(key), (String) value);
+    if (result == null) {
+      return CfgResult.error(CfgResult.NO_VALID_TYPE, key, (String) value, "Duration");
+    }
+    return CfgResult.ok(result);
+  }
+
+  /**
+   * Returns the config value for the given key as number of bytes without throwing an exception if it is missing or
+   * invalid, see {@link #getByteSize(String, Long)}.
+   *
+   * @param key the config key
+   * @return the result with the configured value or the reason why it is missing or invalid
+   */
+  public CfgResult<Long> tryGetByteSize(String key) {
+    record(key, CfgWarmup.BYTE_SIZE);
+    Object value = tryLookup(key);
+    if (!(value instanceof String)) {
+      return failed(key, value);
+    }
+    Long result = parseByteSize(toKey(key), (String) value);
+    if (result == null) {
+      return CfgResult.error(CfgResult.NO_VALID_TYPE, key, (String) value, "byte size");
+    }
+    return CfgResult.ok(result);
+  }
+
+  /**
+   * Returns the config value for the given key as enum without throwing an exception if it is missing or invalid,
+   * see {@link #getEnum(String, Class, Enum)}.
+   *
+   * @param key the config key
+   * @param type the enum type
+   * @return the result with the configured value or the reason why it is missing or invalid
+   */
+  public <T extends Enum<T>> CfgResult<T> tryGetEnum(String key, Class<T> type) {
+    record(key, CfgWarmup.STRING);
+    Object value = tryLookup(key);
+    if (!(value instanceof String)) {
+      return failed(key, value);
+    }
+    T result = parseEnum((String) value, type);
+    if (result == null) {
+      return CfgResult.error(CfgResult.NO_VALID_TYPE, key, (String) value, "Enum for '" + type + "'");
+    }
+    return CfgResult.ok(result);
+  }
+
+  /**
+   * Returns the resolved non-empty value (a string), null if there is no value or the failed substitution (a {@link CfgResult}).
+   */
+  private Object tryLookup(String key) {
+    String fullKey = toKey(key);
+    String value = lookup(fullKey);
+    if (value != null && value.indexOf("${") != -1) {
+      Object result = substitute(fullKey, value);
+      if (!(result instanceof String)) {
+        return result;
+      }
+      value = (String) result;
+    }
+    return value != null && value.length() > 0 ? value : null;
+  }
+
+  private <T> CfgResult<T> failed(String key, Object value) {
+    if (value == null) {
+      return CfgResult.error(CfgResult.NO_VALUE, key, _subsetPrefix, null);
+    }
+    @SuppressWarnings("unchecked")
+    CfgResult<T> result = (CfgResult<T>) value;
+    return result;
+  }
+
+  /**
+   * Parses the given string like {@link Long#parseLong(String)}, but returns null instead of throwing an exception
+   * if the string is no valid long or is not within the given min/max-values.
+   */
+  private static Long parseLong(String s, long minValue, long maxValue) {
+    int length = s.length();
+    if (length == 0) {
+      return null;
+    }
+    int i = 0;
+    boolean negative = false;
+    char first = s.charAt(0);
+    if (first == '-' || first == '+') {
+      negative = first == '-';
+      if (++i == length) {
+        return null;
+      }
+    }
+    // Accumulate negatively to cover Long.MIN_VALUE:
+    long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+    long multmin = limit / 10;
+    long result = 0;
+    for (; i < length; i++) {
+      int digit = Character.digit(s.charAt(i), 10);
+      if (digit < 0 || result < multmin) {
+        return null;
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        return null;
+      }
+      result -= digit;
+    }
+    long value = negative ? result : -result;
+    return value < minValue || value > maxValue ? null : Long.valueOf(value);
+  }
+
+  /**
+   * Returns the cached or parsed duration of the given value, null if the value is no valid duration.
+   */
+  private Duration parseDuration(String fullKey, String value) {
+    Duration result = (Duration) _cache.get(fullKey, value, CfgCache.DURATION);
+    if (result == null) {
+      long nanos = CfgUnits.parseNanos(value);
+      if (nanos == CfgUnits.INVALID) {
+        return null;
+      }
+      result = Duration.ofNanos(nanos);
+      _cache.put(fullKey, value, CfgCache.DURATION, result);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the cached or parsed byte size of the given value, null if the value is no valid byte size.
+   */
+  private Long parseByteSize(String fullKey, String value) {
+    Long result = (Long) _cache.get(fullKey, value, CfgCache.BYTE_SIZE);
+    if (result == null) {
+      long bytes = CfgUnits.parseBytes(value);
+      if (bytes == CfgUnits.INVALID) {
+        return null;
+      }
+      result = Long.valueOf(bytes);
+      _cache.put(fullKey, value, CfgCache.BYTE_SIZE, result);
+    }
+    return result;
+  }
+
+  /**
+   * Parses the given string like {@link BigDecimal#BigDecimal(String)}, but returns null instead of throwing an
+   * exception for strings that are syntactically invalid.
+   */
+  private static BigDecimal parseBigDecimal(String s) {
+    int length = s.length();
+    int i = 0;
+    if (i < length && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+      i++;
+    }
+    int digits = 0;
+    boolean dot = false;
+    for (; i < length; i++) {
+      char c = s.charAt(i);
+      if (Character.isDigit(c)) {
+        digits++;
+      }
+      else if (c == '.' && !dot) {
+        dot = true;
+      }
+      else {
+        break;
+      }
+    }
+    if (digits == 0) {
+      return null;
+    }
+    if (i < length) {
+      if (s.charAt(i) != 'e' && s.charAt(i) != 'E') {
+        return null;
+      }
+      if (++i < length && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+        i++;
+      }
+      if (i == length) {
+        return null;
+      }
+      for (; i < length; i++) {
+        if (!Character.isDigit(s.charAt(i))) {
+          return null;
+        }
+      }
+    }
+    try {
+      return new BigDecimal(s);
+    }
+    catch (NumberFormatException e) {
+      // Only for exponent overflows, as the syntax is already checked...
+      return null;
+    }
+  }
+
+  /**
+   * Returns the enum constant of the given type with the given name or null if there is no such constant.
+   */
+  private static <T extends Enum<T>> T parseEnum(String name, Class<T> type) {
+    return type.cast(ENUM_CONSTANTS.get(type).get(name));
+  }
+
   /**
    * Returns the mandatory config value for the given key as string-array.
    * <p/>
@@ -515,8 +1552,8 @@ public class Cfg {
    * @throws CfgException if no value for the given key exists
    */
   public String[] getStringArray(String key) {
-    String value = getString(key);
-    return splitAndTrim(value);
+    List<String> list = getStringList(key);
+    return list.toArray(new String[list.size()]);
   }
 
   /**
@@ -530,17 +1567,96 @@ public class Cfg {
    * @return the configured value or the specified default value
    */
   public String[] getStringArray(String key, String[] defaultValue) {
-    String value = getString(key, null);
-    return value == null ? defaultValue : splitAndTrim(value);
+    List<String> list = getStringList(key, null);
+    return list == null ? defaultValue : list.toArray(new String[list.size()]);
   }
 
+  /**
+   * Returns the mandatory config value for the given key as unmodifiable string-list, see {@link #getStringArray(String)}.
+   * <p/>
+   * The splitted list is cached, so repeated calls return the same instance without splitting or allocating again
+   * (as long as the value does not change).
+   *
+   * @param key the config key
+   * @return the configured value, never null
+   * @throws CfgException if no value for the given key exists
+   */
+  public List<String> getStringList(String key) throws CfgException {
+    return checkNotNull(key, getStringList(key, null));
+  }
+
+  /**
+   * Returns the optional config value for the given key as unmodifiable string-list, see {@link #getStringArray(String, String[])}.
+   * <p/>
+   * The splitted list is cached, so repeated calls return the same instance without splitting or allocating again
+   * (as long as the value does not change).
+   *
+   * @param key the config key
+   * @param defaultValue the default value in case of a missing a config value
+   * @return the configured value or the specified default value
+   */
+  @SuppressWarnings("unchecked")
+  public List<String> getStringList(String key, List<String> defaultValue) {
+    record(key, CfgWarmup.STRING_LIST);
+    String fullKey = toKey(key);
+    String value = resolve(fullKey);
+    if (value == null || value.length() == 0) {
+      return defaultValue;
+    }
+    List<String> list = (List<String>) _cache.get(fullKey, value, CfgCache.STRING_LIST);
+    if (list == null) {
+      list = Collections.unmodifiableList(Arrays.asList(splitAndTrim(value)));
+      _cache.put(fullKey, value, CfgCache.STRING_LIST, list);
+    }
+    return list;
+  }
+
+  /**
+   * Passes the elements of the config value for the given key to the given consumer, see {@link #getStringList(String)}.
+   * Does nothing if no value for the given key exists.
+   *
+   * @param key the config key
+   * @param consumer the consumer to pass the elements to
+   */
+  public void forEachElement(String key, Consumer<? super String> consumer) {
+    List<String> list = getStringList(key, null);
+    if (list != null) {
+      for (int i = 0; i < list.size(); i++) {
+        consumer.accept(list.get(i));
+      }
+    }
+  }
+
+  /**
+   * Splits the given value like value.split("[,;:]") and trims the elements, but without regular expressions.
+   */
   private static String[] splitAndTrim(String value) {
-    String[] array = value.split("[,;:]");
-    String[] result = new String[array.length];
-    for (int i = 0; i < array.length; i++) {
-      result[i] = array[i] == null ? null : array[i].trim();
+    int length = value.length();
+    int count = 1;
+    for (int i = 0; i < length; i++) {
+      if (isSeparator(value.charAt(i))) {
+        count++;
+      }
     }
-    return result;
+    String[] result = new String[count];
+    int n = 0;
+    int nonEmpty = 0;
+    int start = 0;
+    for (int i = 0; i <= length; i++) {
+      if (i == length || isSeparator(value.charAt(i))) {
+        result[n++] = value.substring(start, i).trim();
+        if (i > start) {
+          nonEmpty = n;
+        }
+        start = i + 1;
+      }
+    }
+    // Trailing empty elements are omitted:
+    return nonEmpty == n ? result : Arrays.copyOf(result, nonEmpty);
+  }
+
+  private static boolean isSeparator(char c) {
+    return c == ',' || c == ';' || c == ':';
   }
 
   /**
@@ -600,7 +1716,14 @@ public class Cfg {
    * @param value the value to be set, might be null
    */
   public void put(String key, String value) {
-    _map.put(toKey(key), value);
+    String fullKey = toKey(key);
+    boolean added = !_map.containsKey(fullKey);
+    _map.put(fullKey, value);
+    _cache.remove(fullKey);
+    if (added) {
+      _cache.keysChanged();
+    }
+    publish(fullKey, value);
   }
 
   /**
@@ -627,7 +1750,7 @@ public class Cfg {
       }
       s = builder.toString();
     }
-    _map.put(toKey(key), s);
+    put(key, s);
   }
 
   /**
@@ -636,39 +1759,240 @@ public class Cfg {
    * @param key the key to be removed
    */
   public void remove(String key) {
-    _map.remove(toKey(key));
+    String fullKey = toKey(key);
+    _map.remove(fullKey);
+    _cache.remove(fullKey);
+    _cache.keysChanged();
+    publish(fullKey, null);
   }
 
   /**
-   * Stores this config's key/values pairs to the given file in flat java properties format.
-   * The file will be overwritten if it already exists.
+   * Stores this config's key/values pairs to the given file in flat java properties format, sorted by key.
+   * The file will be overwritten if it already exists. It is written to a temporary file first and then renamed,
+   * so concurrent readers never see a half-written file.
    * If this config instance is a subset, only the entries of the subset are stored.
    *
    * @param file the file to be written to
    * @throws CfgException if the file could not be written
    */
   public void store(File file) throws CfgException {
-    if (!file.getParentFile().exists()) {
-      file.getParentFile().mkdirs();
+    store(file, false);
+  }
+
+  /**
+   * Stores this config's key/values pairs to the given file in flat java properties format.
+   * See {@link #store(File)} for details.
+   * <p/>
+   * In incremental mode, an existing file is updated: Lines of unchanged key/value pairs are kept as-is including
+   * comments, formatting and ordering, changed pairs are rewritten in place, removed keys are dropped and new keys are
+   * appended sorted by key. If nothing changed, the file is not replaced at all.
+   *
+   * @param file the file to be written to
+   * @param incremental true to update an existing file incrementally, false to overwrite it
+   * @throws CfgException if the file could not be written
+   */
+  public void store(File file, boolean incremental) throws CfgException {
+    try {
+      if (incremental && file.isFile()) {
+        update(file);
+        return;
+      }
+      File tmp = CfgFiles.createTempFile(file);
+      try {
+        OutputStream stream = new FileOutputStream(tmp);
+        try {
+          store(stream);
+        }
+        finally {
+          stream.close();
+        }
+        CfgFiles.replace(tmp, file);
+      }
+      finally {
+        CfgFiles.delete(tmp);
+      }
     }
-    Properties properties = new Properties();
-    for (Map.Entry<String, String> entry : toMap().entrySet()) {
-      properties.put(entry.getKey(), entry.getValue() == null ? "" : entry.getValue());
+    catch (IOException e) {
+      throw new CfgException("The properties could not be written to file '" + file + "'!", e);
     }
+  }
+
+  /**
+   * Stores this config's key/values pairs to the given stream in flat java properties format (ISO-8859-1 with unicode
+   * escapes), sorted by key. If this config instance is a subset, only the entries of the subset are stored.
+   *
+   * @param stream the stream to be written to, will remain open after this method returns
+   * @throws CfgException if the stream could not be written
+   */
+  public void store(OutputStream stream) throws CfgException {
+    try {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(stream, ISO_8859_1));
+      CfgPropertiesWriter out = new CfgPropertiesWriter(writer, LINE_SEPARATOR);
+      out.writeComment("Saved at " + new Date());
+      int prefixLength = _subsetPrefix != null ? _subsetPrefix.length() : 0;
+      for (String key : sortedKeys()) {
+        out.writeEntry(key.substring(prefixLength), storeValue(key));
+      }
+      writer.flush();
+    }
+    catch (IOException e) {
+      throw new CfgException("The properties could not be written to stream!", e);
+    }
+  }
+
+  /**
+   * Stores this config's key/values pairs to the given file in a block-compressed binary format with the default
+   * compression level, to be loaded with {@link #fromCompressed(File)}. The pairs are written sorted by key in blocks
+   * that are deflated in parallel, each with a CRC32 checksum of its content. For large and repetitive configs, this
+   * trades CPU for a multiple times smaller file, which pays off where reading is I/O-bound (eg. network file systems).
+   * The file is replaced atomically as by {@link #store(File)}. If this config instance is a subset, only the entries
+   * of the subset are stored.
+   *
+   * @param file the file to be written to
+   * @throws CfgException if the file could not be written
+   */
+  public void storeCompressed(File file) throws CfgException {
+    storeCompressed(file, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Stores this config's key/values pairs to the given file in a block-compressed binary format with the given
+   * compression level, see {@link #storeCompressed(File)}.
+   *
+   * @param file the file to be written to
+   * @param level the compression level from 0 (none) over 1 (fastest) to 9 (smallest), or -1 for the default level
+   * @throws CfgException if the file could not be written or the level is invalid
+   */
+  public void storeCompressed(File file, int level) throws CfgException {
     try {
-      OutputStream stream = new FileOutputStream(file);
+      File tmp = CfgFiles.createTempFile(file);
       try {
-        properties.store(stream, "Saved at " + new Date());
+        OutputStream stream = new FileOutputStream(tmp);
+        try {
+          storeCompressed(stream, level);
+        }
+        finally {
+          stream.close();
+        }
+        CfgFiles.replace(tmp, file);
       }
       finally {
-        stream.close();
+        CfgFiles.delete(tmp);
       }
     }
     catch (IOException e) {
-      throw new CfgException("The properties could not be written to file '" + file + "'!", e);
+      throw new CfgException("The compressed config could not be written to file '" + file + "'!", e);
     }
   }
 
+  /**
+   * Stores this config's key/values pairs to the given stream in a block-compressed binary format with the given
+   * compression level, see {@link #storeCompressed(File)}.
+   *
+   * @param stream the stream to be written to, will remain open after this method returns
+   * @param level the compression level from 0 (none) over 1 (fastest) to 9 (smallest), or -1 for the default level
+   * @throws CfgException if the stream could not be written or the level is invalid
+   */
+  public void storeCompressed(OutputStream stream, int level) throws CfgException {
+    try {
+      CfgCompressed.Writer out = new CfgCompressed.Writer(stream, level);
+      int prefixLength = _subsetPrefix != null ? _subsetPrefix.length() : 0;
+      for (String key : sortedKeys()) {
+        out.writeEntry(key.substring(prefixLength), storeValue(key));
+      }
+      out.finish();
+    }
+    catch (IOException e) {
+      throw new CfgException("The compressed config could not be written to stream!", e);
+    }
+  }
+
+  private void update(File file) throws IOException {
+    boolean changed = false;
+    boolean terminated = true;
+    Set<String> existing = new HashSet<String>();
+    Reader in = new InputStreamReader(new FileInputStream(file), ISO_8859_1);
+    File tmp = CfgFiles.createTempFile(file);
+    try {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), ISO_8859_1));
+      try {
+        CfgPropertiesReader reader = new CfgPropertiesReader(in, true);
+        CfgPropertiesWriter out = new CfgPropertiesWriter(writer, LINE_SEPARATOR);
+        while (reader.next()) {
+          CharSequence prefix = reader.rawPrefix();
+          out.writeRaw(prefix);
+          terminated = prefix.length() > 0 ? isTerminated(prefix) : terminated;
+          String key = toKey(reader.key());
+          if (!_map.containsKey(key)) {
+            changed = true;
+            continue;
+          }
+          existing.add(key);
+          String value = storeValue(key);
+          if (reader.value().equals(value != null ? value : "")) {
+            out.writeRaw(reader.rawLine());
+          }
+          else {
+            out.writeEntry(reader.key(), value, reader.rawLineTerminator());
+            changed = true;
+          }
+          terminated = reader.rawLineTerminator().length() > 0;
+        }
+        CharSequence suffix = reader.rawPrefix();
+        out.writeRaw(suffix);
+        terminated = suffix.length() > 0 ? isTerminated(suffix) : terminated;
+        int prefixLength = _subsetPrefix != null ? _subsetPrefix.length() : 0;
+        for (String key : sortedKeys()) {
+          if (!existing.contains(key)) {
+            if (!terminated) {
+              out.writeRaw(LINE_SEPARATOR);
+              terminated = true;
+            }
+            out.writeEntry(key.substring(prefixLength), storeValue(key));
+            changed = true;
+          }
+        }
+      }
+      finally {
+        writer.close();
+      }
+      if (changed) {
+        CfgFiles.replace(tmp, file);
+      }
+    }
+    finally {
+      in.close();
+      CfgFiles.delete(tmp);
+    }
+  }
+
+  private static boolean isTerminated(CharSequence text) {
+    char last = text.charAt(text.length() - 1);
+    return last == '\n' || last == '\r';
+  }
+
+  /**
+   * Returns the sorted full keys of this config instance.
+   */
+  private String[] sortedKeys() {
+    List<String> keys = new ArrayList<String>(_map.size());
+    for (String key : _map.keySet()) {
+      if (_subsetPrefix == null || key.startsWith(_subsetPrefix)) {
+        keys.add(key);
+      }
+    }
+    String[] array = keys.toArray(new String[keys.size()]);
+    Arrays.sort(array);
+    return array;
+  }
+
+  /**
+   * Returns the value to be stored for the given full key, see {@link #toMap()}.
+   */
+  private String storeValue(String key) {
+    return _subsetPrefix != null ? resolve(key) : _map.get(key);
+  }
+
   @Override
   public String toString() {
     StringBuilder builder = new StringBuilder();
@@ -677,15 +2001,13 @@ public class Cfg {
       builder.append("(subset=").append(_subsetPrefix).append(")");
     }
     builder.append("[");
-    boolean comma = false;
-    List<String> keys = new ArrayList<String>(getKeys());
-    Collections.sort(keys);
-    for (String key : keys) {
-      if (comma) {
+    String[] keys = sortedKeys();
+    int offset = _subsetPrefix != null ? _subsetPrefix.length() : 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (i > 0) {
         builder.append(", ");
       }
-      builder.append(key).append('=').append(_map.get(toKey(key)));
-      comma = true;
+      builder.append(keys[i], offset, keys[i].length()).append('=').append(_map.get(keys[i]));
     }
     builder.append("]");
     return builder.toString();
@@ -698,6 +2020,41 @@ public class Cfg {
     return _subsetPrefix != null ? _subsetPrefix + key : key;
   }
 
+  private String getPrefix() {
+    return _subsetPrefix != null ? _subsetPrefix : "";
+  }
+
+  /**
+   * Returns the existing full key for the given UTF-8 key bytes of the array slice or (if the array is null) the
+   * buffer's remaining bytes, null if there is none. Falls back to a string key if a scope is open, as scopes might
+   * override keys that do not exist.
+   */
+  private String findKey(byte[] array, ByteBuffer buffer, int offset, int length) {
+    if (array == null && buffer == null) {
+      throw new CfgException("Key must not be null!");
+    }
+    if (array == null) {
+      offset = buffer.position();
+      length = buffer.remaining();
+      if (buffer.hasArray()) {
+        array = buffer.array();
+        offset += buffer.arrayOffset();
+      }
+    }
+    else if (offset < 0 || length < 0 || offset + length > array.length) {
+      throw new IndexOutOfBoundsException("Key slice " + offset + "+" + length + " exceeds array length " + array.length);
+    }
+    if (_cache.hasOpenScopes()) {
+      String fullKey = toKey(array != null ? new String(array, offset, length, CfgBinary.UTF8) : utf8(buffer));
+      return exists(fullKey) ? fullKey : null;
+    }
+    return index().find(getPrefix(), array, buffer, offset, length);
+  }
+
+  private static String utf8(ByteBuffer buffer) {
+    return CfgBinary.UTF8.decode(buffer.duplicate()).toString();
+  }
+
   private <T> T checkNotNull(String key, T value) {
     if (value == null) {
       String suffix = _subsetPrefix != null ? " in subset '" + _subsetPrefix + "'!" : "!";
@@ -710,30 +2067,163 @@ public class Cfg {
    * Internal lookup that automatically replaces expressions of the form ${lookup.key} inside config values.
    */
   private String resolve(String key) {
-    String value = _map.get(key);
-    if (value != null) {
-      // We replace values till nothing is found anymore (allows for transitive replaces):
-      Set<String> uniqueSet = new HashSet<String>();
-      while (value.length() > 0) {
-        int preIdx = value.indexOf("${");
-        if (preIdx == -1) {
-          break;
-        }
-        int postIdx = value.indexOf('}', preIdx);
-        if (postIdx == -1) {
-          break;
-        }
-        String substKey = value.substring(preIdx + 2, postIdx);
-        if (!_map.containsKey(substKey)) {
-          throw new CfgException("The substitution key '" + substKey + "' does not exist!");
-        }
-        String substValue = _map.get(substKey);
-        value = value.substring(0, preIdx) + (substValue == null ? "" : substValue) + value.substring(postIdx + 1);
-        if (!uniqueSet.add(value)) {
-          throw new CfgException("Key '" + key + "' leads to a circular, non-resolvable substitution!");
-        }
+    return resolve(key, lookup(key));
+  }
+
+  /**
+   * Substitutes the given value of the given full key, timed if statistics are enabled.
+   */
+  private Object substitute(String key, String value) {
+    CfgStats stats = CfgStats.getInstance();
+    if (!stats.isEnabled()) {
+      return trySubstitute(key, value);
+    }
+    long tick = System.nanoTime();
+    Object result = trySubstitute(key, value);
+    stats.recordResolve(System.nanoTime() - tick);
+    return result;
+  }
+
+  /**
+   * Returns the resolved (eg. substituted) value of the given value for the given full key.
+   */
+  private String resolve(String key, String value) {
+    if (value != null && value.indexOf("${") != -1) {
+      Object result = substitute(key, value);
+      if (!(result instanceof String)) {
+        throw new CfgException(((CfgResult<?>) result).getMessage());
+      }
+      value = (String) result;
+    }
+    return value;
+  }
+
+  /**
+   * Returns the substituted value (a string) or the failed substitution (a {@link CfgResult}).
+   */
+  private Object trySubstitute(String key, String value) {
+    // We replace values till nothing is found anymore (allows for transitive replaces):
+    Set<String> uniqueSet = new HashSet<String>();
+    while (value.length() > 0) {
+      int preIdx = value.indexOf("${");
+      if (preIdx == -1) {
+        break;
+      }
+      int postIdx = value.indexOf('}', preIdx);
+      if (postIdx == -1) {
+        break;
+      }
+      String substKey = value.substring(preIdx + 2, postIdx);
+      if (!exists(substKey)) {
+        return CfgResult.error(CfgResult.MISSING_SUBSTITUTION, key, substKey, null);
+      }
+      String substValue = lookup(substKey);
+      value = value.substring(0, preIdx) + (substValue == null ? "" : substValue) + value.substring(postIdx + 1);
+      if (!uniqueSet.add(value)) {
+        return CfgResult.error(CfgResult.CIRCULAR_SUBSTITUTION, key, null, null);
       }
     }
     return value;
   }
+
+  /**
+   * Returns the value of the given full key, overridden by a scope of the current thread if any.
+   */
+  private String lookup(String fullKey) {
+    if (_cache.hasOpenScopes()) {
+      CfgScope scope = CfgScope.find(_cache, fullKey);
+      if (scope != null) {
+        return scope.get(fullKey);
+      }
+    }
+    return _map.get(fullKey);
+  }
+
+  /**
+   * Returns whether the given full key exists, or is overridden by a scope of the current thread.
+   */
+  private boolean exists(String fullKey) {
+    return (_cache.hasOpenScopes() && CfgScope.find(_cache, fullKey) != null) || _map.containsKey(fullKey);
+  }
+
+  /**
+   * Spliterator over the underlying key/value pairs that filters by prefix and resolves values lazily.
+   */
+  private final class CfgSpliterator implements Spliterator<Map.Entry<String, String>>, Consumer<Map.Entry<String, String>> {
+    private final Spliterator<Map.Entry<String, String>> _entries;
+    private final String _prefix;
+    private Map.Entry<String, String> _current;
+
+    CfgSpliterator(Spliterator<Map.Entry<String, String>> entries, String prefix) {
+      _entries = entries;
+      _prefix = prefix;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map.Entry<String, String>> action) {
+      while (_entries.tryAdvance(this)) {
+        Map.Entry<String, String> entry = _current;
+        _current = null;
+        if (entry.getKey().startsWith(_prefix)) {
+          action.accept(new CfgEntry(entry.getKey(), entry.getValue()));
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void accept(Map.Entry<String, String> entry) {
+      _current = entry;
+    }
+
+    @Override
+    public Spliterator<Map.Entry<String, String>> trySplit() {
+      Spliterator<Map.Entry<String, String>> split = _entries.trySplit();
+      return split != null ? new CfgSpliterator(split, _prefix) : null;
+    }
+
+    @Override
+    public long estimateSize() {
+      return _entries.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+      return DISTINCT | NONNULL;
+    }
+  }
+
+  /**
+   * Entry with a key relative to this config instance and a lazily resolved value.
+   */
+  private final class CfgEntry implements Map.Entry<String, String> {
+    private final String _fullKey;
+    private final String _value;
+
+    CfgEntry(String fullKey, String value) {
+      _fullKey = fullKey;
+      _value = value;
+    }
+
+    @Override
+    public String getKey() {
+      return _subsetPrefix != null ? _fullKey.substring(_subsetPrefix.length()) : _fullKey;
+    }
+
+    @Override
+    public String getValue() {
+      return resolve(_fullKey, _value);
+    }
+
+    @Override
+    public String setValue(String value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String toString() {
+      return getKey() + "=" + _value;
+    }
+  }
 }
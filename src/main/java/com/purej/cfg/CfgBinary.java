@@ -0,0 +1,295 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The compact binary layout used for snapshots and shared stores - only for internal usage.
+ * <p/>
+ * Layout (big endian):
+ * <pre>
+ * header:  int magic, int version, long generation, long source-size, long source-modified, long source-checksum,
+ *          int entry-count, int slot-count
+ * index:   int[slot-count] absolute entry offsets (0 = empty slot), open addressing by key hash
+ * entries: int key-hash, int key-length, byte[] key (UTF-8), int value-length (-1 = null), byte[] value (UTF-8)
+ * </pre>
+ *
+ * @author Stefan Mueller
+ */
+final class CfgBinary {
+  static final Charset UTF8 = Charset.forName("UTF-8");
+  static final int MAGIC = 0x504A4346; // "PJCF"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 48;
+  static final long NO_CHECKSUM = -1;
+
+  /** The header of a binary file. */
+  static final class Header {
+    long generation;
+    long sourceSize;
+    long sourceModified;
+    long sourceChecksum = NO_CHECKSUM;
+    int entryCount;
+    int slotCount;
+  }
+
+  private CfgBinary() {
+  }
+
+  /**
+   * Writes the given key/value pairs with the given header information to the given file.
+   * The file is written to a temporary file first and renamed atomically.
+   */
+  static void write(Map<String, String> map, Header header, File file) throws IOException {
+    int count = map.size();
+    int slotCount = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+    int[] slots = new int[slotCount];
+    int[] hashes = new int[count];
+    byte[][] keys = new byte[count][];
+    byte[][] values = new byte[count][];
+    int offset = HEADER_SIZE + slotCount * 4;
+    int i = 0;
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      keys[i] = entry.getKey().getBytes(UTF8);
+      values[i] = entry.getValue() != null ? entry.getValue().getBytes(UTF8) : null;
+      hashes[i] = entry.getKey().hashCode();
+      int slot = hashes[i] & (slotCount - 1);
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & (slotCount - 1);
+      }
+      slots[slot] = offset;
+      offset += 12 + keys[i].length + (values[i] != null ? values[i].length : 0);
+      i++;
+    }
+
+    File tmp = CfgFiles.createTempFile(file);
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(header.generation);
+        out.writeLong(header.sourceSize);
+        out.writeLong(header.sourceModified);
+        out.writeLong(header.sourceChecksum);
+        out.writeInt(count);
+        out.writeInt(slotCount);
+        for (int slot : slots) {
+          out.writeInt(slot);
+        }
+        for (i = 0; i < count; i++) {
+          out.writeInt(hashes[i]);
+          out.writeInt(keys[i].length);
+          out.write(keys[i]);
+          if (values[i] == null) {
+            out.writeInt(-1);
+          }
+          else {
+            out.writeInt(values[i].length);
+            out.write(values[i]);
+          }
+        }
+      }
+      finally {
+        out.close();
+      }
+      CfgFiles.replace(tmp, file);
+    }
+    finally {
+      CfgFiles.delete(tmp);
+    }
+  }
+
+  /**
+   * Reads the given file completely into a heap buffer. Unlike a mapping, this does not keep the file open, so it can
+   * be replaced right away (also on Windows).
+   */
+  static ByteBuffer read(File file) throws IOException {
+    return ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+  }
+
+  /**
+   * Maps the given file read-only into memory.
+   */
+  static MappedByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Reads and checks the header of the given buffer.
+   *
+   * @return the header or null if the buffer does not contain a (supported) binary layout
+   */
+  static Header readHeader(ByteBuffer buffer) {
+    return readHeader(buffer, buffer.limit());
+  }
+
+  private static Header readHeader(ByteBuffer buffer, long length) {
+    if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      return null;
+    }
+    Header header = new Header();
+    header.generation = buffer.getLong(8);
+    header.sourceSize = buffer.getLong(16);
+    header.sourceModified = buffer.getLong(24);
+    header.sourceChecksum = buffer.getLong(32);
+    header.entryCount = buffer.getInt(40);
+    header.slotCount = buffer.getInt(44);
+    if (header.entryCount < 0 || header.slotCount <= header.entryCount || Integer.bitCount(header.slotCount) != 1
+        || HEADER_SIZE + (long) header.slotCount * 4 > length) {
+      return null;
+    }
+    return header;
+  }
+
+  /**
+   * Decodes all entries of the given buffer into a new map.
+   */
+  static Map<String, String> readEntries(ByteBuffer buffer, Header header) {
+    Map<String, String> map = new HashMap<String, String>((int) (header.entryCount / 0.7) + 1);
+    byte[] bytes = new byte[256];
+    buffer.position(HEADER_SIZE + header.slotCount * 4);
+    for (int i = 0; i < header.entryCount; i++) {
+      buffer.getInt(); // Hash
+      int length = buffer.getInt();
+      bytes = ensureCapacity(bytes, length);
+      buffer.get(bytes, 0, length);
+      String key = new String(bytes, 0, length, UTF8);
+      String value = null;
+      length = buffer.getInt();
+      if (length >= 0) {
+        bytes = ensureCapacity(bytes, length);
+        buffer.get(bytes, 0, length);
+        value = new String(bytes, 0, length, UTF8);
+      }
+      map.put(key, value);
+    }
+    return map;
+  }
+
+  /**
+   * Looks up the entry of the given key directly in the given buffer.
+   *
+   * @return the absolute offset of the entry or -1 if the key does not exist
+   */
+  static int find(ByteBuffer buffer, Header header, String key) {
+    int hash = key.hashCode();
+    int mask = header.slotCount - 1;
+    int slot = hash & mask;
+    while (true) {
+      int offset = buffer.getInt(HEADER_SIZE + slot * 4);
+      if (offset == 0) {
+        return -1;
+      }
+      if (buffer.getInt(offset) == hash && keyEquals(buffer, offset + 8, buffer.getInt(offset + 4), key)) {
+        return offset;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * Compares the key bytes at the given position with the given key, without encoding ASCII keys.
+   */
+  private static boolean keyEquals(ByteBuffer buffer, int position, int length, String key) {
+    int count = key.length();
+    if (length < count) {
+      return false;
+    }
+    for (int i = 0; i < count; i++) {
+      char c = key.charAt(i);
+      if (c >= 0x80) {
+        byte[] bytes = key.getBytes(UTF8);
+        if (bytes.length != length) {
+          return false;
+        }
+        for (int j = i; j < length; j++) {
+          if (buffer.get(position + j) != bytes[j]) {
+            return false;
+          }
+        }
+        return true;
+      }
+      if (buffer.get(position + i) != c) {
+        return false;
+      }
+    }
+    return length == count;
+  }
+
+  /**
+   * Returns the offset of the entry that follows the entry at the given offset.
+   */
+  static int nextEntry(ByteBuffer buffer, int offset) {
+    int position = offset + 8 + buffer.getInt(offset + 4);
+    int length = buffer.getInt(position);
+    return position + 4 + Math.max(length, 0);
+  }
+
+  /**
+   * Decodes the key of the entry at the given offset.
+   */
+  static String readKey(ByteBuffer buffer, int offset) {
+    return readString(buffer, offset + 8, buffer.getInt(offset + 4));
+  }
+
+  /**
+   * Decodes the value of the entry at the given offset (may be null).
+   */
+  static String readValue(ByteBuffer buffer, int offset) {
+    int position = offset + 8 + buffer.getInt(offset + 4);
+    int length = buffer.getInt(position);
+    return length >= 0 ? readString(buffer, position + 4, length) : null;
+  }
+
+  private static String readString(ByteBuffer buffer, int position, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer view = buffer.duplicate();
+    view.position(position);
+    view.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * Reads the header of the given file without mapping it.
+   *
+   * @return the header or null if the file does not exist or does not contain a (supported) binary layout
+   */
+  static Header readHeader(File file) throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      byte[] bytes = new byte[(int) Math.min(HEADER_SIZE, raf.length())];
+      raf.readFully(bytes);
+      return readHeader(ByteBuffer.wrap(bytes), raf.length());
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  private static byte[] ensureCapacity(byte[] bytes, int length) {
+    return bytes.length >= length ? bytes : new byte[Math.max(length, bytes.length * 2)];
+  }
+}
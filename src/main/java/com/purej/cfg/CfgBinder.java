@@ -0,0 +1,297 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds config values to {@link CfgKey}-annotated types, see {@link Cfg#bind(Class)} - only for internal usage.
+ * <p/>
+ * The annotations of a type are analyzed once and the resulting binder (with the method handles to create and
+ * populate instances) is cached per type.
+ *
+ * @author Stefan Mueller
+ */
+final class CfgBinder {
+  private static final ClassValue<CfgBinder> BINDERS = new ClassValue<CfgBinder>() {
+    @Override
+    protected CfgBinder computeValue(Class<?> type) {
+      return new CfgBinder(type);
+    }
+  };
+
+  private final Class<?> _type;
+  private final List<Slot> _slots = new ArrayList<Slot>();
+  private MethodHandle _constructor;
+  private boolean _constructorBinding;
+
+  /** A bound key with its target. */
+  private static final class Slot {
+    final String key;
+    final Class<?> type;
+    final boolean required;
+    final String defaultValue;
+    final Method method;
+    final MethodHandle setter;
+
+    Slot(CfgKey annotation, Class<?> type, Method method, MethodHandle setter) {
+      this.key = annotation.value();
+      this.type = type;
+      this.required = annotation.required();
+      this.defaultValue = CfgKey.NO_DEFAULT.equals(annotation.defaultValue()) ? null : annotation.defaultValue();
+      this.method = method;
+      this.setter = setter;
+      if (!isSupported(type)) {
+        throw new CfgException("Type '" + type.getName() + "' of key '" + key + "' is not supported for binding!");
+      }
+    }
+  }
+
+  /** Returns the values for the bound interface methods. */
+  private static final class Handler implements InvocationHandler {
+    private final Class<?> _type;
+    private final Map<Method, Object> _values;
+    private final Map<String, Object> _keyValues;
+
+    Handler(Class<?> type, Map<Method, Object> values, Map<String, Object> keyValues) {
+      _type = type;
+      _values = values;
+      _keyValues = keyValues;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      Object value = _values.get(method);
+      if (value != null || _values.containsKey(method)) {
+        return value;
+      }
+      if (method.getName().equals("equals") && args != null && args.length == 1) {
+        return Boolean.valueOf(proxy == args[0]);
+      }
+      if (method.getName().equals("hashCode") && args == null) {
+        return Integer.valueOf(System.identityHashCode(proxy));
+      }
+      if (method.getName().equals("toString") && args == null) {
+        return _type.getSimpleName() + _keyValues;
+      }
+      throw new UnsupportedOperationException("Method '" + method + "' is not bound to a config key!");
+    }
+  }
+
+  private CfgBinder(Class<?> type) {
+    _type = type;
+    try {
+      if (type.isInterface()) {
+        analyzeInterface();
+      }
+      else if (!analyzeConstructor()) {
+        analyzeFields();
+      }
+    }
+    catch (IllegalAccessException e) {
+      throw new CfgException("Type '" + type.getName() + "' could not be analyzed for binding!", e);
+    }
+    if (_slots.isEmpty()) {
+      throw new CfgException("Type '" + type.getName() + "' has no members annotated with @CfgKey!");
+    }
+  }
+
+  /**
+   * Binds the given config to a new instance of the given type.
+   */
+  static <T> T bind(Cfg cfg, Class<T> type) throws CfgException {
+    return type.cast(BINDERS.get(type).bind(cfg));
+  }
+
+  private void analyzeInterface() {
+    for (Method method : _type.getMethods()) {
+      CfgKey annotation = method.getAnnotation(CfgKey.class);
+      if (annotation != null) {
+        if (method.getParameterTypes().length > 0) {
+          throw new CfgException("Method '" + method + "' bound to a config key must not have parameters!");
+        }
+        _slots.add(new Slot(annotation, method.getReturnType(), method, null));
+      }
+      else if (!Modifier.isStatic(method.getModifiers())) {
+        throw new CfgException("Method '" + method + "' is not annotated with @CfgKey!");
+      }
+    }
+  }
+
+  private boolean analyzeConstructor() throws IllegalAccessException {
+    for (Constructor<?> constructor : _type.getDeclaredConstructors()) {
+      Annotation[][] annotations = constructor.getParameterAnnotations();
+      Class<?>[] types = constructor.getParameterTypes();
+      if (types.length == 0 || annotations.length != types.length) {
+        continue;
+      }
+      List<Slot> slots = new ArrayList<Slot>();
+      for (int i = 0; i < types.length; i++) {
+        for (Annotation annotation : annotations[i]) {
+          if (annotation instanceof CfgKey) {
+            slots.add(new Slot((CfgKey) annotation, types[i], null, null));
+          }
+        }
+      }
+      if (slots.size() == types.length) {
+        constructor.setAccessible(true);
+        _constructor = MethodHandles.lookup().unreflectConstructor(constructor);
+        _constructorBinding = true;
+        _slots.addAll(slots);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void analyzeFields() throws IllegalAccessException {
+    for (Class<?> c = _type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        CfgKey annotation = field.getAnnotation(CfgKey.class);
+        if (annotation != null) {
+          if (Modifier.isFinal(field.getModifiers()) || Modifier.isStatic(field.getModifiers())) {
+            throw new CfgException("Field '" + field + "' bound to a config key must not be final or static!");
+          }
+          field.setAccessible(true);
+          _slots.add(new Slot(annotation, field.getType(), null, MethodHandles.lookup().unreflectSetter(field)));
+        }
+      }
+    }
+    try {
+      Constructor<?> constructor = _type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      _constructor = MethodHandles.lookup().unreflectConstructor(constructor);
+    }
+    catch (NoSuchMethodException e) {
+      throw new CfgException("Type '" + _type.getName() + "' has no constructor without parameters!");
+    }
+  }
+
+  private Object bind(Cfg cfg) throws CfgException {
+    // Convert all values first, so all errors are reported at once:
+    Object[] values = new Object[_slots.size()];
+    List<String> errors = new ArrayList<String>();
+    for (int i = 0; i < values.length; i++) {
+      values[i] = value(cfg, _slots.get(i), errors);
+    }
+    if (!errors.isEmpty()) {
+      StringBuilder builder = new StringBuilder();
+      builder.append("Config could not be bound to '").append(_type.getName()).append("':");
+      for (String error : errors) {
+        builder.append("\n  ").append(error);
+      }
+      throw new CfgException(builder.toString());
+    }
+    if (_type.isInterface()) {
+      Map<Method, Object> methodValues = new HashMap<Method, Object>();
+      Map<String, Object> keyValues = new LinkedHashMap<String, Object>();
+      for (int i = 0; i < values.length; i++) {
+        methodValues.put(_slots.get(i).method, values[i]);
+        keyValues.put(_slots.get(i).key, values[i]);
+      }
+      return Proxy.newProxyInstance(_type.getClassLoader(), new Class<?>[] {_type}, new Handler(_type, methodValues, keyValues));
+    }
+    try {
+      if (_constructorBinding) {
+        return _constructor.invokeWithArguments(values);
+      }
+      Object instance = _constructor.invoke();
+      for (int i = 0; i < values.length; i++) {
+        _slots.get(i).setter.invoke(instance, values[i]);
+      }
+      return instance;
+    }
+    catch (RuntimeException e) {
+      throw e;
+    }
+    catch (Error e) {
+      throw e;
+    }
+    catch (Throwable e) {
+      throw new CfgException("Instance of type '" + _type.getName() + "' could not be created!", e);
+    }
+  }
+
+  private static Object value(Cfg cfg, Slot slot, List<String> errors) {
+    CfgResult<?> result = tryGet(cfg, slot.type, slot.key);
+    if (result.getStatus() == CfgResult.Status.MISSING) {
+      if (slot.defaultValue != null) {
+        Cfg defaults = new Cfg();
+        defaults.put(slot.key, slot.defaultValue);
+        result = tryGet(defaults, slot.type, slot.key);
+      }
+      else if (!slot.required) {
+        return emptyValue(slot.type);
+      }
+    }
+    if (!result.isOk()) {
+      errors.add(result.getMessage());
+      return null;
+    }
+    return result.getValue();
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static CfgResult<?> tryGet(Cfg cfg, Class<?> type, String key) {
+    if (type == String.class) {
+      return cfg.tryGetString(key);
+    }
+    if (type == boolean.class || type == Boolean.class) {
+      return cfg.tryGetBoolean(key);
+    }
+    if (type == int.class || type == Integer.class) {
+      return cfg.tryGetInt(key);
+    }
+    if (type == long.class || type == Long.class) {
+      return cfg.tryGetLong(key);
+    }
+    if (type == BigDecimal.class) {
+      return cfg.tryGetBigDecimal(key);
+    }
+    if (type == Duration.class) {
+      return cfg.tryGetDuration(key);
+    }
+    if (type.isEnum()) {
+      return cfg.tryGetEnum(key, (Class) type);
+    }
+    CfgResult<String> result = cfg.tryGetString(key);
+    if (!result.isOk()) {
+      return result;
+    }
+    List<String> list = cfg.getStringList(key);
+    return CfgResult.ok(type == List.class ? list : list.toArray(new String[list.size()]));
+  }
+
+  private static boolean isSupported(Class<?> type) {
+    return type == String.class || type == boolean.class || type == Boolean.class || type == int.class || type == Integer.class
+        || type == long.class || type == Long.class || type == BigDecimal.class || type == Duration.class || type.isEnum() || type == String[].class
+        || type == List.class;
+  }
+
+  private static Object emptyValue(Class<?> type) {
+    if (type == boolean.class) {
+      return Boolean.FALSE;
+    }
+    if (type == int.class) {
+      return Integer.valueOf(0);
+    }
+    if (type == long.class) {
+      return Long.valueOf(0);
+    }
+    return null;
+  }
+}
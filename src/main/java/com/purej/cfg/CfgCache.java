@@ -0,0 +1,194 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of parsed config values, shared by a root config and all its subsets - only for internal usage.
+ * <p/>
+ * Every cached value remembers the (resolved) string it has been parsed from. A cached value is only returned if it
+ * has been parsed from the current string, so the cache never returns stale values - even if the underlying map is
+ * modified directly or a substituted value changes. Entries of keys changed over the config are removed to free memory.
+ * <p/>
+ * The cache also holds the key index, which is removed on added or removed keys and rebuilt on demand. Added and
+ * removed keys are counted as modifications. The cache of an overlaid config (see {@link Cfg#withOverlay(java.util.Map)})
+ * has the cache of its base config as parent: Its index is only valid as long as neither the overlaid nor the base
+ * config modified their keys, and its modifications are counted for the parent as well (they write through to the
+ * base map).
+ *
+ * @author Stefan Mueller
+ */
+final class CfgCache {
+  static final int STRING_LIST = 1;
+  static final int DURATION = 2;
+  static final int BYTE_SIZE = 3;
+
+  private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+  private final CfgCache _parent;
+  private volatile int _modCount;
+  private final AtomicInteger _openScopes = new AtomicInteger();
+  private volatile IndexEntry _index;
+  private volatile CfgWarmup _recorder;
+  private volatile CfgPublisher _publisher;
+
+  /** The key index with the modification count it has been built for. */
+  private static final class IndexEntry {
+    final CfgIndex index;
+    final int modCount;
+
+    IndexEntry(CfgIndex index, int modCount) {
+      this.index = index;
+      this.modCount = modCount;
+    }
+  }
+
+  /** A cached value. */
+  private static final class Entry {
+    final String source;
+    final int kind;
+    final Object value;
+
+    Entry(String source, int kind, Object value) {
+      this.source = source;
+      this.kind = kind;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Creates a new cache of a root config.
+   */
+  CfgCache() {
+    this(null);
+  }
+
+  /**
+   * Creates a new cache of a config that overlays the config of the given parent cache.
+   */
+  CfgCache(CfgCache parent) {
+    _parent = parent;
+  }
+
+  /**
+   * Returns the cached value of the given kind for the given full key if it has been parsed from the given source string.
+   *
+   * @return the cached value or null if no (current) value is cached
+   */
+  Object get(String key, String source, int kind) {
+    Entry entry = _entries.get(key);
+    boolean hit = entry != null && entry.kind == kind && (entry.source == source || entry.source.equals(source));
+    CfgStats stats = CfgStats.getInstance();
+    if (stats.isEnabled()) {
+      stats.recordCache(hit);
+    }
+    return hit ? entry.value : null;
+  }
+
+  /**
+   * Caches the given value of the given kind parsed from the given source string.
+   */
+  void put(String key, String source, int kind, Object value) {
+    _entries.put(key, new Entry(source, kind, value));
+  }
+
+  /**
+   * Returns the number of key modifications of this cache and its parents, to be passed to
+   * {@link #setIndex(CfgIndex, int)} when a new index is built.
+   */
+  int modCount() {
+    return _parent != null ? _modCount + _parent.modCount() : _modCount;
+  }
+
+  /**
+   * Returns the key index if it is still valid for a map of the given size, null otherwise.
+   */
+  CfgIndex getIndex(int size) {
+    IndexEntry entry = _index;
+    return entry != null && entry.index.size() == size && entry.modCount == modCount() ? entry.index : null;
+  }
+
+  /**
+   * Caches the given key index, built after the given modification count has been read.
+   */
+  void setIndex(CfgIndex index, int modCount) {
+    _index = new IndexEntry(index, modCount);
+  }
+
+  /**
+   * Returns the active recorder or null if accesses are not recorded.
+   */
+  CfgWarmup getRecorder() {
+    return _recorder;
+  }
+
+  void setRecorder(CfgWarmup recorder) {
+    _recorder = recorder;
+  }
+
+  /**
+   * Returns the change publisher or null if none has been created yet.
+   */
+  CfgPublisher getPublisher() {
+    return _publisher;
+  }
+
+  /**
+   * Returns the change publisher, creates it on first call.
+   */
+  synchronized CfgPublisher publisher() {
+    if (_publisher == null) {
+      _publisher = new CfgPublisher(ForkJoinPool.getCommonPoolParallelism() > 1 ? ForkJoinPool.commonPool() : new Executor() {
+        @Override
+        public void execute(Runnable command) {
+          new Thread(command, "cfg-publisher").start();
+        }
+      });
+    }
+    return _publisher;
+  }
+
+  /**
+   * Returns whether any thread has an open scope on the configs of this cache (see {@link CfgScope}). As long as none
+   * has, lookups skip the thread-local of the scopes.
+   */
+  boolean hasOpenScopes() {
+    return _openScopes.get() != 0;
+  }
+
+  void scopeOpened() {
+    _openScopes.incrementAndGet();
+  }
+
+  void scopeClosed() {
+    _openScopes.decrementAndGet();
+  }
+
+  /**
+   * Removes the cached value for the given full key.
+   */
+  void remove(String key) {
+    _entries.remove(key);
+  }
+
+  /**
+   * Counts a modification and removes the key index, after a key has been added or removed.
+   */
+  void keysChanged() {
+    _index = null;
+    _modCount++;
+    if (_parent != null) {
+      _parent.keysChanged();
+    }
+  }
+
+  /**
+   * Removes all cached values and the key index.
+   */
+  void clear() {
+    _entries.clear();
+    keysChanged();
+  }
+}
@@ -0,0 +1,385 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The block-compressed store format - only for internal usage.
+ * <p/>
+ * The key/value pairs are written in blocks of about {@link #BLOCK_SIZE} uncompressed bytes, every block is
+ * compressed on its own (raw deflate) and carries the CRC32 checksum of its uncompressed bytes. As blocks are
+ * independent, they are compressed and decompressed in parallel on the common fork/join pool, while the calling thread
+ * writes or reads the next blocks - so I/O and decompression overlap. The number of blocks in flight is limited, so
+ * memory stays bounded for large configs.
+ * <p/>
+ * Layout (big endian):
+ * <pre>
+ * header: int magic, int version
+ * block:  int entry-count, int raw-length, int compressed-length, int checksum, byte[compressed-length] deflated data
+ * end:    int 0
+ * raw:    per entry: varint key-length, byte[] key (UTF-8), varint value-length + 1 (0 = null), byte[] value (UTF-8)
+ * </pre>
+ *
+ * @author Stefan Mueller
+ */
+final class CfgCompressed {
+  static final int MAGIC = 0x504A435A; // "PJCZ"
+  static final int VERSION = 1;
+  static final int BLOCK_SIZE = 256 * 1024;
+  /** The maximum compression ratio of deflate, a larger raw length of a block is forged. */
+  static final long MAX_RATIO = 1032;
+
+  /** A block to be compressed or decompressed by a pool thread. */
+  private static final class Block implements Callable<Block> {
+    final int index;
+    int entryCount;
+    byte[] raw;
+    int rawLength;
+    byte[] compressed;
+    int compressedLength;
+    int checksum;
+    int level;
+    String[] entries;
+
+    Block(int index) {
+      this.index = index;
+    }
+
+    public Block call() {
+      if (compressed == null) {
+        compress();
+      }
+      else {
+        decompress();
+      }
+      return this;
+    }
+
+    private void compress() {
+      CRC32 crc = new CRC32();
+      crc.update(raw, 0, rawLength);
+      checksum = (int) crc.getValue();
+      Deflater deflater = new Deflater(level, true);
+      try {
+        deflater.setInput(raw, 0, rawLength);
+        deflater.finish();
+        compressed = new byte[rawLength / 4 + 64];
+        while (!deflater.finished()) {
+          if (compressedLength == compressed.length) {
+            byte[] bigger = new byte[compressed.length * 2];
+            System.arraycopy(compressed, 0, bigger, 0, compressedLength);
+            compressed = bigger;
+          }
+          compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+      }
+      finally {
+        deflater.end();
+      }
+      raw = null;
+    }
+
+    private void decompress() {
+      raw = new byte[rawLength];
+      Inflater inflater = new Inflater(true);
+      try {
+        inflater.setInput(compressed, 0, compressedLength);
+        int length = 0;
+        while (length < rawLength) {
+          int n = inflater.inflate(raw, length, rawLength - length);
+          if (n == 0 && (inflater.needsInput() || inflater.finished())) {
+            break;
+          }
+          length += n;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, length);
+        if (length != rawLength || (int) crc.getValue() != checksum) {
+          throw corrupt(index, "checksum mismatch");
+        }
+      }
+      catch (DataFormatException e) {
+        throw corrupt(index, e.getMessage());
+      }
+      finally {
+        inflater.end();
+      }
+      compressed = null;
+      decode();
+      raw = null;
+    }
+
+    private void decode() {
+      entries = new String[entryCount * 2];
+      int[] position = new int[1];
+      for (int i = 0; i < entries.length; i += 2) {
+        int keyLength = readVarInt(position);
+        entries[i] = readString(position, keyLength);
+        int valueLength = readVarInt(position) - 1;
+        entries[i + 1] = valueLength >= 0 ? readString(position, valueLength) : null;
+      }
+      if (position[0] != rawLength) {
+        throw corrupt(index, (rawLength - position[0]) + " trailing bytes");
+      }
+    }
+
+    private int readVarInt(int[] position) {
+      int result = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        if (position[0] == rawLength) {
+          throw corrupt(index, "unexpected end of data");
+        }
+        byte b = raw[position[0]++];
+        result |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return result;
+        }
+      }
+      throw corrupt(index, "invalid length");
+    }
+
+    private String readString(int[] position, int length) {
+      if (length < 0 || length > rawLength - position[0]) {
+        throw corrupt(index, "unexpected end of data");
+      }
+      String s = new String(raw, position[0], length, CfgBinary.UTF8);
+      position[0] += length;
+      return s;
+    }
+  }
+
+  /**
+   * Streaming writer that compresses full blocks in parallel and writes them in order.
+   */
+  static final class Writer {
+    private final DataOutputStream _out;
+    private final int _level;
+    private final int _maxPending = maxPending();
+    private final ArrayDeque<Future<Block>> _pending = new ArrayDeque<Future<Block>>();
+    private Block _block;
+    private int _blockCount;
+
+    /**
+     * Creates a new instance of this class and writes the header.
+     *
+     * @param stream the stream to write to
+     * @param level the deflate compression level (0-9 or -1 for the default level)
+     */
+    Writer(OutputStream stream, int level) throws IOException {
+      if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+        throw new CfgException("Invalid compression level " + level + ", must be between 0 and 9 or -1!");
+      }
+      _out = new DataOutputStream(stream);
+      _level = level;
+      _out.writeInt(MAGIC);
+      _out.writeInt(VERSION);
+    }
+
+    /**
+     * Appends the given key/value pair to the current block, a full block is handed over for compression.
+     */
+    void writeEntry(String key, String value) throws IOException {
+      if (_block == null) {
+        _block = new Block(_blockCount++);
+        _block.raw = new byte[BLOCK_SIZE + BLOCK_SIZE / 8];
+        _block.level = _level;
+      }
+      byte[] keyBytes = key.getBytes(CfgBinary.UTF8);
+      byte[] valueBytes = value != null ? value.getBytes(CfgBinary.UTF8) : null;
+      ensureCapacity(10 + keyBytes.length + (valueBytes != null ? valueBytes.length : 0));
+      writeVarInt(keyBytes.length);
+      writeBytes(keyBytes);
+      if (valueBytes != null) {
+        writeVarInt(valueBytes.length + 1);
+        writeBytes(valueBytes);
+      }
+      else {
+        writeVarInt(0);
+      }
+      _block.entryCount++;
+      if (_block.rawLength >= BLOCK_SIZE) {
+        submit();
+      }
+    }
+
+    /**
+     * Compresses and writes the last block and the end marker and flushes the stream.
+     */
+    void finish() throws IOException {
+      if (_block != null) {
+        submit();
+      }
+      while (!_pending.isEmpty()) {
+        write(await(_pending.poll()));
+      }
+      _out.writeInt(0);
+      _out.flush();
+    }
+
+    private void submit() throws IOException {
+      _pending.add(ForkJoinPool.commonPool().submit(_block));
+      _block = null;
+      while (_pending.size() >= _maxPending) {
+        write(await(_pending.poll()));
+      }
+    }
+
+    private void write(Block block) throws IOException {
+      _out.writeInt(block.entryCount);
+      _out.writeInt(block.rawLength);
+      _out.writeInt(block.compressedLength);
+      _out.writeInt(block.checksum);
+      _out.write(block.compressed, 0, block.compressedLength);
+    }
+
+    private void ensureCapacity(int length) {
+      if (_block.rawLength + length > _block.raw.length) {
+        byte[] bigger = new byte[Math.max(_block.raw.length * 2, _block.rawLength + length)];
+        System.arraycopy(_block.raw, 0, bigger, 0, _block.rawLength);
+        _block.raw = bigger;
+      }
+    }
+
+    private void writeVarInt(int value) {
+      while ((value & ~0x7F) != 0) {
+        _block.raw[_block.rawLength++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      _block.raw[_block.rawLength++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes) {
+      System.arraycopy(bytes, 0, _block.raw, _block.rawLength, bytes.length);
+      _block.rawLength += bytes.length;
+    }
+  }
+
+  private CfgCompressed() {
+  }
+
+  /**
+   * Reads all key/value pairs from the given stream into the given map. Blocks are decompressed in parallel while the
+   * following blocks are read, and are put into the map in the order they were written.
+   *
+   * @throws CfgException if the stream is not in the compressed format, is truncated or a block is corrupt
+   */
+  static void read(InputStream stream, Map<String, String> map) throws IOException {
+    DataInputStream in = new DataInputStream(stream);
+    int maxPending = maxPending();
+    ArrayDeque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new CfgException("Invalid compressed config, unknown format!");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new CfgException("Invalid compressed config, unsupported version " + version + "!");
+      }
+      for (int index = 0;; index++) {
+        int entryCount = in.readInt();
+        if (entryCount == 0) {
+          break;
+        }
+        Block block = new Block(index);
+        block.entryCount = entryCount;
+        block.rawLength = in.readInt();
+        block.compressedLength = in.readInt();
+        block.checksum = in.readInt();
+        if (entryCount < 0 || block.rawLength < entryCount * 2L || block.compressedLength < 0
+            || block.compressedLength > maxCompressedLength(block.rawLength)
+            || block.rawLength > block.compressedLength * MAX_RATIO + 64) {
+          throw corrupt(index, "invalid block header");
+        }
+        block.compressed = readBytes(in, block.compressedLength);
+        pending.add(ForkJoinPool.commonPool().submit(block));
+        if (pending.size() >= maxPending) {
+          put(await(pending.poll()), map);
+        }
+      }
+    }
+    catch (EOFException e) {
+      throw new CfgException("Invalid compressed config, unexpected end of stream!");
+    }
+    while (!pending.isEmpty()) {
+      put(await(pending.poll()), map);
+    }
+  }
+
+  private static void put(Block block, Map<String, String> map) {
+    String[] entries = block.entries;
+    for (int i = 0; i < entries.length; i += 2) {
+      map.put(entries[i], entries[i + 1]);
+    }
+  }
+
+  /**
+   * Reads the given number of bytes. The buffer grows with the bytes actually read, so a forged length hits the end of
+   * the stream before a large allocation.
+   */
+  private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+    byte[] bytes = new byte[Math.min(length, BLOCK_SIZE)];
+    int count = 0;
+    while (count < length) {
+      if (count == bytes.length) {
+        bytes = Arrays.copyOf(bytes, (int) Math.min(length, bytes.length * 2L));
+      }
+      int n = in.read(bytes, count, bytes.length - count);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      count += n;
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the upper bound of the raw deflate output for the given input length (as zlib's deflateBound).
+   */
+  private static long maxCompressedLength(long rawLength) {
+    return rawLength + (rawLength >> 12) + (rawLength >> 14) + (rawLength >> 25) + 13;
+  }
+
+  private static int maxPending() {
+    return Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+  }
+
+  private static Block await(Future<Block> future) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a block!", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CfgException) {
+        throw (CfgException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("A block could not be processed!", cause);
+    }
+  }
+
+  private static CfgException corrupt(int index, String reason) {
+    return new CfgException("Invalid compressed config, block " + index + " is corrupt (" + reason + ")!");
+  }
+}
@@ -0,0 +1,349 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The difference between two configs: the added or changed key/value pairs and the removed keys. Instead of the
+ * full state only the delta is sent to replicas, which apply it to their copy.
+ * <p/>
+ * Two versions of a {@link CfgVersions} are compared in O(changed), as both share all unchanged parts of their
+ * trie. Other configs are compared key by key in O(n).
+ * <p/>
+ * The binary encoding is compact: keys are sorted and share their common prefix with the previous key (dotted keys
+ * mostly do), lengths are variable-length encoded. On the receiving side the delta is applied atomically, either to
+ * a {@link CfgVersions} as one new version or to a copy of a config.
+ * <p/>
+ * This class is immutable and thread-safe.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgDelta {
+  /**
+   * The maximum length of a frame read by {@link #read(InputStream)}, a longer frame is rejected before it is
+   * allocated, so a corrupt or hostile length prefix can not exhaust the memory of the receiver.
+   */
+  public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+  private static final int MAGIC = 0x504A4344; // "PJCD"
+
+  private final SortedMap<String, String> _puts;
+  private final SortedSet<String> _removes;
+
+  private CfgDelta(SortedMap<String, String> puts, SortedSet<String> removes) {
+    _puts = Collections.unmodifiableSortedMap(puts);
+    _removes = Collections.unmodifiableSortedSet(removes);
+  }
+
+  /**
+   * Computes the delta that turns the first config into the second one. If both configs are versions of the same
+   * {@link CfgVersions}, only the changed parts are compared, otherwise all key/value pairs.
+   *
+   * @param from the old config
+   * @param to the new config
+   * @return the delta from the old to the new config
+   */
+  public static CfgDelta diff(Cfg from, Cfg to) {
+    Map<String, String> fromMap = from.rootMap();
+    Map<String, String> toMap = to.rootMap();
+    CfgTrie fromTrie = fromMap != null ? CfgTrie.of(fromMap) : null;
+    CfgTrie toTrie = toMap != null ? CfgTrie.of(toMap) : null;
+    if (fromTrie != null && toTrie != null) {
+      return diff(fromTrie, toTrie);
+    }
+    TreeMap<String, String> puts = new TreeMap<String, String>();
+    TreeSet<String> removes = new TreeSet<String>();
+    fromMap = fromMap != null ? fromMap : from.toMap();
+    toMap = toMap != null ? toMap : to.toMap();
+    for (Map.Entry<String, String> entry : toMap.entrySet()) {
+      String key = entry.getKey();
+      String value = entry.getValue();
+      String old = fromMap.get(key);
+      if (value == null ? old != null || !fromMap.containsKey(key) : !value.equals(old)) {
+        puts.put(key, value);
+      }
+    }
+    for (String key : fromMap.keySet()) {
+      if (!toMap.containsKey(key)) {
+        removes.add(key);
+      }
+    }
+    return new CfgDelta(puts, removes);
+  }
+
+  /**
+   * Computes the delta between two versions of the given multi-version config in O(changed).
+   *
+   * @param versions the multi-version config
+   * @param fromVersion the old version number
+   * @param toVersion the new version number
+   * @return the delta from the old to the new version
+   * @throws CfgException if one of the versions does not exist (anymore)
+   */
+  public static CfgDelta diff(CfgVersions versions, long fromVersion, long toVersion) throws CfgException {
+    return diff(versions.getTrie(fromVersion), versions.getTrie(toVersion));
+  }
+
+  private static CfgDelta diff(CfgTrie from, CfgTrie to) {
+    Map<String, String> puts = new HashMap<String, String>();
+    TreeSet<String> removes = new TreeSet<String>();
+    from.diff(to, puts, removes);
+    return new CfgDelta(new TreeMap<String, String>(puts), removes);
+  }
+
+  /**
+   * Returns the added or changed key/value pairs, sorted by key. The values might be null.
+   */
+  public SortedMap<String, String> getPuts() {
+    return _puts;
+  }
+
+  /**
+   * Returns the removed keys, sorted.
+   */
+  public SortedSet<String> getRemoves() {
+    return _removes;
+  }
+
+  /**
+   * Returns true if this delta contains no changes.
+   */
+  public boolean isEmpty() {
+    return _puts.isEmpty() && _removes.isEmpty();
+  }
+
+  /**
+   * Returns the number of changes of this delta.
+   */
+  public int size() {
+    return _puts.size() + _removes.size();
+  }
+
+  /**
+   * Returns a new config with the key/value pairs of the given config and the changes of this delta applied.
+   * The given config is not changed, readers switching from it to the returned config see all changes at once.
+   * To apply a delta in O(changed), use a {@link CfgVersions} and its {@link CfgVersions#apply(CfgDelta)}.
+   *
+   * @param cfg the config to apply the changes to
+   * @return the new config
+   * @throws CfgException if the given config is a subset
+   */
+  public Cfg apply(Cfg cfg) throws CfgException {
+    Map<String, String> map = cfg.rootMap();
+    if (map == null) {
+      throw new CfgException("Deltas can only be applied to root level configs (no subsets)!");
+    }
+    Map<String, String> result = new HashMap<String, String>((int) ((map.size() + _puts.size()) / 0.7) + 1);
+    result.putAll(map);
+    result.putAll(_puts);
+    result.keySet().removeAll(_removes);
+    return new Cfg(result, null);
+  }
+
+  /**
+   * Returns the compact binary encoding of this delta.
+   * <p/>
+   * Layout: int magic, varint put-count, varint remove-count, per put: varint shared-prefix-length, varint
+   * suffix-length, byte[] key-suffix (UTF-8), varint value-length + 1 (0 = null), byte[] value (UTF-8), per remove:
+   * varint shared-prefix-length, varint suffix-length, byte[] key-suffix (UTF-8). The shared prefix is counted in
+   * chars of the previous key.
+   */
+  public byte[] toBytes() {
+    Encoder out = new Encoder(64 + size() * 16);
+    out.writeInt(MAGIC);
+    out.writeVarInt(_puts.size());
+    out.writeVarInt(_removes.size());
+    String previous = "";
+    for (Map.Entry<String, String> entry : _puts.entrySet()) {
+      previous = out.writeKey(previous, entry.getKey());
+      String value = entry.getValue();
+      if (value == null) {
+        out.writeVarInt(0);
+      }
+      else {
+        byte[] bytes = value.getBytes(CfgBinary.UTF8);
+        out.writeVarInt(bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+      }
+    }
+    previous = "";
+    for (String key : _removes) {
+      previous = out.writeKey(previous, key);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes a delta from its binary encoding as returned by {@link #toBytes()}.
+   *
+   * @param bytes the encoded delta
+   * @return the decoded delta
+   * @throws CfgException if the bytes do not contain a valid delta
+   */
+  public static CfgDelta fromBytes(byte[] bytes) throws CfgException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new CfgException("Invalid delta, unknown format!");
+      }
+      int putCount = readVarInt(buffer);
+      int removeCount = readVarInt(buffer);
+      TreeMap<String, String> puts = new TreeMap<String, String>();
+      String previous = "";
+      for (int i = 0; i < putCount; i++) {
+        previous = readKey(buffer, previous);
+        int length = readVarInt(buffer) - 1;
+        puts.put(previous, length >= 0 ? readString(buffer, length) : null);
+      }
+      TreeSet<String> removes = new TreeSet<String>();
+      previous = "";
+      for (int i = 0; i < removeCount; i++) {
+        previous = readKey(buffer, previous);
+        removes.add(previous);
+      }
+      if (buffer.hasRemaining()) {
+        throw new CfgException("Invalid delta, " + buffer.remaining() + " trailing bytes!");
+      }
+      return new CfgDelta(puts, removes);
+    }
+    catch (BufferUnderflowException e) {
+      throw new CfgException("Invalid delta, unexpected end of data!");
+    }
+  }
+
+  /**
+   * Writes this delta as one length-prefixed frame to the given stream, so several deltas can be sent over the same
+   * stream (eg. a socket) and read one by one with {@link #read(InputStream)}. The stream is flushed but not closed.
+   *
+   * @param stream the stream to write to
+   * @throws IOException if the stream could not be written
+   * @throws CfgException if the encoded delta is longer than {@link #MAX_FRAME_LENGTH}
+   */
+  public void write(OutputStream stream) throws IOException, CfgException {
+    byte[] bytes = toBytes();
+    if (bytes.length > MAX_FRAME_LENGTH) {
+      throw new CfgException("Delta of " + bytes.length + " bytes exceeds the maximum frame length " + MAX_FRAME_LENGTH + "!");
+    }
+    DataOutputStream out = new DataOutputStream(stream);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+    out.flush();
+  }
+
+  /**
+   * Reads the next delta frame written by {@link #write(OutputStream)} from the given stream.
+   *
+   * @param stream the stream to read from
+   * @return the read delta or null if the stream ended before a new frame
+   * @throws IOException if the stream could not be read or ended within a frame
+   * @throws CfgException if the frame is longer than {@link #MAX_FRAME_LENGTH} or does not contain a valid delta
+   */
+  public static CfgDelta read(InputStream stream) throws IOException, CfgException {
+    DataInputStream in = new DataInputStream(stream);
+    int b = in.read();
+    if (b < 0) {
+      return null;
+    }
+    int length = (b << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+    if (length < 0 || length > MAX_FRAME_LENGTH) {
+      throw new CfgException("Invalid delta frame length " + length + "!");
+    }
+    byte[] bytes = new byte[length];
+    try {
+      in.readFully(bytes);
+    }
+    catch (EOFException e) {
+      throw new EOFException("Stream ended within a delta frame of " + length + " bytes!");
+    }
+    return fromBytes(bytes);
+  }
+
+  @Override
+  public String toString() {
+    return "CfgDelta[puts=" + _puts + ", removes=" + _removes + "]";
+  }
+
+  private static String readKey(ByteBuffer buffer, String previous) {
+    int shared = readVarInt(buffer);
+    if (shared > previous.length()) {
+      throw new CfgException("Invalid delta, shared key prefix " + shared + " exceeds previous key '" + previous + "'!");
+    }
+    String suffix = readString(buffer, readVarInt(buffer));
+    return shared == 0 ? suffix : previous.substring(0, shared).concat(suffix);
+  }
+
+  private static String readString(ByteBuffer buffer, int length) {
+    if (length < 0 || length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    String s = new String(buffer.array(), buffer.position(), length, CfgBinary.UTF8);
+    buffer.position(buffer.position() + length);
+    return s;
+  }
+
+  private static int readVarInt(ByteBuffer buffer) {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = buffer.get();
+      result |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return result;
+      }
+    }
+    throw new CfgException("Invalid delta, malformed length!");
+  }
+
+  /** Byte array output with varint and prefix-compressed key support. */
+  private static final class Encoder extends ByteArrayOutputStream {
+
+    Encoder(int size) {
+      super(size);
+    }
+
+    void writeInt(int value) {
+      write(value >>> 24);
+      write(value >>> 16);
+      write(value >>> 8);
+      write(value);
+    }
+
+    void writeVarInt(int value) {
+      while ((value & ~0x7F) != 0) {
+        write((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      write(value);
+    }
+
+    String writeKey(String previous, String key) {
+      int max = Math.min(previous.length(), key.length());
+      int shared = 0;
+      while (shared < max && previous.charAt(shared) == key.charAt(shared)) {
+        shared++;
+      }
+      if (shared > 0 && Character.isHighSurrogate(key.charAt(shared - 1))) {
+        shared--; // Never split a surrogate pair
+      }
+      byte[] suffix = key.substring(shared).getBytes(CfgBinary.UTF8);
+      writeVarInt(shared);
+      writeVarInt(suffix.length);
+      write(suffix, 0, suffix.length);
+      return key;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A config read from a directory with one file per key, as Kubernetes mounts config maps and secrets: The file name
+ * is the key, the file content (UTF-8, without a single trailing line break) is the value. Hidden entries (starting
+ * with a '.', like the '..data' symlink of Kubernetes), directories and other non-regular files are ignored,
+ * symbolic links are followed.
+ * <p/>
+ * {@link #refresh()} rescans the directory incrementally: Only entries whose modification time, size or symbolic
+ * link target changed are read again, polling a directory of thousands of unchanged entries costs one file status
+ * check per entry. Changes are swapped in atomically: {@link #getCfg()} returns an immutable config, readers keep
+ * the instance they got and see either all or none of the changes of a rescan. The configs of successive rescans
+ * share all unchanged key/value pairs, {@link CfgDelta#diff(Cfg, Cfg)} between them costs O(changed).
+ * <p/>
+ * This class is thread-safe, concurrent rescans are executed one after the other. The returned {@link Cfg}
+ * instances are read-only, their put methods throw an {@link UnsupportedOperationException}.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgDirectory {
+
+  /** The state of a file at its last read. */
+  private static final class Entry {
+    long modified;
+    long size;
+    String target;
+    long scan;
+  }
+
+  private final File _dir;
+  private final Map<String, Entry> _entries = new HashMap<String, Entry>();
+  private CfgTrie _trie = CfgTrie.EMPTY;
+  private long _scan;
+  private volatile Cfg _cfg = new Cfg(CfgTrie.EMPTY.asMap(), null);
+
+  private CfgDirectory(File dir) {
+    _dir = dir;
+  }
+
+  /**
+   * Opens the given directory and reads all its entries.
+   *
+   * @param dir the config directory
+   * @return the opened config directory
+   * @throws CfgException if the directory does not exist or an entry could not be read
+   */
+  public static CfgDirectory open(File dir) throws CfgException {
+    if (!dir.isDirectory()) {
+      throw new CfgException("The config directory '" + dir + "' does not exist!");
+    }
+    CfgDirectory directory = new CfgDirectory(dir);
+    directory.refresh();
+    return directory;
+  }
+
+  /**
+   * Returns the read-only config of the last rescan.
+   */
+  public Cfg getCfg() {
+    return _cfg;
+  }
+
+  /**
+   * Rescans the directory and reads the added and changed entries. If anything changed, a new config is swapped in,
+   * configs returned earlier by {@link #getCfg()} are not affected.
+   *
+   * @return true if a new config has been swapped in
+   * @throws CfgException if the directory or a changed entry could not be read
+   */
+  public synchronized boolean refresh() throws CfgException {
+    long start = System.nanoTime();
+    String[] names = _dir.list();
+    if (names == null) {
+      throw new CfgException("The config directory '" + _dir + "' could not be read!");
+    }
+    long scan = ++_scan;
+    Path dir = _dir.toPath();
+    CfgTrie trie = _trie;
+    // Applied together with the trie only if all entries could be read, a failed rescan leaves the state unchanged:
+    Map<String, Entry> updates = new HashMap<String, Entry>();
+    int changedKeyCount = 0;
+    for (String name : names) {
+      if (name.startsWith(".")) {
+        continue;
+      }
+      Path path = dir.resolve(name);
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        String target = null;
+        if (attributes.isSymbolicLink()) {
+          attributes = Files.readAttributes(path, BasicFileAttributes.class);
+          target = path.toRealPath().toString();
+        }
+        if (!attributes.isRegularFile()) {
+          continue;
+        }
+        long modified = attributes.lastModifiedTime().toMillis();
+        Entry entry = _entries.get(name);
+        if (entry != null && entry.modified == modified && entry.size == attributes.size()
+            && (target == null ? entry.target == null : target.equals(entry.target))) {
+          entry.scan = scan;
+          continue;
+        }
+        // Status is taken before reading, a change while reading is detected by the next rescan:
+        trie = trie.put(name, read(path));
+        entry = new Entry();
+        entry.modified = modified;
+        entry.size = attributes.size();
+        entry.target = target;
+        entry.scan = scan;
+        updates.put(name, entry);
+        changedKeyCount++;
+      }
+      catch (NoSuchFileException e) {
+        // Removed since listed, handled as removed below...
+      }
+      catch (IOException e) {
+        throw new CfgException("The config file '" + path + "' could not be read!", e);
+      }
+    }
+    _entries.putAll(updates);
+    for (Iterator<Map.Entry<String, Entry>> it = _entries.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<String, Entry> entry = it.next();
+      if (entry.getValue().scan != scan) {
+        trie = trie.remove(entry.getKey());
+        it.remove();
+        changedKeyCount++;
+      }
+    }
+    boolean changed = trie != _trie;
+    if (changed) {
+      _trie = trie;
+      _cfg = new Cfg(trie.asMap(), null);
+    }
+    CfgStats.getInstance().recordReload(System.nanoTime() - start, changed, changedKeyCount);
+    return changed;
+  }
+
+  private static String read(Path path) throws IOException {
+    byte[] bytes = Files.readAllBytes(path);
+    int length = bytes.length;
+    if (length > 0 && bytes[length - 1] == '\n') {
+      length--;
+      if (length > 0 && bytes[length - 1] == '\r') {
+        length--;
+      }
+    }
+    return new String(bytes, 0, length, CfgBinary.UTF8);
+  }
+}
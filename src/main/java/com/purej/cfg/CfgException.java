@@ -23,4 +23,11 @@ public final class CfgException extends RuntimeException {
   public CfgException(String message, Exception cause) {
     super(message, cause);
   }
+
+  /**
+   * Creates a new instance of this class with the specified exception message and cause of any type.
+   */
+  public CfgException(String message, Throwable cause) {
+    super(message, cause);
+  }
 }
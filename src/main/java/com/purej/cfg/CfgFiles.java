@@ -0,0 +1,74 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * File helpers shared by the different store formats - only for internal usage.
+ *
+ * @author Stefan Mueller
+ */
+final class CfgFiles {
+
+  private CfgFiles() {
+  }
+
+  /**
+   * Creates a temporary file in the directory of the given target file, so it can be renamed atomically.
+   */
+  static File createTempFile(File target) throws IOException {
+    File dir = target.getAbsoluteFile().getParentFile();
+    if (!dir.exists()) {
+      dir.mkdirs();
+    }
+    return File.createTempFile(target.getName() + ".", ".tmp", dir);
+  }
+
+  /**
+   * Replaces the target file with the given temporary file, atomically if supported by the file system.
+   * Readers will either see the old or the new file, but never a half-written one.
+   */
+  static void replace(File tmp, File target) throws IOException {
+    try {
+      Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Deletes the given file if it still exists, ignoring failures.
+   */
+  static void delete(File file) {
+    if (file != null && file.exists()) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Returns the CRC32 checksum of the given file's content.
+   */
+  static long checksum(File file) throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[16 * 1024];
+    InputStream stream = new FileInputStream(file);
+    try {
+      int n;
+      while ((n = stream.read(buffer)) != -1) {
+        crc.update(buffer, 0, n);
+      }
+    }
+    finally {
+      stream.close();
+    }
+    return crc.getValue();
+  }
+}
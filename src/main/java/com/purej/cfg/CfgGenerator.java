@@ -0,0 +1,367 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Build-time generator of java source code from a java properties template, to be run for example with the
+ * exec-maven-plugin in the generate-sources phase:
+ * <pre>
+ *   java com.purej.cfg.CfgGenerator [accessors|constants] &lt;template&gt; &lt;class-name&gt; &lt;output-dir&gt;
+ * </pre>
+ * Mode <code>accessors</code> (default) generates a class with a typed getter for every key of the template.
+ * The class is created from a {@link Cfg} and converts all values once into final fields, so a getter is a plain
+ * field access - without key strings, hashing, parsing or reflection at runtime (which also suits ahead-of-time
+ * and native-image builds). The type of a getter is inferred from the template value (boolean, int, long,
+ * {@link BigDecimal} or {@link String}). Non-empty template values are used as default values, keys with an empty
+ * template value are mandatory.
+ * <p/>
+ * Mode <code>constants</code> bakes the resolved key/value pairs of the template into a class, whose
+ * <code>create()</code> method returns a new {@link Cfg} without any resource lookup, I/O, parsing or substitution.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgGenerator {
+  private static final String NL = "\n";
+  private static final int CHUNK_SIZE = 2000;
+  private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList("abstract", "assert", "boolean",
+      "break", "byte", "case", "catch", "char", "class", "const", "continue", "default", "do", "double", "else", "enum",
+      "extends", "final", "finally", "float", "for", "goto", "if", "implements", "import", "instanceof", "int",
+      "interface", "long", "native", "new", "package", "private", "protected", "public", "return", "short", "static",
+      "strictfp", "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void", "volatile",
+      "while", "true", "false", "null", "Class"));
+
+  private CfgGenerator() {
+  }
+
+  /**
+   * Generates a source file from the command-line arguments.
+   *
+   * @param args the optional mode, the template (resource or file), the fully qualified class name and the output directory
+   */
+  public static void main(String[] args) {
+    String mode = args.length == 4 ? args[0] : "accessors";
+    if (args.length < 3 || args.length > 4 || !(mode.equals("accessors") || mode.equals("constants"))) {
+      System.err.println("Usage: java " + CfgGenerator.class.getName() + " [accessors|constants] <template> <class-name> <output-dir>");
+      System.exit(1);
+    }
+    int idx = args.length - 3;
+    Cfg template = new Cfg(args[idx]);
+    File outputDir = new File(args[idx + 2]);
+    File file = mode.equals("constants") ? generateConstants(template, args[idx + 1], outputDir)
+        : generateAccessors(template, args[idx + 1], outputDir);
+    System.out.println("Generated " + file);
+  }
+
+  /**
+   * Generates the source file of the accessor class for the given template into the given output directory.
+   *
+   * @param template the template whose keys and values define the getters
+   * @param className the fully qualified name of the class to be generated
+   * @param outputDir the source root to write the class to
+   * @return the written source file
+   * @throws CfgException if the source file could not be written
+   */
+  public static File generateAccessors(Cfg template, String className, File outputDir) throws CfgException {
+    return write(generateAccessors(template, className), className, outputDir);
+  }
+
+  /**
+   * Generates the source code of the accessor class for the given template.
+   *
+   * @param template the template whose keys and values define the getters
+   * @param className the fully qualified name of the class to be generated
+   * @return the source code
+   */
+  public static String generateAccessors(Cfg template, String className) {
+    String[] keys = sortedKeys(template);
+    String[] names = names(keys);
+    StringBuilder b = new StringBuilder();
+    appendHeader(b, className, "Typed accessors");
+    b.append("public final class ").append(simpleName(className)).append(" {").append(NL);
+    for (int i = 0; i < keys.length; i++) {
+      b.append("  private final ").append(type(template, keys[i])).append(" _").append(names[i]).append(';').append(NL);
+    }
+    b.append(NL);
+    b.append("  /**").append(NL);
+    b.append("   * Creates a new instance of this class that converts all values of the given config once.").append(NL);
+    b.append("   *").append(NL);
+    b.append("   * @throws com.purej.cfg.CfgException if a mandatory value is missing or a value is invalid").append(NL);
+    b.append("   */").append(NL);
+    b.append("  public ").append(simpleName(className)).append("(com.purej.cfg.Cfg cfg) {").append(NL);
+    for (int i = 0; i < keys.length; i++) {
+      b.append("    _").append(names[i]).append(" = ").append(getter(template, keys[i])).append(';').append(NL);
+    }
+    b.append("  }").append(NL);
+    for (int i = 0; i < keys.length; i++) {
+      String type = type(template, keys[i]);
+      String value = template.getString(keys[i], null);
+      b.append(NL);
+      b.append("  /**").append(NL);
+      b.append("   * Returns the value of key '").append(javadoc(keys[i])).append("'");
+      b.append(value != null ? " (default '" + javadoc(value) + "')." : ".").append(NL);
+      b.append("   */").append(NL);
+      b.append("  public ").append(type).append(type.equals("boolean") ? " is" : " get").append(capitalize(names[i])).append("() {").append(NL);
+      b.append("    return _").append(names[i]).append(';').append(NL);
+      b.append("  }").append(NL);
+    }
+    b.append("}").append(NL);
+    return b.toString();
+  }
+
+  /**
+   * Generates the source file of the constants class for the given config into the given output directory.
+   *
+   * @param cfg the config whose resolved key/value pairs are baked into the class
+   * @param className the fully qualified name of the class to be generated
+   * @param outputDir the source root to write the class to
+   * @return the written source file
+   * @throws CfgException if a value could not be resolved or the source file could not be written
+   */
+  public static File generateConstants(Cfg cfg, String className, File outputDir) throws CfgException {
+    return write(generateConstants(cfg, className), className, outputDir);
+  }
+
+  /**
+   * Generates the source code of the constants class for the given config. All values are resolved at generation
+   * time, null values are skipped (empty values are kept).
+   * <p/>
+   * Note: The key/value pairs are split into initializer methods to stay below the method size limit of the
+   * class file format. The limit of the constant pool (65535 entries) still restricts the class to roughly
+   * 30000 distinct keys and values.
+   *
+   * @param cfg the config whose resolved key/value pairs are baked into the class
+   * @param className the fully qualified name of the class to be generated
+   * @return the source code
+   * @throws CfgException if a value could not be resolved
+   */
+  public static String generateConstants(Cfg cfg, String className) throws CfgException {
+    String[] keys = sortedKeys(cfg);
+    Map<String, String> map = cfg.toMap();
+    String[] keyValues = new String[keys.length * 2];
+    int size = 0;
+    for (String key : keys) {
+      if (map.get(key) != null) {
+        // Empty values are kept, so containsKey() and defaults behave as on the source config:
+        String value = cfg.getString(key, null);
+        keyValues[size++] = key;
+        keyValues[size++] = value != null ? value : "";
+      }
+    }
+    int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    StringBuilder b = new StringBuilder();
+    appendHeader(b, className, "Resolved config constants");
+    b.append("public final class ").append(simpleName(className)).append(" {").append(NL);
+    b.append("  private static final String[] KEY_VALUES = new String[").append(size).append("];").append(NL);
+    b.append(NL);
+    b.append("  static {").append(NL);
+    for (int i = 0; i < chunks; i++) {
+      b.append("    init").append(i).append("(KEY_VALUES);").append(NL);
+    }
+    b.append("  }").append(NL);
+    b.append(NL);
+    b.append("  private ").append(simpleName(className)).append("() {").append(NL);
+    b.append("  }").append(NL);
+    b.append(NL);
+    b.append("  /**").append(NL);
+    b.append("   * Returns a new config with the ").append(size / 2).append(" baked key/value pairs.").append(NL);
+    b.append("   */").append(NL);
+    b.append("  public static com.purej.cfg.Cfg create() {").append(NL);
+    b.append("    return com.purej.cfg.Cfg.of(KEY_VALUES);").append(NL);
+    b.append("  }").append(NL);
+    for (int i = 0; i < chunks; i++) {
+      b.append(NL);
+      b.append("  private static void init").append(i).append("(String[] a) {").append(NL);
+      for (int j = i * CHUNK_SIZE; j < Math.min(size, (i + 1) * CHUNK_SIZE); j++) {
+        b.append("    a[").append(j).append("] = ").append(literal(keyValues[j])).append(';').append(NL);
+      }
+      b.append("  }").append(NL);
+    }
+    b.append("}").append(NL);
+    return b.toString();
+  }
+
+  /**
+   * Returns the java type for the value of the given key, inferred from the template value.
+   */
+  private static String type(Cfg template, String key) {
+    if (template.getString(key, null) == null) {
+      return "String";
+    }
+    String value = template.getString(key);
+    if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+      return "boolean";
+    }
+    if (template.tryGetInt(key).isOk()) {
+      return "int";
+    }
+    if (template.tryGetLong(key).isOk()) {
+      return "long";
+    }
+    if (template.tryGetBigDecimal(key).isOk()) {
+      return "java.math.BigDecimal";
+    }
+    return "String";
+  }
+
+  private static String getter(Cfg template, String key) {
+    String type = type(template, key);
+    String k = literal(key);
+    String value = template.getString(key, null);
+    if (value == null) {
+      return "cfg.getString(" + k + ")";
+    }
+    if (type.equals("boolean")) {
+      return "cfg.getBoolean(" + k + ", " + template.getBoolean(key) + ")";
+    }
+    if (type.equals("int")) {
+      return "cfg.getInt(" + k + ", " + template.getInt(key) + ")";
+    }
+    if (type.equals("long")) {
+      return "cfg.getLong(" + k + ", " + template.getLong(key) + "L)";
+    }
+    if (type.equals("java.math.BigDecimal")) {
+      return "cfg.getBigDecimal(" + k + ", new java.math.BigDecimal(" + literal(value) + "))";
+    }
+    return "cfg.getString(" + k + ", " + literal(value) + ")";
+  }
+
+  /**
+   * Converts the given keys to unique camel-case java identifiers. Java keywords and literals get a '_' suffix, as
+   * does 'Class' (its getter would clash with {@link Object#getClass()}). Names must also be unique when capitalized,
+   * as they are used for the getter names.
+   */
+  static String[] names(String[] keys) {
+    String[] names = new String[keys.length];
+    Map<String, String> used = new HashMap<String, String>();
+    for (int i = 0; i < keys.length; i++) {
+      StringBuilder builder = new StringBuilder();
+      boolean upper = false;
+      for (int j = 0; j < keys[i].length(); j++) {
+        char c = keys[i].charAt(j);
+        if (builder.length() == 0 ? Character.isJavaIdentifierStart(c) : Character.isJavaIdentifierPart(c)) {
+          builder.append(upper ? Character.toUpperCase(c) : c);
+          upper = false;
+        }
+        else if (builder.length() == 0 && Character.isJavaIdentifierPart(c)) {
+          builder.append('_').append(c);
+        }
+        else {
+          upper = builder.length() > 0;
+        }
+      }
+      names[i] = builder.length() > 0 ? builder.toString() : "_";
+      if (RESERVED.contains(names[i]) || RESERVED.contains(capitalize(names[i]))) {
+        names[i] += '_';
+      }
+      String previous = used.put(capitalize(names[i]), keys[i]);
+      if (previous != null) {
+        throw new CfgException("Keys '" + previous + "' and '" + keys[i] + "' map to the same java name '" + names[i] + "'!");
+      }
+    }
+    return names;
+  }
+
+  static String[] sortedKeys(Cfg cfg) {
+    String[] keys = cfg.getKeys().toArray(new String[0]);
+    Arrays.sort(keys);
+    return keys;
+  }
+
+  static void appendHeader(StringBuilder b, String className, String description) {
+    int idx = className.lastIndexOf('.');
+    b.append("// Generated by ").append(CfgGenerator.class.getName()).append(" - do not edit.").append(NL);
+    if (idx > 0) {
+      b.append("package ").append(className.substring(0, idx)).append(';').append(NL);
+    }
+    b.append(NL);
+    b.append("/**").append(NL);
+    b.append(" * ").append(description).append(" generated from a config template.").append(NL);
+    b.append(" */").append(NL);
+  }
+
+  static File write(String source, String className, File outputDir) throws CfgException {
+    File file = new File(outputDir, className.replace('.', File.separatorChar) + ".java");
+    try {
+      File tmp = CfgFiles.createTempFile(file);
+      try {
+        OutputStream stream = new FileOutputStream(tmp);
+        try {
+          stream.write(source.getBytes("UTF-8"));
+        }
+        finally {
+          stream.close();
+        }
+        CfgFiles.replace(tmp, file);
+      }
+      finally {
+        CfgFiles.delete(tmp);
+      }
+    }
+    catch (IOException e) {
+      throw new CfgException("The source could not be written to file '" + file + "'!", e);
+    }
+    return file;
+  }
+
+  static String simpleName(String className) {
+    return className.substring(className.lastIndexOf('.') + 1);
+  }
+
+  private static String capitalize(String name) {
+    return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+  }
+
+  /**
+   * Returns the given string as java string literal (ASCII only).
+   */
+  static String literal(String s) {
+    if (s == null) {
+      return "null";
+    }
+    StringBuilder builder = new StringBuilder(s.length() + 2);
+    builder.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          builder.append("\\\"");
+          break;
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        default:
+          if (c < 0x20 || c > 0x7e) {
+            builder.append(String.format("\\u%04x", Integer.valueOf(c)));
+          }
+          else {
+            builder.append(c);
+          }
+      }
+    }
+    return builder.append('"').toString();
+  }
+
+  private static String javadoc(String s) {
+    String literal = literal(s);
+    return literal.substring(1, literal.length() - 1).replace("*/", "*&#47;").replace("\\u", "\\\\u");
+  }
+}
@@ -0,0 +1,254 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Hierarchical index of the keys of a config - only for internal usage.
+ * <p/>
+ * The keys are kept in a sorted array, so all keys below a dotted prefix form a contiguous range. Enumerating the
+ * child segments of a prefix jumps over the whole range of each child with a binary search, so it costs
+ * O(children * log n) instead of scanning all keys.
+ * <p/>
+ * Keys given as chars or UTF-8 bytes are looked up in an open-addressing hash table over the sorted array, built on
+ * first use. The string hash code is computed from the chars (or decoded bytes) and the candidates are compared char
+ * by char, so finding the existing key string creates no garbage.
+ *
+ * @author Stefan Mueller
+ */
+final class CfgIndex {
+  /** Orders numeric segments by their value and before all other segments, which are ordered naturally. */
+  static final Comparator<String> SEGMENT_ORDER = new Comparator<String>() {
+    @Override
+    public int compare(String s1, String s2) {
+      boolean n1 = isNumber(s1);
+      boolean n2 = isNumber(s2);
+      if (n1 && n2) {
+        return s1.length() != s2.length() ? s1.length() - s2.length() : s1.compareTo(s2);
+      }
+      return n1 ? -1 : n2 ? 1 : s1.compareTo(s2);
+    }
+  };
+
+  private final String[] _keys;
+  private volatile int[] _table;
+
+  /**
+   * Creates a new instance of this class for the given keys.
+   */
+  CfgIndex(Collection<String> keys) {
+    _keys = keys.toArray(new String[keys.size()]);
+    Arrays.sort(_keys);
+  }
+
+  /**
+   * Returns the number of indexed keys.
+   */
+  int size() {
+    return _keys.length;
+  }
+
+  /**
+   * Returns the distinct segments that follow the given prefix up to the next dot, in {@link #SEGMENT_ORDER}.
+   *
+   * @param prefix the prefix, empty or ending with a dot
+   * @param nested true to return only segments with keys below (eg. followed by a dot), false to return all segments
+   */
+  List<String> childNames(String prefix, boolean nested) {
+    List<String> names = new ArrayList<String>();
+    int length = prefix.length();
+    int idx = lowerBound(prefix);
+    while (idx < _keys.length && _keys[idx].startsWith(prefix)) {
+      String key = _keys[idx];
+      int dot = key.indexOf('.', length);
+      String name = dot < 0 ? key.substring(length) : key.substring(length, dot);
+      if (dot >= 0) {
+        // Skip all keys of this child (a '/' sorts right after the '.'):
+        idx = lowerBound(key.substring(0, dot) + '/');
+      }
+      else {
+        idx++;
+      }
+      if (dot >= 0 || !nested) {
+        names.add(name);
+      }
+    }
+    // A leaf and a nested child of the same name are not adjacent in key order (eg. 'a', 'a-b', 'a.x'):
+    names.sort(SEGMENT_ORDER);
+    int size = 0;
+    for (int i = 0; i < names.size(); i++) {
+      if (size == 0 || !names.get(i).equals(names.get(size - 1))) {
+        names.set(size++, names.get(i));
+      }
+    }
+    return names.subList(0, size);
+  }
+
+  /**
+   * Returns the indexed key that equals the given prefix followed by the given chars, null if there is none.
+   */
+  String find(String prefix, CharSequence chars) {
+    int hash = prefix.hashCode();
+    int length = chars.length();
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + chars.charAt(i);
+    }
+    int[] table = table();
+    int mask = table.length - 1;
+    int offset = prefix.length();
+    for (int slot = mix(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      String key = _keys[table[slot] - 1];
+      if (key.hashCode() == hash && key.length() == offset + length && key.startsWith(prefix)) {
+        int i = 0;
+        while (i < length && key.charAt(offset + i) == chars.charAt(i)) {
+          i++;
+        }
+        if (i == length) {
+          return key;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the indexed key that equals the given prefix followed by the given UTF-8 bytes, null if there is none
+   * or the bytes are malformed. The bytes are read from the given array if not null, otherwise from the given buffer
+   * (absolute, the position is not changed).
+   */
+  String find(String prefix, byte[] array, ByteBuffer buffer, int offset, int length) {
+    int hash = prefix.hashCode();
+    int charCount = 0;
+    int end = offset + length;
+    for (int i = offset; i < end;) {
+      int b = array != null ? array[i] : buffer.get(i);
+      if (b >= 0) {
+        hash = 31 * hash + b;
+        charCount++;
+        i++;
+        continue;
+      }
+      int n = sequenceLength(b);
+      int codePoint = decode(array, buffer, i, n, end);
+      if (codePoint < 0) {
+        return null;
+      }
+      if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        hash = 31 * (31 * hash + Character.highSurrogate(codePoint)) + Character.lowSurrogate(codePoint);
+        charCount += 2;
+      }
+      else {
+        hash = 31 * hash + codePoint;
+        charCount++;
+      }
+      i += n;
+    }
+    int[] table = table();
+    int mask = table.length - 1;
+    for (int slot = mix(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      String key = _keys[table[slot] - 1];
+      if (key.hashCode() == hash && key.length() == prefix.length() + charCount && key.startsWith(prefix)
+          && equals(key, prefix.length(), array, buffer, offset, end)) {
+        return key;
+      }
+    }
+    return null;
+  }
+
+  private static boolean equals(String key, int idx, byte[] array, ByteBuffer buffer, int offset, int end) {
+    for (int i = offset; i < end;) {
+      int b = array != null ? array[i] : buffer.get(i);
+      if (b >= 0) {
+        if (key.charAt(idx++) != b) {
+          return false;
+        }
+        i++;
+        continue;
+      }
+      int n = sequenceLength(b);
+      int codePoint = decode(array, buffer, i, n, end);
+      if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        if (key.charAt(idx++) != Character.highSurrogate(codePoint) || key.charAt(idx++) != Character.lowSurrogate(codePoint)) {
+          return false;
+        }
+      }
+      else if (key.charAt(idx++) != codePoint) {
+        return false;
+      }
+      i += n;
+    }
+    return true;
+  }
+
+  private static int sequenceLength(int b) {
+    return (b & 0xE0) == 0xC0 ? 2 : (b & 0xF0) == 0xE0 ? 3 : (b & 0xF8) == 0xF0 ? 4 : 0;
+  }
+
+  /**
+   * Decodes the UTF-8 sequence of the given length at the given index, -1 if it is malformed.
+   */
+  private static int decode(byte[] array, ByteBuffer buffer, int idx, int n, int end) {
+    if (n == 0 || idx + n > end) {
+      return -1;
+    }
+    int b = array != null ? array[idx] : buffer.get(idx);
+    int codePoint = b & (0x7F >> n);
+    for (int i = 1; i < n; i++) {
+      b = array != null ? array[idx + i] : buffer.get(idx + i);
+      if ((b & 0xC0) != 0x80) {
+        return -1;
+      }
+      codePoint = (codePoint << 6) | (b & 0x3F);
+    }
+    // Reject overlong encodings, surrogates and values beyond the unicode range:
+    int min = n == 2 ? 0x80 : n == 3 ? 0x800 : Character.MIN_SUPPLEMENTARY_CODE_POINT;
+    if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+        || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+      return -1;
+    }
+    return codePoint;
+  }
+
+  private int[] table() {
+    int[] table = _table;
+    if (table == null) {
+      table = new int[Integer.highestOneBit(Math.max(_keys.length, 1) * 2 - 1) << 1];
+      int mask = table.length - 1;
+      for (int i = 0; i < _keys.length; i++) {
+        int slot = mix(_keys[i].hashCode()) & mask;
+        while (table[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        table[slot] = i + 1;
+      }
+      _table = table;
+    }
+    return table;
+  }
+
+  private static int mix(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private int lowerBound(String key) {
+    int idx = Arrays.binarySearch(_keys, key);
+    return idx >= 0 ? idx : -idx - 1;
+  }
+
+  private static boolean isNumber(String s) {
+    if (s.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
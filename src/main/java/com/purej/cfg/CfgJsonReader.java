@@ -0,0 +1,307 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming JSON reader that flattens nested objects and arrays into dotted keys - only for internal usage.
+ * <p/>
+ * The document is parsed in one pass and every scalar is passed to the visitor as soon as it is read, with the path
+ * of object member names and array indexes as key (eg. <code>{"a": {"b": [{"c": 1}]}}</code> becomes
+ * <code>a.b.0.c=1</code>). No tree is built, only the current key path is kept. Strings are unescaped, numbers and
+ * booleans are passed as written and null as null value. Empty objects and arrays produce no keys.
+ *
+ * @author Stefan Mueller
+ */
+final class CfgJsonReader {
+  private static final int MAX_DEPTH = 512;
+
+  private final Reader _reader;
+  private final char[] _buffer = new char[8192];
+  private int _pos;
+  private int _limit;
+  private int _line = 1;
+  private final StringBuilder _key = new StringBuilder();
+  private final StringBuilder _text = new StringBuilder();
+  private CfgVisitor _visitor;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param reader the reader to read from
+   */
+  CfgJsonReader(Reader reader) {
+    _reader = reader;
+  }
+
+  /**
+   * Parses the whole document and passes all flattened key/value pairs to the given visitor.
+   *
+   * @return true if all pairs have been visited, false if the visitor stopped
+   * @throws CfgException if the document is malformed
+   */
+  boolean parse(CfgVisitor visitor) throws IOException {
+    _visitor = visitor;
+    int c = skipWhitespace();
+    if (c == '\uFEFF') {
+      c = skipWhitespace();
+    }
+    boolean result;
+    if (c == '{') {
+      result = parseObject(0);
+    }
+    else if (c == '[') {
+      result = parseArray(0);
+    }
+    else {
+      throw error("Expected an object or array as root value but found " + describe(c));
+    }
+    if (result && (c = skipWhitespace()) != -1) {
+      throw error("Unexpected " + describe(c) + " after the root value");
+    }
+    return result;
+  }
+
+  private boolean parseObject(int depth) throws IOException {
+    checkDepth(depth);
+    int c = skipWhitespace();
+    if (c == '}') {
+      return true;
+    }
+    while (true) {
+      if (c != '"') {
+        throw error("Expected a member name but found " + describe(c));
+      }
+      String name = readString();
+      if ((c = skipWhitespace()) != ':') {
+        throw error("Expected ':' but found " + describe(c));
+      }
+      int length = _key.length();
+      if (length > 0) {
+        _key.append('.');
+      }
+      _key.append(name);
+      if (!parseValue(depth)) {
+        return false;
+      }
+      _key.setLength(length);
+      c = skipWhitespace();
+      if (c == '}') {
+        return true;
+      }
+      if (c != ',') {
+        throw error("Expected ',' or '}' but found " + describe(c));
+      }
+      c = skipWhitespace();
+    }
+  }
+
+  private boolean parseArray(int depth) throws IOException {
+    checkDepth(depth);
+    int c = skipWhitespace();
+    if (c == ']') {
+      return true;
+    }
+    if (c == -1) {
+      throw error("Unterminated array");
+    }
+    _pos--;
+    for (int index = 0;; index++) {
+      int length = _key.length();
+      if (length > 0) {
+        _key.append('.');
+      }
+      _key.append(index);
+      if (!parseValue(depth)) {
+        return false;
+      }
+      _key.setLength(length);
+      c = skipWhitespace();
+      if (c == ']') {
+        return true;
+      }
+      if (c != ',') {
+        throw error("Expected ',' or ']' but found " + describe(c));
+      }
+    }
+  }
+
+  private boolean parseValue(int depth) throws IOException {
+    int c = skipWhitespace();
+    switch (c) {
+      case '{':
+        return parseObject(depth + 1);
+      case '[':
+        return parseArray(depth + 1);
+      case '"':
+        return _visitor.visit(_key.toString(), readString());
+      default:
+        return _visitor.visit(_key.toString(), readLiteral(c));
+    }
+  }
+
+  /**
+   * Reads the rest of a string after the opening quote.
+   */
+  private String readString() throws IOException {
+    _text.setLength(0);
+    while (true) {
+      int c = read();
+      if (c == '"') {
+        return _text.toString();
+      }
+      if (c == '\\') {
+        c = read();
+        switch (c) {
+          case '"':
+          case '\\':
+          case '/':
+            break;
+          case 'b':
+            c = '\b';
+            break;
+          case 'f':
+            c = '\f';
+            break;
+          case 'n':
+            c = '\n';
+            break;
+          case 'r':
+            c = '\r';
+            break;
+          case 't':
+            c = '\t';
+            break;
+          case 'u':
+            c = 0;
+            for (int i = 0; i < 4; i++) {
+              int digit = Character.digit(read(), 16);
+              if (digit < 0) {
+                throw error("Invalid unicode escape sequence");
+              }
+              c = (c << 4) | digit;
+            }
+            break;
+          default:
+            throw error("Invalid escape sequence '\\" + (c >= 0 ? String.valueOf((char) c) : "") + "'");
+        }
+      }
+      else if (c < 0x20) {
+        throw error(c < 0 ? "Unterminated string" : "Unescaped control character in string");
+      }
+      _text.append((char) c);
+    }
+  }
+
+  /**
+   * Reads a number, true, false or null starting with the given char.
+   */
+  private String readLiteral(int c) throws IOException {
+    _text.setLength(0);
+    while (c != -1 && c != ',' && c != '}' && c != ']' && c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+      _text.append((char) c);
+      c = read();
+    }
+    if (c != -1) {
+      _pos--;
+      if (c == '\n') {
+        _line--;
+      }
+    }
+    String literal = _text.toString();
+    if (literal.equals("null")) {
+      return null;
+    }
+    if (literal.equals("true") || literal.equals("false") || isNumber(literal)) {
+      return literal;
+    }
+    throw error(literal.isEmpty() ? "Expected a value but found " + describe(c) : "Invalid value '" + literal + "'");
+  }
+
+  /**
+   * Checks the JSON number grammar: -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?
+   */
+  private static boolean isNumber(String s) {
+    int i = 0;
+    int length = s.length();
+    if (i < length && s.charAt(i) == '-') {
+      i++;
+    }
+    if (i < length && s.charAt(i) == '0') {
+      i++;
+    }
+    else {
+      int start = i;
+      i = skipDigits(s, i);
+      if (i == start) {
+        return false;
+      }
+    }
+    if (i < length && s.charAt(i) == '.') {
+      int start = ++i;
+      i = skipDigits(s, i);
+      if (i == start) {
+        return false;
+      }
+    }
+    if (i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+      i++;
+      if (i < length && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+        i++;
+      }
+      int start = i;
+      i = skipDigits(s, i);
+      if (i == start) {
+        return false;
+      }
+    }
+    return i == length;
+  }
+
+  private static int skipDigits(String s, int i) {
+    while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+      i++;
+    }
+    return i;
+  }
+
+  private void checkDepth(int depth) {
+    if (depth >= MAX_DEPTH) {
+      throw error("Nesting deeper than " + MAX_DEPTH + " levels");
+    }
+  }
+
+  private int skipWhitespace() throws IOException {
+    while (true) {
+      int c = read();
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+        return c;
+      }
+    }
+  }
+
+  private int read() throws IOException {
+    if (_pos == _limit) {
+      _limit = _reader.read(_buffer, 0, _buffer.length);
+      _pos = 0;
+      if (_limit <= 0) {
+        _limit = 0;
+        return -1;
+      }
+    }
+    char c = _buffer[_pos++];
+    if (c == '\n') {
+      _line++;
+    }
+    return c;
+  }
+
+  private static String describe(int c) {
+    return c == -1 ? "end of stream" : "'" + (char) c + "'";
+  }
+
+  private CfgException error(String message) {
+    return new CfgException("Invalid JSON at line " + _line + ": " + message + "!");
+  }
+}
@@ -0,0 +1,39 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds an interface method, a field or a constructor parameter to a config key, see {@link Cfg#bind(Class)}.
+ * Supported types are {@link String}, boolean, int, long (and their wrappers), {@link java.math.BigDecimal},
+ * {@link java.time.Duration}, enums, String[] and List&lt;String&gt;.
+ *
+ * @author Stefan Mueller
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.FIELD, ElementType.PARAMETER})
+public @interface CfgKey {
+  /** Marker for no default value. */
+  String NO_DEFAULT = "\u0000";
+
+  /**
+   * The config key (relative to the subset if bound over a subset).
+   */
+  String value();
+
+  /**
+   * Whether or not a value must be configured, if no default value is specified.
+   * Missing optional values are bound as null, false or 0.
+   */
+  boolean required() default true;
+
+  /**
+   * The default value used if no value is configured, converted like a configured value.
+   */
+  String defaultValue() default NO_DEFAULT;
+}
@@ -0,0 +1,134 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Key/value map that loads a java properties resource or file on first access - only for internal usage.
+ * <p/>
+ * Loading is thread-safe and happens exactly once. If loading fails, every access reports the same failure.
+ *
+ * @author Stefan Mueller
+ */
+final class CfgLazyMap extends AbstractMap<String, String> {
+  private final String _resourceOrFile;
+  private final File _file;
+  private volatile Map<String, String> _map;
+  private CfgException _failure;
+
+  /**
+   * Creates a new instance of this class for the given resource or file.
+   */
+  CfgLazyMap(String resourceOrFile) {
+    _resourceOrFile = resourceOrFile;
+    _file = null;
+  }
+
+  /**
+   * Creates a new instance of this class for the given file.
+   */
+  CfgLazyMap(File file) {
+    _resourceOrFile = null;
+    _file = file;
+  }
+
+  /**
+   * Loads the source with the given executor, if not already loaded. A failure is reported on first access.
+   */
+  void prefetch(Executor executor) {
+    if (_map == null) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            loaded();
+          }
+          catch (CfgException e) {
+            // Reported on access...
+          }
+        }
+      });
+    }
+  }
+
+  private Map<String, String> loaded() {
+    Map<String, String> map = _map;
+    return map != null ? map : load();
+  }
+
+  private synchronized Map<String, String> load() {
+    if (_map == null) {
+      if (_failure == null) {
+        try {
+          _map = _file != null ? Cfg.load(_file) : Cfg.load(_resourceOrFile);
+          return _map;
+        }
+        catch (CfgException e) {
+          _failure = e;
+        }
+      }
+      throw new CfgException(_failure.getMessage(), _failure);
+    }
+    return _map;
+  }
+
+  @Override
+  public int size() {
+    return loaded().size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return loaded().isEmpty();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return loaded().containsKey(key);
+  }
+
+  @Override
+  public String get(Object key) {
+    return loaded().get(key);
+  }
+
+  @Override
+  public String put(String key, String value) {
+    return loaded().put(key, value);
+  }
+
+  @Override
+  public String remove(Object key) {
+    return loaded().remove(key);
+  }
+
+  @Override
+  public void putAll(Map<? extends String, ? extends String> map) {
+    loaded().putAll(map);
+  }
+
+  @Override
+  public void clear() {
+    loaded().clear();
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return loaded().keySet();
+  }
+
+  @Override
+  public Collection<String> values() {
+    return loaded().values();
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    return loaded().entrySet();
+  }
+}
@@ -0,0 +1,231 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Key/value map that overlays a base map with the values of another source (like environment variables)
+ * whose names are matched relaxed - only for internal usage.
+ * <p/>
+ * Names are normalized by lower-casing them and by treating '_', '-' and '.' the same, so the environment variable
+ * <code>MY_PATH1_INT_VALUE</code> matches the key <code>my.path1.int.value</code>. The normalized names are indexed
+ * once in an open addressing table. A lookup hashes and compares the requested key normalized on the fly, so it costs
+ * a single probe without allocations. Overlay values take precedence over the values of the base map, entries
+ * without a matching base key are exposed with their normalized name.
+ *
+ * @author Stefan Mueller
+ */
+final class CfgOverlayMap extends AbstractMap<String, String> {
+  private final Map<String, String> _base;
+  private final String[] _names;
+  private final String[] _values;
+  private final int[] _slots;
+  private final CfgCache _baseCache;
+  private volatile Size _size;
+
+  /** The total size computed for a base map of the given size and modification count. */
+  private static final class Size {
+    final int baseSize;
+    final int baseModCount;
+    final int size;
+
+    Size(int baseSize, int baseModCount, int size) {
+      this.baseSize = baseSize;
+      this.baseModCount = baseModCount;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Creates a new instance of this class that overlays the given base map with the given source. The given cache
+   * of the base map counts its key modifications.
+   */
+  CfgOverlayMap(Map<String, String> base, CfgCache baseCache, Map<String, String> overlay) {
+    _base = base;
+    _baseCache = baseCache;
+    _names = new String[overlay.size()];
+    _values = new String[overlay.size()];
+    _slots = new int[Integer.highestOneBit(Math.max(overlay.size(), 1) * 2 - 1) << 1];
+    int count = 0;
+    for (Map.Entry<String, String> entry : overlay.entrySet()) {
+      String name = normalize(entry.getKey());
+      int idx = find(name);
+      if (idx < 0) {
+        idx = count++;
+        _slots[slot(name)] = idx + 1;
+        _names[idx] = name;
+      }
+      _values[idx] = entry.getValue();
+    }
+  }
+
+  /**
+   * Returns the normalized form of the given name.
+   */
+  static String normalize(String name) {
+    char[] chars = new char[name.length()];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = normalize(name.charAt(i));
+    }
+    return new String(chars);
+  }
+
+  private static char normalize(char c) {
+    if (c == '_' || c == '-') {
+      return '.';
+    }
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c < 0x80 ? c : Character.toLowerCase(c);
+  }
+
+  /**
+   * Returns the index of the overlay entry matching the given key or -1 if there is none.
+   */
+  private int find(String key) {
+    int mask = _slots.length - 1;
+    int slot = hash(key) & mask;
+    while (_slots[slot] != 0) {
+      int idx = _slots[slot] - 1;
+      if (_names[idx] != null && matches(_names[idx], key)) {
+        return idx;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private int slot(String name) {
+    int mask = _slots.length - 1;
+    int slot = hash(name) & mask;
+    while (_slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static int hash(String key) {
+    int hash = 0;
+    for (int i = 0; i < key.length(); i++) {
+      hash = 31 * hash + normalize(key.charAt(i));
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean matches(String name, String key) {
+    if (name.length() != key.length()) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      if (name.charAt(i) != normalize(key.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String get(Object key) {
+    if (!(key instanceof String)) {
+      return null;
+    }
+    int idx = find((String) key);
+    return idx >= 0 ? _values[idx] : _base.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof String && (find((String) key) >= 0 || _base.containsKey(key));
+  }
+
+  @Override
+  public String put(String key, String value) {
+    return _base.put(key, value);
+  }
+
+  @Override
+  public String remove(Object key) {
+    return _base.remove(key);
+  }
+
+  @Override
+  public int size() {
+    // The number of overlay entries without base key only changes with the keys of the base map:
+    int baseSize = _base.size();
+    int baseModCount = _baseCache.modCount();
+    Size size = _size;
+    if (size == null || size.baseSize != baseSize || size.baseModCount != baseModCount) {
+      BitSet matched = new BitSet(_names.length);
+      for (String key : _base.keySet()) {
+        int idx = find(key);
+        if (idx >= 0) {
+          matched.set(idx);
+        }
+      }
+      size = new Size(baseSize, baseModCount, baseSize + _names.length - matched.cardinality());
+      _size = size;
+    }
+    return size.size;
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return CfgOverlayMap.this.size();
+      }
+    };
+  }
+
+  /** Iterates the (overlaid) base entries first, then the overlay entries without base key. */
+  private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+    private final Iterator<Map.Entry<String, String>> _entries = _base.entrySet().iterator();
+    private final BitSet _matched = new BitSet(_names.length);
+    private int _idx = -1;
+
+    @Override
+    public boolean hasNext() {
+      if (_entries.hasNext()) {
+        return true;
+      }
+      if (_idx < 0) {
+        _idx = _matched.nextClearBit(0);
+      }
+      return _idx < _names.length;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (_idx < 0) {
+        Map.Entry<String, String> entry = _entries.next();
+        int idx = find(entry.getKey());
+        if (idx < 0) {
+          return entry;
+        }
+        _matched.set(idx);
+        return new SimpleImmutableEntry<String, String>(entry.getKey(), _values[idx]);
+      }
+      int idx = _idx;
+      _idx = _matched.nextClearBit(idx + 1);
+      return new SimpleImmutableEntry<String, String>(_names[idx], _values[idx]);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
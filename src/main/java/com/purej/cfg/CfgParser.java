@@ -0,0 +1,149 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streaming parser for the flat java properties-file format that pushes the key/value pairs one by one to a
+ * {@link CfgVisitor} or a {@link Stream} instead of materializing them into a map. Arbitrary large streams are parsed
+ * in constant memory. JSON and a YAML subset are parsed the same way, flattened into dotted keys.
+ * <p/>
+ * An optional key prefix is applied inside the parser: The values of pairs with other keys are skipped without being
+ * decoded.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgParser {
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  private CfgParser() {
+  }
+
+  /**
+   * Parses the given stream (ISO-8859-1 like {@link java.util.Properties#load(InputStream)}) and passes all key/value pairs
+   * to the given visitor.
+   *
+   * @param stream the stream to parse, will remain open after this method returns
+   * @param visitor the visitor to pass the key/value pairs to
+   * @return true if all pairs have been visited, false if the visitor stopped
+   * @throws CfgException if an I/O error occurred or the stream is malformed
+   */
+  public static boolean parse(InputStream stream, CfgVisitor visitor) throws CfgException {
+    return parse(stream, null, visitor);
+  }
+
+  /**
+   * Parses the given stream (ISO-8859-1 like {@link java.util.Properties#load(InputStream)}) and passes the key/value pairs
+   * whose key starts with the given prefix to the given visitor.
+   *
+   * @param stream the stream to parse, will remain open after this method returns
+   * @param prefix the key prefix, null for all keys
+   * @param visitor the visitor to pass the key/value pairs to (with the complete keys)
+   * @return true if all pairs have been visited, false if the visitor stopped
+   * @throws CfgException if an I/O error occurred or the stream is malformed
+   */
+  public static boolean parse(InputStream stream, String prefix, CfgVisitor visitor) throws CfgException {
+    return parse(new InputStreamReader(stream, ISO_8859_1), prefix, visitor);
+  }
+
+  /**
+   * Parses the given reader and passes the key/value pairs whose key starts with the given prefix to the given visitor.
+   *
+   * @param reader the reader to parse, will remain open after this method returns
+   * @param prefix the key prefix, null for all keys
+   * @param visitor the visitor to pass the key/value pairs to (with the complete keys)
+   * @return true if all pairs have been visited, false if the visitor stopped
+   * @throws CfgException if an I/O error occurred or the stream is malformed
+   */
+  public static boolean parse(Reader reader, String prefix, CfgVisitor visitor) throws CfgException {
+    CfgPropertiesReader properties = new CfgPropertiesReader(reader, prefix);
+    try {
+      while (properties.next()) {
+        if (!visitor.visit(properties.key(), properties.value())) {
+          return false;
+        }
+      }
+      return true;
+    }
+    catch (IOException e) {
+      throw new CfgException("The property stream could not be loaded!", e);
+    }
+  }
+
+  /**
+   * Parses the given JSON reader and passes all scalars as flattened key/value pairs to the given visitor, see
+   * {@link Cfg#fromJson(String)}. The document is parsed in a single pass without building a tree.
+   *
+   * @param reader the reader to parse, will remain open after this method returns
+   * @param visitor the visitor to pass the key/value pairs to (with the dotted keys)
+   * @return true if all pairs have been visited, false if the visitor stopped
+   * @throws CfgException if an I/O error occurred or the document is malformed
+   */
+  public static boolean parseJson(Reader reader, CfgVisitor visitor) throws CfgException {
+    try {
+      return new CfgJsonReader(reader).parse(visitor);
+    }
+    catch (IOException e) {
+      throw new CfgException("The JSON stream could not be loaded!", e);
+    }
+  }
+
+  /**
+   * Parses the given YAML reader and passes all scalars as flattened key/value pairs to the given visitor, see
+   * {@link Cfg#fromYaml(String)} for the supported subset. The document is parsed in a single pass without building a
+   * tree.
+   *
+   * @param reader the reader to parse, will remain open after this method returns
+   * @param visitor the visitor to pass the key/value pairs to (with the dotted keys)
+   * @return true if all pairs have been visited, false if the visitor stopped
+   * @throws CfgException if an I/O error occurred, the document is malformed or uses unsupported constructs
+   */
+  public static boolean parseYaml(Reader reader, CfgVisitor visitor) throws CfgException {
+    try {
+      return new CfgYamlReader(reader).parse(visitor);
+    }
+    catch (IOException e) {
+      throw new CfgException("The YAML stream could not be loaded!", e);
+    }
+  }
+
+  /**
+   * Returns a lazy, sequential stream of the key/value pairs of the given stream whose key starts with the given prefix.
+   * The stream is parsed while the returned stream is consumed.
+   *
+   * @param stream the stream to parse, must be closed by the caller after the returned stream has been consumed
+   * @param prefix the key prefix, null for all keys
+   * @return the stream of key/value pairs (with the complete keys)
+   */
+  public static Stream<Map.Entry<String, String>> stream(InputStream stream, String prefix) {
+    final CfgPropertiesReader properties = new CfgPropertiesReader(new InputStreamReader(stream, ISO_8859_1), prefix);
+    Spliterator<Map.Entry<String, String>> spliterator = new Spliterators.AbstractSpliterator<Map.Entry<String, String>>(
+        Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+      @Override
+      public boolean tryAdvance(Consumer<? super Map.Entry<String, String>> action) {
+        try {
+          if (!properties.next()) {
+            return false;
+          }
+        }
+        catch (IOException e) {
+          throw new CfgException("The property stream could not be loaded!", e);
+        }
+        action.accept(new AbstractMap.SimpleImmutableEntry<String, String>(properties.key(), properties.value()));
+        return true;
+      }
+    };
+    return StreamSupport.stream(spliterator, false);
+  }
+}
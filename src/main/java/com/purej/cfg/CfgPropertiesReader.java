@@ -0,0 +1,361 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming reader for the flat java properties-file format as specified by {@link java.util.Properties#load(Reader)}
+ * - only for internal usage.
+ * <p/>
+ * Reads one logical line at a time with a fixed-size buffer, so arbitrary large streams can be read in constant
+ * memory. Optionally records the raw text of the consumed lines, which allows to rewrite a file while preserving
+ * comments, ordering and formatting.
+ *
+ * @author Stefan Mueller
+ */
+final class CfgPropertiesReader {
+  private final Reader _reader;
+  private final char[] _buffer = new char[8192];
+  private int _pos;
+  private int _limit;
+  private char[] _line = new char[256];
+  private int _lineLength;
+  private final StringBuilder _raw;
+  private final String _prefix;
+  private int _rawLineStart;
+  private int _keyLength;
+  private int _valueStart;
+  private String _key;
+  private String _value;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param reader the reader to read from
+   * @param recordRaw true to record the raw text of the consumed lines
+   */
+  CfgPropertiesReader(Reader reader, boolean recordRaw) {
+    _reader = reader;
+    _raw = recordRaw ? new StringBuilder() : null;
+    _prefix = null;
+  }
+
+  /**
+   * Creates a new instance of this class that only returns pairs whose key starts with the given prefix.
+   * The values of all other pairs are skipped without being decoded.
+   *
+   * @param reader the reader to read from
+   * @param prefix the key prefix to filter for, null for all keys
+   */
+  CfgPropertiesReader(Reader reader, String prefix) {
+    _reader = reader;
+    _raw = null;
+    _prefix = prefix;
+  }
+
+  /**
+   * Reads the next key/value pair.
+   *
+   * @return true if a pair has been read, false at the end of the stream
+   */
+  boolean next() throws IOException {
+    if (_raw != null) {
+      _raw.setLength(0);
+      _rawLineStart = 0;
+    }
+    while (readLine()) {
+      splitLine();
+      if (_prefix == null || keyMatchesPrefix()) {
+        _key = unescape(_line, 0, _keyLength);
+        _value = unescape(_line, _valueStart, _lineLength - _valueStart);
+        return true;
+      }
+    }
+    _key = null;
+    _value = null;
+    return false;
+  }
+
+  /**
+   * Returns the key of the current pair.
+   */
+  String key() {
+    return _key;
+  }
+
+  /**
+   * Returns the value of the current pair.
+   */
+  String value() {
+    return _value;
+  }
+
+  /**
+   * Returns the raw comment and blank lines preceding the current pair, or all remaining lines at the end of the stream.
+   */
+  CharSequence rawPrefix() {
+    return _raw.subSequence(0, _key != null ? _rawLineStart : _raw.length());
+  }
+
+  /**
+   * Returns the raw text of the current pair including its line terminator.
+   */
+  CharSequence rawLine() {
+    return _raw.subSequence(_rawLineStart, _raw.length());
+  }
+
+  /**
+   * Returns the line terminator of the current pair (might be empty at the end of the stream).
+   */
+  String rawLineTerminator() {
+    int length = _raw.length();
+    if (length > 1 && _raw.charAt(length - 2) == '\r' && _raw.charAt(length - 1) == '\n') {
+      return "\r\n";
+    }
+    if (length > 0 && (_raw.charAt(length - 1) == '\n' || _raw.charAt(length - 1) == '\r')) {
+      return String.valueOf(_raw.charAt(length - 1));
+    }
+    return "";
+  }
+
+  private int read() throws IOException {
+    if (_pos == _limit) {
+      _limit = _reader.read(_buffer, 0, _buffer.length);
+      _pos = 0;
+      if (_limit <= 0) {
+        _limit = 0;
+        return -1;
+      }
+    }
+    char c = _buffer[_pos++];
+    if (_raw != null) {
+      _raw.append(c);
+    }
+    return c;
+  }
+
+  private void skipLineFeed() throws IOException {
+    if (_pos == _limit) {
+      _limit = _reader.read(_buffer, 0, _buffer.length);
+      _pos = 0;
+      if (_limit <= 0) {
+        _limit = 0;
+        return;
+      }
+    }
+    if (_buffer[_pos] == '\n') {
+      read();
+    }
+  }
+
+  /**
+   * Reads the next logical line into the line buffer, skipping comments and blank lines
+   * and joining continuation lines.
+   */
+  private boolean readLine() throws IOException {
+    _lineLength = 0;
+    boolean skipWhiteSpace = true;
+    boolean isCommentLine = false;
+    boolean isNewLine = true;
+    boolean appendedLineBegin = false;
+    boolean precedingBackslash = false;
+    while (true) {
+      int c = read();
+      if (c == -1) {
+        if (_lineLength == 0 || isCommentLine) {
+          _lineLength = 0;
+          return false;
+        }
+        if (precedingBackslash) {
+          _lineLength--;
+        }
+        return true;
+      }
+      if (skipWhiteSpace) {
+        if (c == ' ' || c == '\t' || c == '\f') {
+          continue;
+        }
+        if (!appendedLineBegin && (c == '\r' || c == '\n')) {
+          if (c == '\r') {
+            skipLineFeed();
+          }
+          markLineStart();
+          continue;
+        }
+        skipWhiteSpace = false;
+        appendedLineBegin = false;
+      }
+      if (isNewLine) {
+        isNewLine = false;
+        if (c == '#' || c == '!') {
+          isCommentLine = true;
+          continue;
+        }
+      }
+      if (c != '\n' && c != '\r') {
+        if (!isCommentLine) {
+          append((char) c);
+          precedingBackslash = c == '\\' ? !precedingBackslash : false;
+        }
+        continue;
+      }
+      if (c == '\r') {
+        skipLineFeed();
+      }
+      if (isCommentLine || _lineLength == 0) {
+        isCommentLine = false;
+        isNewLine = true;
+        skipWhiteSpace = true;
+        _lineLength = 0;
+        markLineStart();
+        continue;
+      }
+      if (precedingBackslash) {
+        _lineLength--;
+        skipWhiteSpace = true;
+        appendedLineBegin = true;
+        precedingBackslash = false;
+        continue;
+      }
+      return true;
+    }
+  }
+
+  private void markLineStart() {
+    if (_raw != null) {
+      _rawLineStart = _raw.length();
+    }
+  }
+
+  private void append(char c) {
+    if (_lineLength == _line.length) {
+      char[] line = new char[_line.length * 2];
+      System.arraycopy(_line, 0, line, 0, _lineLength);
+      _line = line;
+    }
+    _line[_lineLength++] = c;
+  }
+
+  private boolean keyMatchesPrefix() {
+    int length = _prefix.length();
+    if (length > _keyLength) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (_line[i] == '\\') {
+        // Escaped keys need to be decoded first:
+        return unescape(_line, 0, _keyLength).startsWith(_prefix);
+      }
+      if (_line[i] != _prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Splits the current logical line into key and value, see {@link java.util.Properties#load(Reader)}.
+   */
+  private void splitLine() {
+    int keyLength = 0;
+    int valueStart = _lineLength;
+    boolean hasSeparator = false;
+    boolean precedingBackslash = false;
+    while (keyLength < _lineLength) {
+      char c = _line[keyLength];
+      if ((c == '=' || c == ':') && !precedingBackslash) {
+        valueStart = keyLength + 1;
+        hasSeparator = true;
+        break;
+      }
+      else if ((c == ' ' || c == '\t' || c == '\f') && !precedingBackslash) {
+        valueStart = keyLength + 1;
+        break;
+      }
+      precedingBackslash = c == '\\' ? !precedingBackslash : false;
+      keyLength++;
+    }
+    while (valueStart < _lineLength) {
+      char c = _line[valueStart];
+      if (c != ' ' && c != '\t' && c != '\f') {
+        if (!hasSeparator && (c == '=' || c == ':')) {
+          hasSeparator = true;
+        }
+        else {
+          break;
+        }
+      }
+      valueStart++;
+    }
+    _keyLength = keyLength;
+    _valueStart = valueStart;
+  }
+
+  /**
+   * Converts escaped characters (\t, \n, \r, \f, backslash-u-XXXX and backslash-X) back to their plain form.
+   */
+  static String unescape(char[] chars, int offset, int length) {
+    int end = offset + length;
+    int i = offset;
+    while (i < end && chars[i] != '\\') {
+      i++;
+    }
+    if (i == end) {
+      return new String(chars, offset, length);
+    }
+    StringBuilder builder = new StringBuilder(length);
+    builder.append(chars, offset, i - offset);
+    while (i < end) {
+      char c = chars[i++];
+      if (c != '\\' || i == end) {
+        builder.append(c);
+        continue;
+      }
+      c = chars[i++];
+      if (c == 'u') {
+        if (i + 4 > end) {
+          throw new CfgException("Malformed \\uxxxx encoding in properties stream!");
+        }
+        int value = 0;
+        for (int j = 0; j < 4; j++) {
+          int digit = hexDigit(chars[i++]);
+          if (digit < 0) {
+            throw new CfgException("Malformed \\uxxxx encoding in properties stream!");
+          }
+          value = (value << 4) | digit;
+        }
+        builder.append((char) value);
+      }
+      else if (c == 't') {
+        builder.append('\t');
+      }
+      else if (c == 'r') {
+        builder.append('\r');
+      }
+      else if (c == 'n') {
+        builder.append('\n');
+      }
+      else if (c == 'f') {
+        builder.append('\f');
+      }
+      else {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+  private static int hexDigit(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+}
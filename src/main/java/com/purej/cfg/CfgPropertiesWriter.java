@@ -0,0 +1,119 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streaming writer for the flat java properties-file format as specified by {@link java.util.Properties#store(Writer, String)}
+ * - only for internal usage.
+ * <p/>
+ * Characters outside of printable ASCII are written as unicode escapes, so the output can be read as ISO-8859-1
+ * (the encoding of {@link java.util.Properties#load(java.io.InputStream)}).
+ *
+ * @author Stefan Mueller
+ */
+final class CfgPropertiesWriter {
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+  private final Writer _writer;
+  private final String _lineSeparator;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param writer the writer to write to
+   * @param lineSeparator the line separator to terminate lines with
+   */
+  CfgPropertiesWriter(Writer writer, String lineSeparator) {
+    _writer = writer;
+    _lineSeparator = lineSeparator;
+  }
+
+  /**
+   * Writes the given comment line.
+   */
+  void writeComment(String comment) throws IOException {
+    _writer.write('#');
+    _writer.write(comment);
+    _writer.write(_lineSeparator);
+  }
+
+  /**
+   * Writes the given key/value pair terminated by the default line separator, a null value is written as empty value.
+   */
+  void writeEntry(String key, String value) throws IOException {
+    writeEntry(key, value, _lineSeparator);
+  }
+
+  /**
+   * Writes the given key/value pair terminated by the given line separator, a null value is written as empty value.
+   */
+  void writeEntry(String key, String value, String lineSeparator) throws IOException {
+    escape(key, true);
+    _writer.write('=');
+    if (value != null) {
+      escape(value, false);
+    }
+    _writer.write(lineSeparator);
+  }
+
+  /**
+   * Writes the given text as-is.
+   */
+  void writeRaw(CharSequence text) throws IOException {
+    _writer.append(text);
+  }
+
+  private void escape(String s, boolean escapeSpace) throws IOException {
+    int length = s.length();
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c > 61 && c < 127) {
+        if (c == '\\') {
+          _writer.write('\\');
+        }
+        _writer.write(c);
+        continue;
+      }
+      switch (c) {
+        case ' ':
+          if (i == 0 || escapeSpace) {
+            _writer.write('\\');
+          }
+          _writer.write(' ');
+          break;
+        case '\t':
+          _writer.write("\\t");
+          break;
+        case '\n':
+          _writer.write("\\n");
+          break;
+        case '\r':
+          _writer.write("\\r");
+          break;
+        case '\f':
+          _writer.write("\\f");
+          break;
+        case '=':
+        case ':':
+        case '#':
+        case '!':
+          _writer.write('\\');
+          _writer.write(c);
+          break;
+        default:
+          if (c < 0x0020 || c > 0x007e) {
+            _writer.write('\\');
+            _writer.write('u');
+            _writer.write(HEX[(c >> 12) & 0xF]);
+            _writer.write(HEX[(c >> 8) & 0xF]);
+            _writer.write(HEX[(c >> 4) & 0xF]);
+            _writer.write(HEX[c & 0xF]);
+          }
+          else {
+            _writer.write(c);
+          }
+      }
+    }
+  }
+}
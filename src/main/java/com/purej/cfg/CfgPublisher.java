@@ -0,0 +1,248 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publisher of the changes of a config and all its subsets, see {@link Cfg#changes()}. Follows the reactive streams
+ * contract of <code>java.util.concurrent.Flow</code> (which is not available in java 8), so a subscriber is easily
+ * adapted to a Flow subscriber on newer java versions.
+ * <p/>
+ * A subscriber receives batches of changes: maps from full key to the new value (null if removed or set to no value)
+ * in the order of the first change of each key. Changes are buffered per subscriber while it has no demand, and
+ * multiple changes of the same key are coalesced to the latest one, so a slow subscriber receives fewer but bigger
+ * batches instead of an unbounded queue. Batches are delivered by an executor, so changing a config never waits for
+ * subscribers.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgPublisher implements AutoCloseable {
+
+  /** Receiver of change batches, see <code>java.util.concurrent.Flow.Subscriber</code>. */
+  public interface Subscriber {
+    /**
+     * Called once before any other method, with the subscription to request batches with.
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called with the next batch of changes, only after it has been requested.
+     */
+    void onNext(Map<String, String> changes);
+
+    /**
+     * Called after the subscription failed (eg. onNext threw an exception or an invalid demand was requested).
+     * No further methods are called afterwards.
+     */
+    void onError(Throwable error);
+
+    /**
+     * Called after the publisher has been closed, also without demand. Buffered changes that have not been requested
+     * until then are dropped. No further methods are called afterwards.
+     */
+    void onComplete();
+  }
+
+  /** Link between the publisher and a subscriber, see <code>java.util.concurrent.Flow.Subscription</code>. */
+  public interface Subscription {
+    /**
+     * Requests the given number of further batches (Long.MAX_VALUE for unbounded demand).
+     */
+    void request(long n);
+
+    /**
+     * Stops the delivery of batches, buffered changes are dropped.
+     */
+    void cancel();
+  }
+
+  private final Executor _executor;
+  private final CopyOnWriteArrayList<Link> _links = new CopyOnWriteArrayList<Link>();
+  private volatile boolean _closed;
+
+  /**
+   * Creates a new instance of this class that delivers batches with the given executor.
+   */
+  CfgPublisher(Executor executor) {
+    _executor = executor;
+  }
+
+  /**
+   * Adds the given subscriber, which receives all changes after this call.
+   *
+   * @param subscriber the subscriber
+   */
+  public void subscribe(Subscriber subscriber) {
+    Link link = new Link(subscriber);
+    _links.add(link);
+    // Checked after adding, so a concurrent close either completes the link or is seen here:
+    if (_closed) {
+      _links.remove(link);
+      link._complete = true;
+    }
+    link.schedule();
+  }
+
+  /**
+   * Returns the number of active subscribers.
+   */
+  public int getSubscriberCount() {
+    return _links.size();
+  }
+
+  /**
+   * Returns whether there is at least one subscriber (to skip publishing cheaply).
+   */
+  boolean hasSubscribers() {
+    return !_links.isEmpty();
+  }
+
+  /**
+   * Publishes the change of the given full key.
+   */
+  void publish(String key, String value) {
+    for (Link link : _links) {
+      link.add(key, value);
+    }
+  }
+
+  /**
+   * Publishes the changes of the given full keys.
+   */
+  void publish(Map<String, String> changes) {
+    for (Link link : _links) {
+      link.addAll(changes);
+    }
+  }
+
+  /**
+   * Completes all subscribers after their already buffered changes have been delivered as far as requested. Buffered
+   * changes without demand are dropped, as completion does not wait on demand. Later changes are not published
+   * anymore.
+   */
+  @Override
+  public void close() {
+    _closed = true;
+    for (Link link : _links) {
+      _links.remove(link);
+      link._complete = true;
+      link.schedule();
+    }
+  }
+
+  /** The subscription of one subscriber with its buffered changes. */
+  private final class Link implements Subscription, Runnable {
+    private final Subscriber _subscriber;
+    private final AtomicInteger _wip = new AtomicInteger();
+    private Map<String, String> _pending = new LinkedHashMap<String, String>(); // Guarded by this
+    private long _demand; // Guarded by this
+    private boolean _subscribed; // Only accessed by the draining thread
+    private volatile boolean _complete;
+    private volatile boolean _cancelled;
+    private volatile Throwable _error;
+
+    Link(Subscriber subscriber) {
+      _subscriber = subscriber;
+    }
+
+    void add(String key, String value) {
+      synchronized (this) {
+        _pending.put(key, value);
+      }
+      schedule();
+    }
+
+    void addAll(Map<String, String> changes) {
+      synchronized (this) {
+        _pending.putAll(changes);
+      }
+      schedule();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        _error = new IllegalArgumentException("Requested demand must be positive but is " + n + "!");
+      }
+      else {
+        synchronized (this) {
+          _demand = _demand + n < 0 ? Long.MAX_VALUE : _demand + n;
+        }
+      }
+      schedule();
+    }
+
+    @Override
+    public void cancel() {
+      _cancelled = true;
+      _links.remove(this);
+      synchronized (this) {
+        _pending.clear();
+      }
+    }
+
+    void schedule() {
+      if (_wip.getAndIncrement() == 0) {
+        _executor.execute(this);
+      }
+    }
+
+    /**
+     * Drains the buffered changes as far as requested, never concurrently for the same subscriber.
+     */
+    @Override
+    public void run() {
+      int missed = 1;
+      while (true) {
+        if (!_subscribed) {
+          _subscribed = true;
+          _subscriber.onSubscribe(this);
+        }
+        drain();
+        missed = _wip.addAndGet(-missed);
+        if (missed == 0) {
+          return;
+        }
+      }
+    }
+
+    private void drain() {
+      while (!_cancelled) {
+        if (_error != null) {
+          cancel();
+          _subscriber.onError(_error);
+          return;
+        }
+        Map<String, String> batch = null;
+        synchronized (this) {
+          if (_demand > 0 && !_pending.isEmpty()) {
+            batch = _pending;
+            _pending = new LinkedHashMap<String, String>();
+            _demand--;
+          }
+        }
+        if (batch == null) {
+          if (_complete) {
+            _cancelled = true;
+            synchronized (this) {
+              _pending.clear();
+            }
+            _subscriber.onComplete();
+          }
+          return;
+        }
+        try {
+          _subscriber.onNext(Collections.unmodifiableMap(batch));
+        }
+        catch (RuntimeException e) {
+          _error = e;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+/**
+ * The result of a non-throwing typed lookup like {@link Cfg#tryGetInt(String)}: Either a value, a missing value or an
+ * invalid value. No exception is created for missing or invalid values and the error message is only built on demand,
+ * so probing many (invalid) keys is cheap.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgResult<T> {
+  static final int NO_VALUE = 1;
+  static final int NO_VALID_TYPE = 2;
+  static final int MISSING_SUBSTITUTION = 3;
+  static final int CIRCULAR_SUBSTITUTION = 4;
+
+  /** The status of a lookup. */
+  public enum Status {
+    /** A valid value is configured. */
+    OK,
+    /** No value (or an empty value) is configured. */
+    MISSING,
+    /** The configured value could not be resolved or converted. */
+    INVALID
+  }
+
+  private final T _value;
+  private final int _error;
+  private final String _key;
+  private final String _detail;
+  private final String _type;
+
+  private CfgResult(T value, int error, String key, String detail, String type) {
+    _value = value;
+    _error = error;
+    _key = key;
+    _detail = detail;
+    _type = type;
+  }
+
+  static <T> CfgResult<T> ok(T value) {
+    return new CfgResult<T>(value, 0, null, null, null);
+  }
+
+  static <T> CfgResult<T> error(int error, String key, String detail, String type) {
+    return new CfgResult<T>(null, error, key, detail, type);
+  }
+
+  /**
+   * Returns the status of the lookup.
+   */
+  public Status getStatus() {
+    return _error == 0 ? Status.OK : _error == NO_VALUE ? Status.MISSING : Status.INVALID;
+  }
+
+  /**
+   * Returns whether or not a valid value is configured.
+   */
+  public boolean isOk() {
+    return _error == 0;
+  }
+
+  /**
+   * Returns the configured value or null if the value is missing or invalid.
+   */
+  public T getValue() {
+    return _value;
+  }
+
+  /**
+   * Returns the configured value or the given default value if the value is missing or invalid.
+   *
+   * @param defaultValue the default value
+   */
+  public T getValue(T defaultValue) {
+    return _error == 0 ? _value : defaultValue;
+  }
+
+  /**
+   * Returns the message describing why the value is missing or invalid, the same as the message of the
+   * {@link CfgException} the corresponding getter would throw. Returns null if a valid value is configured.
+   */
+  public String getMessage() {
+    switch (_error) {
+      case NO_VALUE:
+        return "No value configured for key '" + _key + "'" + (_detail != null ? " in subset '" + _detail + "'!" : "!");
+      case NO_VALID_TYPE:
+        return "Value '" + _detail + "' for key '" + _key + "' is no valid " + _type + "!";
+      case MISSING_SUBSTITUTION:
+        return "The substitution key '" + _detail + "' does not exist!";
+      case CIRCULAR_SUBSTITUTION:
+        return "Key '" + _key + "' leads to a circular, non-resolvable substitution!";
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return _error == 0 ? "CfgResult[" + _value + "]" : "CfgResult[" + getStatus() + ": " + getMessage() + "]";
+  }
+}
@@ -0,0 +1,313 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Declares the expected type, required-ness, range, allowed values and pattern of config keys, and validates a
+ * {@link Cfg} against these declarations in one pass, collecting all errors instead of failing on the first one.
+ * <p/>
+ * Rules are declared per key or per key-prefix:
+ * <pre>
+ *   CfgSchema schema = new CfgSchema();
+ *   schema.key("server.port", CfgSchema.Type.INT).required().range(1, 65535);
+ *   schema.key("server.timeunit", CfgSchema.Type.STRING).values(TimeUnit.class);
+ *   schema.key("server.name", CfgSchema.Type.STRING).pattern("[a-z0-9-]+");
+ *   schema.prefix("timeouts.", CfgSchema.Type.LONG).range(0, 60000);
+ *   schema.check(cfg);
+ * </pre>
+ * Values are looked up with the non-throwing {@link Cfg#tryGetString(String)} methods, so even large configs with many
+ * invalid values are validated cheaply. Large configs are validated in parallel.
+ * <p/>
+ * <strong>Note that this implementation is not synchronized.</strong> Rules must not be modified while validating.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgSchema {
+  /** The number of keys above which a config is validated in parallel. */
+  static final int PARALLEL_THRESHOLD = 10000;
+
+  private final Map<String, Rule> _keyRules = new HashMap<String, Rule>();
+  private final Map<String, Rule> _prefixRules = new LinkedHashMap<String, Rule>();
+
+  /** The type of a config value. */
+  public enum Type {
+    /** Any string. */
+    STRING,
+    /** A boolean value, must be 'true' or 'false' (ignoring case). */
+    BOOLEAN,
+    /** An int value, see {@link Cfg#getInt(String)}. */
+    INT,
+    /** A long value, see {@link Cfg#getLong(String)}. */
+    LONG,
+    /** A decimal value, see {@link Cfg#getBigDecimal(String)}. */
+    BIG_DECIMAL,
+    /** A duration, see {@link Cfg#getDuration(String)}. Ranges are checked in milliseconds. */
+    DURATION,
+    /** A byte size, see {@link Cfg#getByteSize(String)}. Ranges are checked in bytes. */
+    BYTE_SIZE
+  }
+
+  /** The rule for a key or key-prefix. All methods return this rule for chaining. */
+  public static final class Rule {
+    private final String _name;
+    private final Type _type;
+    private boolean _required;
+    private BigDecimal _min;
+    private BigDecimal _max;
+    private Set<String> _values;
+    private Pattern _pattern;
+
+    private Rule(String name, Type type) {
+      _name = name;
+      _type = type;
+    }
+
+    /**
+     * Declares the key to be mandatory. For a prefix rule, at least one key with the prefix must have a value.
+     */
+    public Rule required() {
+      _required = true;
+      return this;
+    }
+
+    /**
+     * Declares the min- and max-value (inclusive) of a numeric value.
+     */
+    public Rule range(long minValue, long maxValue) {
+      return range(BigDecimal.valueOf(minValue), BigDecimal.valueOf(maxValue));
+    }
+
+    /**
+     * Declares the min- and max-value (inclusive) of a numeric value, null for no limit.
+     */
+    public Rule range(BigDecimal minValue, BigDecimal maxValue) {
+      _min = minValue;
+      _max = maxValue;
+      return this;
+    }
+
+    /**
+     * Declares the set of allowed values.
+     */
+    public Rule values(String... values) {
+      _values = new HashSet<String>();
+      Collections.addAll(_values, values);
+      return this;
+    }
+
+    /**
+     * Declares the names of the given enum's constants as allowed values.
+     */
+    public Rule values(Class<? extends Enum<?>> type) {
+      _values = new HashSet<String>();
+      for (Enum<?> e : type.getEnumConstants()) {
+        _values.add(e.name());
+      }
+      return this;
+    }
+
+    /**
+     * Declares the regular expression the whole value must match.
+     */
+    public Rule pattern(String regex) {
+      _pattern = Pattern.compile(regex);
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return "Rule[" + _name + ", " + _type + "]";
+    }
+  }
+
+  /**
+   * Declares a rule for the given key.
+   *
+   * @param key the config key
+   * @param type the type of the value
+   * @return the rule to be further declared
+   */
+  public Rule key(String key, Type type) {
+    Rule rule = new Rule(key, type);
+    _keyRules.put(key, rule);
+    return rule;
+  }
+
+  /**
+   * Declares a rule for all keys starting with the given prefix that have no rule of their own.
+   * If multiple prefix rules match, the first declared one applies.
+   *
+   * @param prefix the key prefix
+   * @param type the type of the values
+   * @return the rule to be further declared
+   */
+  public Rule prefix(String prefix, Type type) {
+    Rule rule = new Rule(prefix, type);
+    _prefixRules.put(prefix, rule);
+    return rule;
+  }
+
+  /**
+   * Validates the given config and returns all errors sorted by key.
+   *
+   * @param cfg the config to be validated (might be a subset)
+   * @return the error messages, empty if the config is valid
+   */
+  public List<String> validate(final Cfg cfg) {
+    final Set<String> keys = cfg.getKeys();
+    final Set<Rule> matched = Collections.newSetFromMap(new ConcurrentHashMap<Rule, Boolean>());
+    final ConcurrentLinkedQueue<String[]> errors = new ConcurrentLinkedQueue<String[]>();
+    Consumer<String> validator = new Consumer<String>() {
+      @Override
+      public void accept(String key) {
+        Rule rule = findRule(key);
+        if (rule != null) {
+          String error = validate(cfg, key, rule);
+          if (error != null) {
+            errors.add(new String[] {key, error});
+          }
+          if (rule._required && (error != null || cfg.containsValue(key))) {
+            matched.add(rule);
+          }
+        }
+      }
+    };
+    if (keys.size() > PARALLEL_THRESHOLD) {
+      keys.parallelStream().forEach(validator);
+    }
+    else {
+      for (String key : keys) {
+        validator.accept(key);
+      }
+    }
+
+    // Check required keys and prefixes:
+    for (Rule rule : _keyRules.values()) {
+      if (rule._required && !matched.contains(rule) && !cfg.containsValue(rule._name)) {
+        errors.add(new String[] {rule._name, "No value configured for key '" + rule._name + "'!"});
+      }
+    }
+    for (Rule rule : _prefixRules.values()) {
+      if (rule._required && !matched.contains(rule)) {
+        errors.add(new String[] {rule._name, "No value configured for any key with prefix '" + rule._name + "'!"});
+      }
+    }
+    List<String[]> sorted = new ArrayList<String[]>(errors);
+    Collections.sort(sorted, new Comparator<String[]>() {
+      @Override
+      public int compare(String[] e1, String[] e2) {
+        int result = e1[0].compareTo(e2[0]);
+        return result != 0 ? result : e1[1].compareTo(e2[1]);
+      }
+    });
+    List<String> result = new ArrayList<String>(sorted.size());
+    for (String[] error : sorted) {
+      result.add(error[1]);
+    }
+    return result;
+  }
+
+  /**
+   * Validates the given config and throws an exception with all errors if the config is invalid.
+   *
+   * @param cfg the config to be validated (might be a subset)
+   * @throws CfgException if the config is invalid
+   */
+  public void check(Cfg cfg) throws CfgException {
+    List<String> errors = validate(cfg);
+    if (!errors.isEmpty()) {
+      StringBuilder builder = new StringBuilder();
+      builder.append("Config has ").append(errors.size()).append(" error(s):");
+      for (String error : errors) {
+        builder.append("\n  ").append(error);
+      }
+      throw new CfgException(builder.toString());
+    }
+  }
+
+  private Rule findRule(String key) {
+    Rule rule = _keyRules.get(key);
+    if (rule == null) {
+      for (Map.Entry<String, Rule> entry : _prefixRules.entrySet()) {
+        if (key.startsWith(entry.getKey())) {
+          return entry.getValue();
+        }
+      }
+    }
+    return rule;
+  }
+
+  private static String validate(Cfg cfg, String key, Rule rule) {
+    // Non-throwing lookups, so invalid values do not cost an exception each:
+    CfgResult<?> result;
+    switch (rule._type) {
+      case INT:
+        result = cfg.tryGetInt(key);
+        break;
+      case LONG:
+        result = cfg.tryGetLong(key);
+        break;
+      case BIG_DECIMAL:
+        result = cfg.tryGetBigDecimal(key);
+        break;
+      case DURATION:
+        result = cfg.tryGetDuration(key);
+        break;
+      case BYTE_SIZE:
+        result = cfg.tryGetByteSize(key);
+        break;
+      default:
+        result = cfg.tryGetString(key);
+        break;
+    }
+    if (result.getStatus() == CfgResult.Status.MISSING) {
+      return null;
+    }
+    if (!result.isOk()) {
+      return result.getMessage();
+    }
+    Object typed = result.getValue();
+    String value = typed instanceof Duration ? cfg.getString(key) : typed.toString();
+    if (rule._type == Type.BOOLEAN && !"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+      return "Value '" + value + "' for key '" + key + "' is no valid boolean!";
+    }
+    BigDecimal number = null;
+    if (typed instanceof BigDecimal) {
+      number = (BigDecimal) typed;
+    }
+    else if (typed instanceof Number) {
+      number = BigDecimal.valueOf(((Number) typed).longValue());
+    }
+    else if (typed instanceof Duration) {
+      number = BigDecimal.valueOf(((Duration) typed).toMillis());
+    }
+    if (number != null && rule._min != null && number.compareTo(rule._min) < 0) {
+      return "Value '" + value + "' for key '" + key + "' is smaller then allowed min-value '" + rule._min + "'!";
+    }
+    if (number != null && rule._max != null && number.compareTo(rule._max) > 0) {
+      return "Value '" + value + "' for key '" + key + "' is bigger then allowed max-value '" + rule._max + "'!";
+    }
+    if (rule._values != null && !rule._values.contains(value)) {
+      return "Value '" + value + "' for key '" + key + "' is not one of the allowed values " + rule._values + "!";
+    }
+    if (rule._pattern != null && !rule._pattern.matcher(value).matches()) {
+      return "Value '" + value + "' for key '" + key + "' does not match pattern '" + rule._pattern.pattern() + "'!";
+    }
+    return null;
+  }
+}
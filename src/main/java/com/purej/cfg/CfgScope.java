@@ -0,0 +1,91 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.util.Map;
+
+/**
+ * A scope of overridden config values for the current thread, see {@link Cfg#withOverrides(Map)}.
+ * Must be closed by the thread that opened it, best with a try-with-resources statement:
+ * <pre>
+ *   try (CfgScope scope = cfg.withOverrides(tenantOverrides)) {
+ *     ... // Lookups of this thread see the overridden values
+ *   }
+ * </pre>
+ * Scopes can be nested, the innermost scope that overrides a key wins.
+ * <p/>
+ * Open scopes are counted per config (a root config and its subsets). Only lookups of a config with open scopes
+ * check the scopes of the current thread, lookups of other configs are not affected. A scope that is never closed
+ * keeps its overrides visible to its thread and keeps the lookups of its config on the slower path until it is
+ * closed - so always close it in a finally block or with try-with-resources.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgScope implements AutoCloseable {
+  private static final ThreadLocal<CfgScope> CURRENT = new ThreadLocal<CfgScope>();
+
+  private final CfgCache _owner;
+  private final Map<String, String> _overrides;
+  private final CfgScope _parent;
+  private final Thread _thread;
+  private boolean _closed;
+
+  private CfgScope(CfgCache owner, Map<String, String> overrides, CfgScope parent) {
+    _owner = owner;
+    _overrides = overrides;
+    _parent = parent;
+    _thread = Thread.currentThread();
+  }
+
+  /**
+   * Opens a new scope with the given overrides (by full key) of the configs sharing the given cache.
+   */
+  static CfgScope open(CfgCache owner, Map<String, String> overrides) {
+    CfgScope scope = new CfgScope(owner, overrides, CURRENT.get());
+    CURRENT.set(scope);
+    owner.scopeOpened();
+    return scope;
+  }
+
+  /**
+   * Returns the innermost scope of the current thread that overrides the given full key of the configs sharing the
+   * given cache, null if there is none.
+   */
+  static CfgScope find(CfgCache owner, String fullKey) {
+    for (CfgScope scope = CURRENT.get(); scope != null; scope = scope._parent) {
+      if (scope._owner == owner && scope._overrides.containsKey(fullKey)) {
+        return scope;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the overridden value of the given full key.
+   */
+  String get(String fullKey) {
+    return _overrides.get(fullKey);
+  }
+
+  /**
+   * Closes this scope, the overrides are not visible anymore. Closing an already closed scope does nothing.
+   *
+   * @throws CfgException if called by another thread than the opening one or if an inner scope is still open
+   */
+  @Override
+  public void close() throws CfgException {
+    if (_closed) {
+      return;
+    }
+    if (Thread.currentThread() != _thread || CURRENT.get() != this) {
+      throw new CfgException("A scope must be closed by the thread that opened it, after all its inner scopes!");
+    }
+    _closed = true;
+    if (_parent != null) {
+      CURRENT.set(_parent);
+    }
+    else {
+      CURRENT.remove();
+    }
+    _owner.scopeClosed();
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A config shared between processes over a memory-mapped file. One process publishes a config with
+ * {@link #publish(Cfg, File)}, any number of processes on the same host open it read-only with {@link #open(File)}.
+ * Keys are looked up directly in the mapped file, so the config does not occupy heap memory (besides the looked-up
+ * values) and the pages are shared by all processes through the OS page cache. Opening is a map operation, nothing
+ * gets parsed.
+ * <p/>
+ * Every publish writes a new file with an incremented generation counter and renames it atomically over the
+ * previous one, so readers never see a partially written file. Readers keep using the generation they have
+ * mapped until they call {@link #refresh()}.
+ * <p/>
+ * Note: The shared config is read-only, {@link Cfg#put(String, String)} and the like throw an
+ * {@link UnsupportedOperationException}. Values are published resolved (eg. substituted). On platforms that do not
+ * allow replacing a mapped file (Windows), publishing fails as long as readers have it mapped.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgShared {
+  private final File _file;
+  private final CfgSharedMap _map;
+  private final Cfg _cfg;
+
+  private CfgShared(File file, CfgSharedMap.Mapping mapping) {
+    _file = file;
+    _map = new CfgSharedMap(mapping);
+    _cfg = new Cfg(_map, null);
+  }
+
+  /**
+   * Publishes the resolved key/value pairs of the given config to the given file, with the next generation number.
+   * A value whose substitution fails is published as-is, so the failure is reported on access as usual.
+   *
+   * @param cfg the config to be published
+   * @param file the shared file
+   * @return the published generation
+   * @throws CfgException if the file could not be written
+   */
+  public static long publish(Cfg cfg, File file) throws CfgException {
+    Map<String, String> map = resolved(cfg);
+    try {
+      CfgBinary.Header previous = CfgBinary.readHeader(file);
+      CfgBinary.Header header = new CfgBinary.Header();
+      header.generation = previous != null ? previous.generation + 1 : 1;
+      CfgBinary.write(map, header, file);
+      return header.generation;
+    }
+    catch (IOException e) {
+      throw new CfgException("The shared config could not be written to file '" + file + "'!", e);
+    }
+  }
+
+  /**
+   * Opens the shared config of the given file.
+   *
+   * @param file the shared file
+   * @return the opened shared config
+   * @throws CfgException if the file does not exist, is not a shared config or an I/O error occurred
+   */
+  public static CfgShared open(File file) throws CfgException {
+    return new CfgShared(file, map(file));
+  }
+
+  /**
+   * Returns the resolved key/value pairs of the given config. Unresolvable values are kept as-is, so the failure is
+   * reported on access.
+   */
+  private static Map<String, String> resolved(Cfg cfg) {
+    Map<String, String> map = new HashMap<String, String>();
+    for (Map.Entry<String, String> entry : cfg.toMap().entrySet()) {
+      String value = entry.getValue();
+      if (value != null) {
+        try {
+          value = cfg.getString(entry.getKey(), "");
+        }
+        catch (CfgException e) {
+          // Keep the unresolvable value, the failure will be reported on access...
+        }
+      }
+      map.put(entry.getKey(), value);
+    }
+    return map;
+  }
+
+  private static CfgSharedMap.Mapping map(File file) throws CfgException {
+    if (!file.isFile()) {
+      throw new CfgException("The shared config file '" + file + "' does not exist!");
+    }
+    try {
+      ByteBuffer buffer = CfgBinary.map(file);
+      CfgBinary.Header header = CfgBinary.readHeader(buffer);
+      if (header == null) {
+        throw new CfgException("The file '" + file + "' is not a shared config!");
+      }
+      return new CfgSharedMap.Mapping(buffer, header);
+    }
+    catch (IOException e) {
+      throw new CfgException("The shared config file '" + file + "' could not be mapped!", e);
+    }
+  }
+
+  /**
+   * Returns the read-only config backed by the mapped file. The returned instance always reflects the
+   * generation mapped by the last {@link #refresh()}.
+   */
+  public Cfg getCfg() {
+    return _cfg;
+  }
+
+  /**
+   * Returns the currently mapped generation.
+   */
+  public long getGeneration() {
+    return _map.getMapping().header.generation;
+  }
+
+  /**
+   * Maps the latest published generation if it differs from the currently mapped one. Checking is cheap as just
+   * the header of the file is read. Lookups in progress complete on the previous generation.
+   *
+   * @return true if a new generation has been mapped
+   * @throws CfgException if the file could not be mapped
+   */
+  public boolean refresh() throws CfgException {
+    long start = System.nanoTime();
+    boolean changed = remap();
+    // The changed keys are unknown without comparing both generations, which would defeat the cheap remap:
+    CfgStats.getInstance().recordReload(System.nanoTime() - start, changed, changed ? -1 : 0);
+    return changed;
+  }
+
+  /**
+   * Maps a new generation and returns true, or returns false if unchanged.
+   */
+  private boolean remap() throws CfgException {
+    CfgBinary.Header header;
+    try {
+      header = CfgBinary.readHeader(_file);
+    }
+    catch (IOException e) {
+      throw new CfgException("The shared config file '" + _file + "' could not be read!", e);
+    }
+    if (header == null || header.generation == getGeneration()) {
+      return false;
+    }
+    synchronized (this) {
+      CfgSharedMap.Mapping mapping = map(_file);
+      if (mapping.header.generation == getGeneration()) {
+        return false;
+      }
+      _map.setMapping(mapping);
+      _cfg.clearCache();
+      return true;
+    }
+  }
+}
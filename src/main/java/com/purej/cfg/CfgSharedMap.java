@@ -0,0 +1,111 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only key/value map that looks up keys directly in a memory-mapped binary layout - only for internal usage.
+ * <p/>
+ * Only the looked-up values are decoded to strings, the key/value pairs themselves stay off-heap.
+ * The mapping can be swapped atomically with a newer generation of the same file.
+ *
+ * @author Stefan Mueller
+ */
+final class CfgSharedMap extends AbstractMap<String, String> {
+
+  /** A mapped file with its header. */
+  static final class Mapping {
+    final ByteBuffer buffer;
+    final CfgBinary.Header header;
+
+    Mapping(ByteBuffer buffer, CfgBinary.Header header) {
+      this.buffer = buffer;
+      this.header = header;
+    }
+  }
+
+  private volatile Mapping _mapping;
+
+  /**
+   * Creates a new instance of this class for the given mapping.
+   */
+  CfgSharedMap(Mapping mapping) {
+    _mapping = mapping;
+  }
+
+  Mapping getMapping() {
+    return _mapping;
+  }
+
+  void setMapping(Mapping mapping) {
+    _mapping = mapping;
+  }
+
+  @Override
+  public String get(Object key) {
+    if (!(key instanceof String)) {
+      return null;
+    }
+    Mapping mapping = _mapping;
+    int offset = CfgBinary.find(mapping.buffer, mapping.header, (String) key);
+    return offset >= 0 ? CfgBinary.readValue(mapping.buffer, offset) : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    Mapping mapping = _mapping;
+    return key instanceof String && CfgBinary.find(mapping.buffer, mapping.header, (String) key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return _mapping.header.entryCount;
+  }
+
+  @Override
+  public Set<Map.Entry<String, String>> entrySet() {
+    final Mapping mapping = _mapping;
+    return new AbstractSet<Map.Entry<String, String>>() {
+      @Override
+      public int size() {
+        return mapping.header.entryCount;
+      }
+
+      @Override
+      public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+          private int _index;
+          private int _offset = CfgBinary.HEADER_SIZE + mapping.header.slotCount * 4;
+
+          @Override
+          public boolean hasNext() {
+            return _index < mapping.header.entryCount;
+          }
+
+          @Override
+          public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            int offset = _offset;
+            _offset = CfgBinary.nextEntry(mapping.buffer, offset);
+            _index++;
+            return new SimpleImmutableEntry<String, String>(CfgBinary.readKey(mapping.buffer, offset),
+                CfgBinary.readValue(mapping.buffer, offset));
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+}
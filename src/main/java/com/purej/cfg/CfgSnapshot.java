@@ -0,0 +1,143 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Loads a {@link Cfg} from a java properties file over a binary snapshot file that caches the already parsed
+ * key/value pairs. As long as the source file is unchanged, a load just reads and validates the snapshot instead of
+ * parsing the properties file - which matters for short-lived JVMs that load large configs.
+ * <p/>
+ * A snapshot is valid if the size and the last-modified time of the source file match the ones recorded in the
+ * snapshot. These are taken before the source file is parsed, so a change while parsing invalidates the snapshot.
+ * Optionally, the CRC32 checksum of the source file is compared as well (for file systems or deployments that do not
+ * preserve modification times), it is only computed if requested.
+ * <p/>
+ * Values are stored as-is (eg. not substituted), so a config loaded from a snapshot behaves exactly like one loaded
+ * from the source file: Expressions are resolved on access, also after a referenced key has been changed.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgSnapshot {
+
+  private CfgSnapshot() {
+  }
+
+  /**
+   * Loads the config from the given snapshot if it is valid for the given source file. Otherwise, loads the source
+   * file and (re-)writes the snapshot. Failures to write the snapshot are ignored, as the snapshot is just a cache.
+   *
+   * @param source the java properties file
+   * @param snapshot the snapshot file
+   * @return the loaded config
+   * @throws CfgException if the source file could not be found or an I/O error occurred
+   */
+  public static Cfg load(File source, File snapshot) throws CfgException {
+    return load(source, snapshot, false);
+  }
+
+  /**
+   * Loads the config from the given snapshot if it is valid for the given source file. Otherwise, loads the source
+   * file and (re-)writes the snapshot. Failures to write the snapshot are ignored, as the snapshot is just a cache.
+   *
+   * @param source the java properties file
+   * @param snapshot the snapshot file
+   * @param verifyChecksum true to validate the snapshot against the source's checksum in addition to size and last-modified time
+   * @return the loaded config
+   * @throws CfgException if the source file could not be found or an I/O error occurred
+   */
+  public static Cfg load(File source, File snapshot, boolean verifyChecksum) throws CfgException {
+    Map<String, String> map = read(source, snapshot, verifyChecksum);
+    if (map != null) {
+      return new Cfg(map, null);
+    }
+    CfgBinary.Header header = header(source, verifyChecksum);
+    Cfg cfg = new Cfg(source);
+    try {
+      write(cfg, header, snapshot);
+    }
+    catch (CfgException e) {
+      // Ignored, the snapshot is just a cache...
+    }
+    return cfg;
+  }
+
+  /**
+   * Stores the key/value pairs of the given config as snapshot of the given source file, without the checksum of the
+   * source file. The snapshot is replaced atomically, so concurrent loaders never see a half-written snapshot.
+   *
+   * @param cfg the config to be stored, usually loaded from the given source file
+   * @param source the java properties file the config has been loaded from
+   * @param snapshot the snapshot file to be written
+   * @throws CfgException if the snapshot could not be written
+   */
+  public static void store(Cfg cfg, File source, File snapshot) throws CfgException {
+    store(cfg, source, snapshot, false);
+  }
+
+  /**
+   * Stores the key/value pairs of the given config as snapshot of the given source file. The snapshot is replaced
+   * atomically, so concurrent loaders never see a half-written snapshot. A snapshot without checksum is not valid for
+   * loads that verify the checksum.
+   *
+   * @param cfg the config to be stored, usually loaded from the given source file
+   * @param source the java properties file the config has been loaded from
+   * @param snapshot the snapshot file to be written
+   * @param withChecksum true to compute and store the checksum of the source file (reads the whole source file)
+   * @throws CfgException if the source file could not be read or the snapshot could not be written
+   */
+  public static void store(Cfg cfg, File source, File snapshot, boolean withChecksum) throws CfgException {
+    write(cfg, header(source, withChecksum), snapshot);
+  }
+
+  private static CfgBinary.Header header(File source, boolean withChecksum) throws CfgException {
+    CfgBinary.Header header = new CfgBinary.Header();
+    header.sourceSize = source.length();
+    header.sourceModified = source.lastModified();
+    if (withChecksum) {
+      try {
+        header.sourceChecksum = CfgFiles.checksum(source);
+      }
+      catch (IOException e) {
+        throw new CfgException("The config file '" + source + "' could not be read!", e);
+      }
+    }
+    return header;
+  }
+
+  private static void write(Cfg cfg, CfgBinary.Header header, File snapshot) throws CfgException {
+    try {
+      CfgBinary.write(cfg.toMap(), header, snapshot);
+    }
+    catch (IOException e) {
+      throw new CfgException("The snapshot could not be written to file '" + snapshot + "'!", e);
+    }
+  }
+
+  private static Map<String, String> read(File source, File snapshot, boolean verifyChecksum) throws CfgException {
+    if (!snapshot.isFile() || !source.isFile()) {
+      return null;
+    }
+    try {
+      ByteBuffer buffer = CfgBinary.read(snapshot);
+      CfgBinary.Header header = CfgBinary.readHeader(buffer);
+      if (header == null || header.sourceSize != source.length() || header.sourceModified != source.lastModified()) {
+        return null;
+      }
+      if (verifyChecksum && (header.sourceChecksum == CfgBinary.NO_CHECKSUM || header.sourceChecksum != CfgFiles.checksum(source))) {
+        return null;
+      }
+      return CfgBinary.readEntries(buffer, header);
+    }
+    catch (IOException e) {
+      return null;
+    }
+    catch (RuntimeException e) {
+      // A truncated or corrupt snapshot is just outdated...
+      return null;
+    }
+  }
+}
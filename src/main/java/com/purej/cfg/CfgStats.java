@@ -0,0 +1,272 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * JVM-wide statistics about loading and resolving {@link Cfg} instances. Helps to find out where the time goes at
+ * startup: The resource/file lookup, parsing the properties stream, copying into the config or substitution of
+ * ${lookup.key} expressions.
+ * <p/>
+ * Load and reload statistics are always collected, as they are only updated on load and on reload of a shared config
+ * or config directory. Lookup statistics (substitutions and cached parsed values) are only collected after
+ * {@link #setEnabled(boolean)}, as they would add timing and counter updates to every such lookup.
+ * Call {@link #register()} to expose them over JMX under the object name {@value #OBJECT_NAME}.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgStats implements CfgStatsMBean {
+  /** The JMX object name used by {@link #register()}. */
+  public static final String OBJECT_NAME = "com.purej.cfg:type=CfgStats";
+
+  private static final CfgStats INSTANCE = new CfgStats();
+
+  private final AtomicLong _loadCount = new AtomicLong();
+  private final AtomicLong _totalLoadNanos = new AtomicLong();
+  private final LongAdder _resolveCount = new LongAdder();
+  private final LongAdder _resolveNanos = new LongAdder();
+  private final LongAdder _slowResolveCount = new LongAdder();
+  private final LongAdder _cacheHitCount = new LongAdder();
+  private final LongAdder _cacheMissCount = new LongAdder();
+  private final AtomicLong _reloadCount = new AtomicLong();
+  private final AtomicLong _reloadChangeCount = new AtomicLong();
+  private final AtomicLong _totalReloadNanos = new AtomicLong();
+  private volatile int _lastLoadKeyCount;
+  private volatile long _lastLookupNanos;
+  private volatile long _lastParseNanos;
+  private volatile long _lastCopyNanos;
+  private volatile long _lastReloadNanos;
+  private volatile int _lastReloadChangedKeyCount;
+  private volatile long _slowResolveThresholdNanos = TimeUnit.MILLISECONDS.toNanos(1);
+  private volatile boolean _enabled;
+
+  private CfgStats() {
+  }
+
+  /**
+   * Returns the JVM-wide statistics instance.
+   */
+  public static CfgStats getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Registers the statistics in the platform MBean server, if not already registered.
+   *
+   * @throws CfgException if the registration failed
+   */
+  public static void register() throws CfgException {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(INSTANCE, name);
+      }
+    }
+    catch (JMException e) {
+      throw new CfgException("The MBean '" + OBJECT_NAME + "' could not be registered!", e);
+    }
+  }
+
+  /**
+   * Unregisters the statistics from the platform MBean server, if registered.
+   *
+   * @throws CfgException if the unregistration failed
+   */
+  public static void unregister() throws CfgException {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    }
+    catch (JMException e) {
+      throw new CfgException("The MBean '" + OBJECT_NAME + "' could not be unregistered!", e);
+    }
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return _enabled;
+  }
+
+  @Override
+  public void setEnabled(boolean enabled) {
+    _enabled = enabled;
+  }
+
+  @Override
+  public long getLoadCount() {
+    return _loadCount.get();
+  }
+
+  @Override
+  public int getLastLoadKeyCount() {
+    return _lastLoadKeyCount;
+  }
+
+  @Override
+  public long getLastLookupMicros() {
+    return toMicros(_lastLookupNanos);
+  }
+
+  @Override
+  public long getLastParseMicros() {
+    return toMicros(_lastParseNanos);
+  }
+
+  @Override
+  public long getLastCopyMicros() {
+    return toMicros(_lastCopyNanos);
+  }
+
+  @Override
+  public long getTotalLoadMicros() {
+    return toMicros(_totalLoadNanos.get());
+  }
+
+  @Override
+  public long getResolveCount() {
+    return _resolveCount.sum();
+  }
+
+  @Override
+  public long getResolveMicros() {
+    return toMicros(_resolveNanos.sum());
+  }
+
+  @Override
+  public long getSlowResolveCount() {
+    return _slowResolveCount.sum();
+  }
+
+  @Override
+  public long getSlowResolveThresholdMicros() {
+    return toMicros(_slowResolveThresholdNanos);
+  }
+
+  @Override
+  public void setSlowResolveThresholdMicros(long micros) {
+    _slowResolveThresholdNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+  }
+
+  @Override
+  public long getCacheHitCount() {
+    return _cacheHitCount.sum();
+  }
+
+  @Override
+  public long getCacheMissCount() {
+    return _cacheMissCount.sum();
+  }
+
+  @Override
+  public double getCacheHitRate() {
+    long hits = getCacheHitCount();
+    long total = hits + getCacheMissCount();
+    return total > 0 ? (double) hits / total : 0;
+  }
+
+  @Override
+  public long getReloadCount() {
+    return _reloadCount.get();
+  }
+
+  @Override
+  public long getReloadChangeCount() {
+    return _reloadChangeCount.get();
+  }
+
+  @Override
+  public int getLastReloadChangedKeyCount() {
+    return _lastReloadChangedKeyCount;
+  }
+
+  @Override
+  public long getLastReloadMicros() {
+    return toMicros(_lastReloadNanos);
+  }
+
+  @Override
+  public long getTotalReloadMicros() {
+    return toMicros(_totalReloadNanos.get());
+  }
+
+  @Override
+  public void reset() {
+    _loadCount.set(0);
+    _totalLoadNanos.set(0);
+    _resolveCount.reset();
+    _resolveNanos.reset();
+    _slowResolveCount.reset();
+    _cacheHitCount.reset();
+    _cacheMissCount.reset();
+    _reloadCount.set(0);
+    _reloadChangeCount.set(0);
+    _totalReloadNanos.set(0);
+    _lastLoadKeyCount = 0;
+    _lastLookupNanos = 0;
+    _lastParseNanos = 0;
+    _lastCopyNanos = 0;
+    _lastReloadNanos = 0;
+    _lastReloadChangedKeyCount = 0;
+  }
+
+  void recordLookup(long nanos) {
+    _lastLookupNanos = nanos;
+    _totalLoadNanos.addAndGet(nanos);
+  }
+
+  void recordParse(long nanos, int keyCount) {
+    _lastParseNanos = nanos;
+    _lastLoadKeyCount = keyCount;
+    _totalLoadNanos.addAndGet(nanos);
+    _loadCount.incrementAndGet();
+  }
+
+  void recordCopy(long nanos) {
+    _lastCopyNanos = nanos;
+    _totalLoadNanos.addAndGet(nanos);
+  }
+
+  void recordResolve(long nanos) {
+    _resolveCount.increment();
+    _resolveNanos.add(nanos);
+    if (nanos > _slowResolveThresholdNanos) {
+      _slowResolveCount.increment();
+    }
+  }
+
+  void recordCache(boolean hit) {
+    (hit ? _cacheHitCount : _cacheMissCount).increment();
+  }
+
+  void recordReload(long nanos, boolean changed, int changedKeyCount) {
+    _reloadCount.incrementAndGet();
+    _totalReloadNanos.addAndGet(nanos);
+    _lastReloadNanos = nanos;
+    _lastReloadChangedKeyCount = changedKeyCount;
+    if (changed) {
+      _reloadChangeCount.incrementAndGet();
+    }
+  }
+
+  private static long toMicros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  @Override
+  public String toString() {
+    return "CfgStats[loads=" + getLoadCount() + ", loadMicros=" + getTotalLoadMicros() + ", resolves=" + getResolveCount()
+        + ", resolveMicros=" + getResolveMicros() + ", slowResolves=" + getSlowResolveCount() + ", cacheHits=" + getCacheHitCount()
+        + ", cacheMisses=" + getCacheMissCount() + ", reloads=" + getReloadCount() + ", reloadChanges=" + getReloadChangeCount()
+        + ", reloadMicros=" + getTotalReloadMicros() + "]";
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+/**
+ * Management interface of the {@link CfgStats} statistics, see {@link CfgStats#register()}.
+ * All durations are in microseconds.
+ *
+ * @author Stefan Mueller
+ */
+public interface CfgStatsMBean {
+
+  /**
+   * Returns true if lookup statistics (substitutions and cached parsed values) are collected, false by default.
+   */
+  boolean isEnabled();
+
+  /**
+   * Enables or disables the collection of lookup statistics (substitutions and cached parsed values). Load and reload statistics are always
+   * collected.
+   */
+  void setEnabled(boolean enabled);
+
+  /**
+   * Returns the number of configs loaded from a resource, file or stream.
+   */
+  long getLoadCount();
+
+  /**
+   * Returns the number of keys of the last loaded config.
+   */
+  int getLastLoadKeyCount();
+
+  /**
+   * Returns the duration of the last resource/file lookup (class-loader or file-system).
+   */
+  long getLastLookupMicros();
+
+  /**
+   * Returns the duration of the last parse of a properties stream, directly into a config.
+   */
+  long getLastParseMicros();
+
+  /**
+   * Returns the duration of the last copy of a map into a config (see {@link Cfg#Cfg(java.util.Map)}).
+   */
+  long getLastCopyMicros();
+
+  /**
+   * Returns the accumulated duration of all lookups, parses and copies.
+   */
+  long getTotalLoadMicros();
+
+  /**
+   * Returns the number of lookups that required substitution of ${lookup.key} expressions, while enabled.
+   */
+  long getResolveCount();
+
+  /**
+   * Returns the accumulated duration of all substitutions.
+   */
+  long getResolveMicros();
+
+  /**
+   * Returns the number of substitutions that took longer than the slow-resolve threshold.
+   */
+  long getSlowResolveCount();
+
+  /**
+   * Returns the threshold above which a substitution is counted as slow.
+   */
+  long getSlowResolveThresholdMicros();
+
+  /**
+   * Sets the threshold above which a substitution is counted as slow.
+   */
+  void setSlowResolveThresholdMicros(long micros);
+
+  /**
+   * Returns the number of lookups of parsed values (eg. string lists) that have been served from the cache, while enabled.
+   */
+  long getCacheHitCount();
+
+  /**
+   * Returns the number of lookups of parsed values (eg. string lists) that had to be parsed, while enabled.
+   */
+  long getCacheMissCount();
+
+  /**
+   * Returns the ratio of cache hits to all lookups of parsed values (between 0 and 1).
+   */
+  double getCacheHitRate();
+
+  /**
+   * Returns the number of reload checks of shared configs and config directories (see {@link CfgShared#refresh()} and
+   * {@link CfgDirectory#refresh()}), with or without changes.
+   */
+  long getReloadCount();
+
+  /**
+   * Returns the number of reload checks that found and applied changes.
+   */
+  long getReloadChangeCount();
+
+  /**
+   * Returns the number of keys that were re-read by the last reload check, -1 if the last reload check mapped a new
+   * generation of a shared config (whose changed keys are not determined).
+   */
+  int getLastReloadChangedKeyCount();
+
+  /**
+   * Returns the duration of the last reload check, including the re-read of changed keys.
+   */
+  long getLastReloadMicros();
+
+  /**
+   * Returns the accumulated duration of all reload checks.
+   */
+  long getTotalReloadMicros();
+
+  /**
+   * Resets all counters and durations.
+   */
+  void reset();
+}
@@ -0,0 +1,432 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable key/value map implemented as persistent hash array mapped trie - only for internal usage.
+ * <p/>
+ * A {@link #put(String, String)} or {@link #remove(String)} returns a new trie in O(log32 n) that shares all
+ * unchanged nodes with this trie, so old versions stay valid and cost only the changed paths.
+ *
+ * @author Stefan Mueller
+ */
+final class CfgTrie {
+  static final CfgTrie EMPTY = new CfgTrie(new BitmapNode(0, new Object[0]), 0);
+  private static final Object NOT_FOUND = new Object();
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  private final Node _root;
+  private final int _size;
+
+  private CfgTrie(Node root, int size) {
+    _root = root;
+    _size = size;
+  }
+
+  int size() {
+    return _size;
+  }
+
+  boolean containsKey(String key) {
+    return _root.find(0, key.hashCode(), key) != NOT_FOUND;
+  }
+
+  String get(String key) {
+    Object value = _root.find(0, key.hashCode(), key);
+    return value != NOT_FOUND ? (String) value : null;
+  }
+
+  CfgTrie put(String key, String value) {
+    boolean[] added = new boolean[1];
+    Node root = _root.put(0, key.hashCode(), key, value, added);
+    return root == _root ? this : new CfgTrie(root, added[0] ? _size + 1 : _size);
+  }
+
+  CfgTrie remove(String key) {
+    Node root = _root.remove(0, key.hashCode(), key);
+    if (root == _root) {
+      return this;
+    }
+    return root != null ? new CfgTrie(root, _size - 1) : EMPTY;
+  }
+
+  /**
+   * Returns an iterator over all key/value pairs in no particular order.
+   */
+  Iterator<Map.Entry<String, String>> iterator() {
+    return new EntryIterator(_root);
+  }
+
+  /**
+   * Returns a read-only map view of this trie.
+   */
+  Map<String, String> asMap() {
+    return new TrieMap(this);
+  }
+
+  /**
+   * Returns the trie behind the given map if it is a view returned by {@link #asMap()}, null otherwise.
+   */
+  static CfgTrie of(Map<String, String> map) {
+    return map instanceof TrieMap ? ((TrieMap) map).trie : null;
+  }
+
+  /**
+   * Collects the changes from this trie to the given trie into the given map (added or changed keys) and set (removed
+   * keys). Sub-tries shared by both tries are skipped, so comparing two versions derived from each other costs
+   * O(changed * log32 n) instead of O(n).
+   */
+  void diff(CfgTrie to, Map<String, String> puts, Set<String> removes) {
+    diff(_root, to._root, puts, removes);
+  }
+
+  private static void diff(Node from, Node to, Map<String, String> puts, Set<String> removes) {
+    if (from == to) {
+      return;
+    }
+    if (!(from instanceof BitmapNode) || !(to instanceof BitmapNode)) {
+      compare(collect(from.array, 0, from.array.length), collect(to.array, 0, to.array.length), puts, removes);
+      return;
+    }
+    BitmapNode a = (BitmapNode) from;
+    BitmapNode b = (BitmapNode) to;
+    int bitmap = a._bitmap | b._bitmap;
+    while (bitmap != 0) {
+      int bit = Integer.lowestOneBit(bitmap);
+      bitmap ^= bit;
+      int ia = (a._bitmap & bit) != 0 ? 2 * Integer.bitCount(a._bitmap & (bit - 1)) : -1;
+      int ib = (b._bitmap & bit) != 0 ? 2 * Integer.bitCount(b._bitmap & (bit - 1)) : -1;
+      if (ia >= 0 && ib >= 0) {
+        Object ka = a.array[ia];
+        Object va = a.array[ia + 1];
+        Object kb = b.array[ib];
+        Object vb = b.array[ib + 1];
+        if (ka == kb && va == vb) {
+          continue;
+        }
+        if (ka == null && kb == null) {
+          diff((Node) va, (Node) vb, puts, removes);
+          continue;
+        }
+        if (ka != null && ka.equals(kb)) {
+          if (va == null ? vb != null : !va.equals(vb)) {
+            puts.put((String) kb, (String) vb);
+          }
+          continue;
+        }
+      }
+      Map<String, String> slotA = ia >= 0 ? collect(a.array, ia, ia + 2) : new HashMap<String, String>();
+      Map<String, String> slotB = ib >= 0 ? collect(b.array, ib, ib + 2) : new HashMap<String, String>();
+      compare(slotA, slotB, puts, removes);
+    }
+  }
+
+  private static Map<String, String> collect(Object[] array, int from, int to) {
+    Map<String, String> map = new HashMap<String, String>();
+    collect(array, from, to, map);
+    return map;
+  }
+
+  private static void collect(Object[] array, int from, int to, Map<String, String> map) {
+    for (int i = from; i < to; i += 2) {
+      if (array[i] == null) {
+        Object[] sub = ((Node) array[i + 1]).array;
+        collect(sub, 0, sub.length, map);
+      }
+      else {
+        map.put((String) array[i], (String) array[i + 1]);
+      }
+    }
+  }
+
+  private static void compare(Map<String, String> from, Map<String, String> to, Map<String, String> puts,
+      Set<String> removes) {
+    for (Map.Entry<String, String> entry : to.entrySet()) {
+      String value = entry.getValue();
+      String old = from.get(entry.getKey());
+      if (value == null ? old != null || !from.containsKey(entry.getKey()) : !value.equals(old)) {
+        puts.put(entry.getKey(), value);
+      }
+    }
+    for (String key : from.keySet()) {
+      if (!to.containsKey(key)) {
+        removes.add(key);
+      }
+    }
+  }
+
+  /** The read-only map view of a trie. */
+  private static final class TrieMap extends AbstractMap<String, String> {
+    final CfgTrie trie;
+
+    TrieMap(CfgTrie trie) {
+      this.trie = trie;
+    }
+
+    @Override
+    public String get(Object key) {
+      return key instanceof String ? trie.get((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof String && trie.containsKey((String) key);
+    }
+
+    @Override
+    public int size() {
+      return trie._size;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+      return new AbstractSet<Map.Entry<String, String>>() {
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+          return trie.iterator();
+        }
+
+        @Override
+        public int size() {
+          return trie._size;
+        }
+      };
+    }
+  }
+
+  /** Base class of all nodes: an array of key/value pairs, a null key denotes a sub-node as value. */
+  private abstract static class Node {
+    final Object[] array;
+
+    Node(Object[] array) {
+      this.array = array;
+    }
+
+    abstract Object find(int shift, int hash, String key);
+
+    abstract Node put(int shift, int hash, String key, String value, boolean[] added);
+
+    abstract Node remove(int shift, int hash, String key);
+  }
+
+  /** Node with one array slot per set bit of the 5-bit hash fragment at its level. */
+  private static final class BitmapNode extends Node {
+    private final int _bitmap;
+
+    BitmapNode(int bitmap, Object[] array) {
+      super(array);
+      _bitmap = bitmap;
+    }
+
+    @Override
+    Object find(int shift, int hash, String key) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((_bitmap & bit) == 0) {
+        return NOT_FOUND;
+      }
+      int idx = 2 * Integer.bitCount(_bitmap & (bit - 1));
+      Object k = array[idx];
+      if (k == null) {
+        return ((Node) array[idx + 1]).find(shift + BITS, hash, key);
+      }
+      return key.equals(k) ? array[idx + 1] : NOT_FOUND;
+    }
+
+    @Override
+    Node put(int shift, int hash, String key, String value, boolean[] added) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      int idx = 2 * Integer.bitCount(_bitmap & (bit - 1));
+      if ((_bitmap & bit) == 0) {
+        Object[] copy = new Object[array.length + 2];
+        System.arraycopy(array, 0, copy, 0, idx);
+        copy[idx] = key;
+        copy[idx + 1] = value;
+        System.arraycopy(array, idx, copy, idx + 2, array.length - idx);
+        added[0] = true;
+        return new BitmapNode(_bitmap | bit, copy);
+      }
+      Object k = array[idx];
+      Object v = array[idx + 1];
+      if (k == null) {
+        Node node = ((Node) v).put(shift + BITS, hash, key, value, added);
+        return node == v ? this : with(idx, null, node);
+      }
+      if (key.equals(k)) {
+        return value == null ? (v == null ? this : with(idx, k, null)) : (value.equals(v) ? this : with(idx, k, value));
+      }
+      added[0] = true;
+      return with(idx, null, createNode(shift + BITS, (String) k, (String) v, hash, key, value));
+    }
+
+    @Override
+    Node remove(int shift, int hash, String key) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((_bitmap & bit) == 0) {
+        return this;
+      }
+      int idx = 2 * Integer.bitCount(_bitmap & (bit - 1));
+      Object k = array[idx];
+      if (k == null) {
+        Node node = ((Node) array[idx + 1]).remove(shift + BITS, hash, key);
+        if (node == array[idx + 1]) {
+          return this;
+        }
+        return node != null ? with(idx, null, node) : without(bit, idx);
+      }
+      return key.equals(k) ? without(bit, idx) : this;
+    }
+
+    private Node with(int idx, Object key, Object value) {
+      Object[] copy = array.clone();
+      copy[idx] = key;
+      copy[idx + 1] = value;
+      return new BitmapNode(_bitmap, copy);
+    }
+
+    private Node without(int bit, int idx) {
+      if (_bitmap == bit) {
+        return null;
+      }
+      Object[] copy = new Object[array.length - 2];
+      System.arraycopy(array, 0, copy, 0, idx);
+      System.arraycopy(array, idx + 2, copy, idx, array.length - idx - 2);
+      return new BitmapNode(_bitmap ^ bit, copy);
+    }
+  }
+
+  /** Node holding all keys with the same full hash code. */
+  private static final class CollisionNode extends Node {
+    private final int _hash;
+
+    CollisionNode(int hash, Object[] array) {
+      super(array);
+      _hash = hash;
+    }
+
+    @Override
+    Object find(int shift, int hash, String key) {
+      int idx = indexOf(key);
+      return idx >= 0 ? array[idx + 1] : NOT_FOUND;
+    }
+
+    @Override
+    Node put(int shift, int hash, String key, String value, boolean[] added) {
+      if (hash != _hash) {
+        Node node = new BitmapNode(1 << ((_hash >>> shift) & MASK), new Object[] { null, this });
+        return node.put(shift, hash, key, value, added);
+      }
+      int idx = indexOf(key);
+      if (idx >= 0) {
+        Object v = array[idx + 1];
+        if (value == null ? v == null : value.equals(v)) {
+          return this;
+        }
+        Object[] copy = array.clone();
+        copy[idx + 1] = value;
+        return new CollisionNode(_hash, copy);
+      }
+      Object[] copy = new Object[array.length + 2];
+      System.arraycopy(array, 0, copy, 0, array.length);
+      copy[array.length] = key;
+      copy[array.length + 1] = value;
+      added[0] = true;
+      return new CollisionNode(_hash, copy);
+    }
+
+    @Override
+    Node remove(int shift, int hash, String key) {
+      int idx = indexOf(key);
+      if (idx < 0) {
+        return this;
+      }
+      if (array.length == 2) {
+        return null;
+      }
+      Object[] copy = new Object[array.length - 2];
+      System.arraycopy(array, 0, copy, 0, idx);
+      System.arraycopy(array, idx + 2, copy, idx, array.length - idx - 2);
+      return new CollisionNode(_hash, copy);
+    }
+
+    private int indexOf(String key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private static Node createNode(int shift, String key1, String value1, int hash2, String key2, String value2) {
+    int hash1 = key1.hashCode();
+    if (hash1 == hash2) {
+      return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+    }
+    boolean[] added = new boolean[1];
+    Node node = new BitmapNode(0, new Object[0]).put(shift, hash1, key1, value1, added);
+    return node.put(shift, hash2, key2, value2, added);
+  }
+
+  /** Depth-first iterator over the node arrays. */
+  private static final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+    private final Object[][] _arrays = new Object[16][];
+    private final int[] _indexes = new int[16];
+    private int _depth;
+    private Map.Entry<String, String> _next;
+
+    EntryIterator(Node root) {
+      _arrays[0] = root.array;
+      _next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return _next != null;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+      Map.Entry<String, String> next = _next;
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      _next = advance();
+      return next;
+    }
+
+    private Map.Entry<String, String> advance() {
+      while (_depth >= 0) {
+        Object[] array = _arrays[_depth];
+        int idx = _indexes[_depth];
+        if (idx >= array.length) {
+          _arrays[_depth--] = null;
+          continue;
+        }
+        _indexes[_depth] = idx + 2;
+        if (array[idx] == null) {
+          _depth++;
+          _arrays[_depth] = ((Node) array[idx + 1]).array;
+          _indexes[_depth] = 0;
+        }
+        else {
+          return new AbstractMap.SimpleImmutableEntry<String, String>((String) array[idx], (String) array[idx + 1]);
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
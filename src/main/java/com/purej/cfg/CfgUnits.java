@@ -0,0 +1,125 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parser for values with units like <code>30s</code> or <code>64MiB</code> - only for internal usage.
+ * <p/>
+ * Values are scanned char by char without regular expressions, substrings or exceptions: An optional decimal number
+ * (up to 9 fraction digits), optional whitespace and an optional unit, which is matched ignoring case.
+ *
+ * @author Stefan Mueller
+ */
+final class CfgUnits {
+  /** Returned for invalid values (all valid values are not negative). */
+  static final long INVALID = -1;
+
+  private static final String[] DURATION_UNITS = { "ns", "us", "\u00b5s", "ms", "s", "sec", "m", "min", "h", "d" };
+  private static final long[] DURATION_FACTORS = { 1L, 1000L, 1000L, 1000000L, 1000000000L, 1000000000L, 60000000000L,
+      60000000000L, 3600000000000L, 86400000000000L };
+  private static final long DURATION_DEFAULT_FACTOR = 1000000L;
+
+  private static final String[] BYTE_UNITS = { "b", "k", "kb", "kib", "m", "mb", "mib", "g", "gb", "gib", "t", "tb", "tib" };
+  private static final long[] BYTE_FACTORS = { 1L, 1L << 10, 1000L, 1L << 10, 1L << 20, 1000000L, 1L << 20, 1L << 30,
+      1000000000L, 1L << 30, 1L << 40, 1000000000000L, 1L << 40 };
+  private static final long BYTE_DEFAULT_FACTOR = 1L;
+
+  private static final long[] POWERS_OF_10 = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+      1000000000L };
+
+  private CfgUnits() {
+  }
+
+  /**
+   * Parses a duration like <code>250ms</code>, <code>30s</code> or <code>1.5h</code> to nanoseconds.
+   * Supported units are ns, us (or &micro;s), ms, s (or sec), m (or min), h and d. Values without unit are
+   * milliseconds. ISO-8601 durations like <code>PT30S</code> are supported as well.
+   *
+   * @return the nanoseconds or {@link #INVALID}
+   */
+  static long parseNanos(String s) {
+    int start = skipWhitespace(s, 0);
+    if (start < s.length() && (s.charAt(start) == 'P' || s.charAt(start) == 'p')) {
+      try {
+        Duration duration = Duration.parse(s.trim());
+        return duration.isNegative() ? INVALID : duration.toNanos();
+      }
+      catch (DateTimeParseException e) {
+        return INVALID;
+      }
+      catch (ArithmeticException e) {
+        return INVALID;
+      }
+    }
+    return parse(s, DURATION_UNITS, DURATION_FACTORS, DURATION_DEFAULT_FACTOR);
+  }
+
+  /**
+   * Parses a byte size like <code>512</code>, <code>64k</code>, <code>64MiB</code> or <code>1.5GB</code> to bytes.
+   * Supported units are b, the binary units k, m, g, t and kib, mib, gib, tib (powers of 1024) and the decimal units
+   * kb, mb, gb, tb (powers of 1000). Values without unit are bytes.
+   *
+   * @return the bytes or {@link #INVALID}
+   */
+  static long parseBytes(String s) {
+    return parse(s, BYTE_UNITS, BYTE_FACTORS, BYTE_DEFAULT_FACTOR);
+  }
+
+  private static long parse(String s, String[] units, long[] factors, long defaultFactor) {
+    int length = s.length();
+    int i = skipWhitespace(s, 0);
+    while (length > i && Character.isWhitespace(s.charAt(length - 1))) {
+      length--;
+    }
+    // Integral and fraction digits:
+    long whole = 0;
+    long fraction = 0;
+    int scale = 0;
+    int digits = 0;
+    for (; i < length && isDigit(s.charAt(i)); i++, digits++) {
+      if (whole > (Long.MAX_VALUE - 9) / 10) {
+        return INVALID;
+      }
+      whole = whole * 10 + (s.charAt(i) - '0');
+    }
+    if (i < length && s.charAt(i) == '.') {
+      for (i++; i < length && isDigit(s.charAt(i)); i++, digits++) {
+        if (scale < 9) {
+          fraction = fraction * 10 + (s.charAt(i) - '0');
+          scale++;
+        }
+      }
+    }
+    if (digits == 0) {
+      return INVALID;
+    }
+    // Unit:
+    i = skipWhitespace(s, i);
+    long factor = i == length ? defaultFactor : INVALID;
+    for (int u = 0; u < units.length && factor == INVALID; u++) {
+      if (units[u].length() == length - i && s.regionMatches(true, i, units[u], 0, length - i)) {
+        factor = factors[u];
+      }
+    }
+    if (factor == INVALID || whole > Long.MAX_VALUE / factor) {
+      return INVALID;
+    }
+    // Fraction part without overflow, as the fraction is below 10^9:
+    long pow = POWERS_OF_10[scale];
+    long result = whole * factor + (factor / pow) * fraction + (factor % pow) * fraction / pow;
+    return result < 0 ? INVALID : result;
+  }
+
+  private static int skipWhitespace(String s, int i) {
+    while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+}
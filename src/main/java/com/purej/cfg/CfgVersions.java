@@ -0,0 +1,248 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Multi-version config: every change creates a new immutable version while older versions stay readable.
+ * A long-running request takes the {@link #getCfg() current} version once and sees consistent values until it
+ * completes, no matter what updates land in the meantime.
+ * <p/>
+ * The versions are stored in a persistent hash trie, a change copies only the O(log n) nodes on the path to the
+ * changed key and shares everything else with the previous version - there is no full copy of the key/value
+ * pairs per version. The last versions are kept in a bounded history for {@link #getCfg(long)} and
+ * {@link #rollback(long)}.
+ * <p/>
+ * This class is thread-safe, concurrent changes are applied one after the other without locking. The returned
+ * {@link Cfg} instances are read-only, their put methods throw an {@link UnsupportedOperationException}.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgVersions {
+
+  /** One immutable version. */
+  private static final class Version {
+    final long number;
+    final CfgTrie trie;
+    final Cfg cfg;
+
+    Version(long number, CfgTrie trie) {
+      this.number = number;
+      this.trie = trie;
+      this.cfg = new Cfg(trie.asMap(), null);
+    }
+  }
+
+  private final AtomicReference<Version> _current;
+  private final Version[] _history;
+
+  /**
+   * Creates a new instance of this class with an empty initial version 1.
+   *
+   * @param historySize the number of versions to keep, at least 1
+   */
+  public CfgVersions(int historySize) {
+    this(new Cfg(), historySize);
+  }
+
+  /**
+   * Creates a new instance of this class with the key/value pairs of the given config as initial version 1.
+   *
+   * @param cfg the initial config
+   * @param historySize the number of versions to keep, at least 1
+   */
+  public CfgVersions(Cfg cfg, int historySize) {
+    if (historySize < 1) {
+      throw new CfgException("History size must be at least 1 but is " + historySize + "!");
+    }
+    CfgTrie trie = CfgTrie.EMPTY;
+    for (Map.Entry<String, String> entry : cfg.toMap().entrySet()) {
+      trie = trie.put(entry.getKey(), entry.getValue());
+    }
+    Version version = new Version(1, trie);
+    _current = new AtomicReference<Version>(version);
+    _history = new Version[historySize];
+    record(version);
+  }
+
+  /**
+   * Returns the current version number.
+   */
+  public long getVersion() {
+    return _current.get().number;
+  }
+
+  /**
+   * Returns the oldest version number still available in the history.
+   */
+  public long getOldestVersion() {
+    return Math.max(1, getVersion() - _history.length + 1);
+  }
+
+  /**
+   * Returns the read-only config of the current version.
+   */
+  public Cfg getCfg() {
+    return _current.get().cfg;
+  }
+
+  /**
+   * Returns the read-only config of the given version.
+   *
+   * @param version the version number
+   * @return the config of the given version
+   * @throws CfgException if the version does not exist (anymore)
+   */
+  public Cfg getCfg(long version) throws CfgException {
+    return lookup(version).cfg;
+  }
+
+  /**
+   * Sets the key/value pair and creates a new version if the value changed.
+   *
+   * @param key the key to be set, must not be null
+   * @param value the value to be set, might be null
+   * @return the resulting version number
+   * @throws CfgException if the key is null
+   */
+  public long put(String key, String value) throws CfgException {
+    checkKey(key);
+    while (true) {
+      Version current = _current.get();
+      CfgTrie trie = current.trie.put(key, value);
+      if (trie == current.trie || update(current, trie)) {
+        return trie == current.trie ? current.number : current.number + 1;
+      }
+    }
+  }
+
+  /**
+   * Sets all given key/value pairs as one new version.
+   *
+   * @param keyValues the key/value pairs to be set
+   * @return the resulting version number
+   * @throws CfgException if a key is null
+   */
+  public long putAll(Map<String, String> keyValues) throws CfgException {
+    while (true) {
+      Version current = _current.get();
+      CfgTrie trie = current.trie;
+      for (Map.Entry<String, String> entry : keyValues.entrySet()) {
+        checkKey(entry.getKey());
+        trie = trie.put(entry.getKey(), entry.getValue());
+      }
+      if (trie == current.trie || update(current, trie)) {
+        return trie == current.trie ? current.number : current.number + 1;
+      }
+    }
+  }
+
+  /**
+   * Removes the given key and creates a new version if the key existed.
+   *
+   * @param key the key to be removed, must not be null
+   * @return the resulting version number
+   * @throws CfgException if the key is null
+   */
+  public long remove(String key) throws CfgException {
+    checkKey(key);
+    while (true) {
+      Version current = _current.get();
+      CfgTrie trie = current.trie.remove(key);
+      if (trie == current.trie || update(current, trie)) {
+        return trie == current.trie ? current.number : current.number + 1;
+      }
+    }
+  }
+
+  /**
+   * Applies all changes of the given delta as one new version, readers see either none or all of them.
+   * Only the changed keys are touched, the cost does not depend on the number of unchanged keys.
+   *
+   * @param delta the delta to be applied
+   * @return the resulting version number
+   */
+  public long apply(CfgDelta delta) {
+    while (true) {
+      Version current = _current.get();
+      CfgTrie trie = current.trie;
+      for (Map.Entry<String, String> entry : delta.getPuts().entrySet()) {
+        trie = trie.put(entry.getKey(), entry.getValue());
+      }
+      for (String key : delta.getRemoves()) {
+        trie = trie.remove(key);
+      }
+      if (trie == current.trie || update(current, trie)) {
+        return trie == current.trie ? current.number : current.number + 1;
+      }
+    }
+  }
+
+  /**
+   * Creates a new version with the key/value pairs of the given older version. Nothing is copied, the new version
+   * shares the trie of the old one.
+   *
+   * @param version the version number to roll back to
+   * @return the resulting (new) version number
+   * @throws CfgException if the version does not exist (anymore)
+   */
+  public long rollback(long version) throws CfgException {
+    CfgTrie trie = lookup(version).trie;
+    while (true) {
+      Version current = _current.get();
+      if (update(current, trie)) {
+        return current.number + 1;
+      }
+    }
+  }
+
+  /**
+   * Returns the trie of the given version.
+   */
+  CfgTrie getTrie(long version) throws CfgException {
+    return lookup(version).trie;
+  }
+
+  private boolean update(Version current, CfgTrie trie) {
+    Version version = new Version(current.number + 1, trie);
+    if (!_current.compareAndSet(current, version)) {
+      return false;
+    }
+    record(version);
+    return true;
+  }
+
+  private void record(Version version) {
+    int idx = (int) (version.number % _history.length);
+    synchronized (_history) {
+      if (_history[idx] == null || _history[idx].number < version.number) {
+        _history[idx] = version;
+      }
+    }
+  }
+
+  private static void checkKey(String key) throws CfgException {
+    if (key == null) {
+      throw new CfgException("Key must not be null!");
+    }
+  }
+
+  private Version lookup(long version) throws CfgException {
+    Version current = _current.get();
+    if (version == current.number) {
+      return current;
+    }
+    Version result = null;
+    if (version > 0 && version < current.number) {
+      synchronized (_history) {
+        result = _history[(int) (version % _history.length)];
+      }
+    }
+    if (result == null || result.number != version) {
+      throw new CfgException("Version " + version + " does not exist, available are versions " + getOldestVersion() + " to "
+          + current.number + "!");
+    }
+    return result;
+  }
+}
@@ -0,0 +1,19 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+/**
+ * Callback to visit config key/value pairs one by one without materializing them into a map.
+ *
+ * @author Stefan Mueller
+ */
+public interface CfgVisitor {
+
+  /**
+   * Visits the given key/value pair.
+   *
+   * @param key the key, never null
+   * @param value the value, might be null or empty
+   * @return true to continue with the next pair, false to stop visiting
+   */
+  boolean visit(String key, String value);
+}
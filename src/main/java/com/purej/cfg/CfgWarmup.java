@@ -0,0 +1,160 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Profile-guided warmup of a {@link Cfg}: Records which keys are accessed with which typed getters during a run, and
+ * replays these accesses on the next start before the first request does, so the first requests find lazy configs
+ * loaded, parsed values (string lists, durations, byte sizes) cached and the lookup code paths compiled:
+ * <pre>
+ *   CfgWarmup.warmup(cfg, profile); // On start, does nothing if there is no profile yet
+ *   CfgWarmup recorder = CfgWarmup.record(cfg);
+ *   ...
+ *   recorder.store(profile); // After the run or periodically
+ * </pre>
+ * Recording is opt-in. Without a recorder, a getter just checks for one - with a recorder, it adds the key to a
+ * concurrent map. Recording covers a config and all its subsets, keys are recorded as full keys.
+ *
+ * @author Stefan Mueller
+ */
+public final class CfgWarmup {
+  static final int STRING = 1;
+  static final int BOOLEAN = 1 << 1;
+  static final int INT = 1 << 2;
+  static final int LONG = 1 << 3;
+  static final int BIG_DECIMAL = 1 << 4;
+  static final int STRING_LIST = 1 << 5;
+  static final int DURATION = 1 << 6;
+  static final int BYTE_SIZE = 1 << 7;
+  private static final String[] KIND_NAMES = { "string", "boolean", "int", "long", "decimal", "list", "duration", "bytesize" };
+
+  private final Cfg _cfg;
+  private final ConcurrentHashMap<String, AtomicInteger> _keys = new ConcurrentHashMap<String, AtomicInteger>();
+
+  private CfgWarmup(Cfg cfg) {
+    _cfg = cfg;
+  }
+
+  /**
+   * Starts recording the accesses of the given config and all its subsets. Replaces an earlier recorder of the config.
+   *
+   * @param cfg the config to be recorded
+   * @return the recorder
+   */
+  public static CfgWarmup record(Cfg cfg) {
+    CfgWarmup recorder = new CfgWarmup(cfg);
+    cfg.setRecorder(recorder);
+    return recorder;
+  }
+
+  /**
+   * Records the access of the given full key with the given kind of getter.
+   */
+  void record(String fullKey, int kind) {
+    AtomicInteger kinds = _keys.get(fullKey);
+    if (kinds == null) {
+      AtomicInteger existing = _keys.putIfAbsent(fullKey, kinds = new AtomicInteger());
+      kinds = existing != null ? existing : kinds;
+    }
+    int current = kinds.get();
+    while ((current & kind) == 0 && !kinds.compareAndSet(current, current | kind)) {
+      current = kinds.get();
+    }
+  }
+
+  /**
+   * Stops recording, already recorded accesses are kept.
+   */
+  public void stop() {
+    _cfg.setRecorder(null);
+  }
+
+  /**
+   * Returns the number of recorded keys.
+   */
+  public int getKeyCount() {
+    return _keys.size();
+  }
+
+  /**
+   * Stores the recorded accesses as profile to the given file (in java properties format, sorted by key).
+   *
+   * @param file the profile file
+   * @throws CfgException if the file could not be written
+   */
+  public void store(File file) throws CfgException {
+    Cfg profile = new Cfg();
+    for (Map.Entry<String, AtomicInteger> entry : _keys.entrySet()) {
+      StringBuilder kinds = new StringBuilder();
+      for (int i = 0; i < KIND_NAMES.length; i++) {
+        if ((entry.getValue().get() & (1 << i)) != 0) {
+          kinds.append(kinds.length() > 0 ? "," : "").append(KIND_NAMES[i]);
+        }
+      }
+      profile.put(entry.getKey(), kinds.toString());
+    }
+    profile.store(file);
+  }
+
+  /**
+   * Replays the accesses recorded in the given profile on the given config. Missing or invalid values are skipped,
+   * they are reported when accessed later on as usual. Unknown getter kinds are ignored.
+   *
+   * @param cfg the config to be warmed up (a root config, as the profile contains full keys)
+   * @param profile the profile file, see {@link #store(File)}
+   * @return the number of warmed-up keys, 0 if the profile does not exist
+   * @throws CfgException if the profile exists but could not be read
+   */
+  public static int warmup(Cfg cfg, File profile) throws CfgException {
+    if (!profile.isFile()) {
+      return 0;
+    }
+    Cfg recorded = new Cfg(profile);
+    int count = 0;
+    for (String key : recorded.getKeys()) {
+      int kinds = 0;
+      for (String name : recorded.getStringList(key, Collections.<String> emptyList())) {
+        for (int i = 0; i < KIND_NAMES.length; i++) {
+          kinds |= KIND_NAMES[i].equals(name) ? 1 << i : 0;
+        }
+      }
+      if (kinds != 0 && cfg.containsKey(key)) {
+        warmup(cfg, key, kinds);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static void warmup(Cfg cfg, String key, int kinds) {
+    if ((kinds & STRING) != 0) {
+      cfg.tryGetString(key);
+    }
+    if ((kinds & BOOLEAN) != 0) {
+      cfg.tryGetBoolean(key);
+    }
+    if ((kinds & INT) != 0) {
+      cfg.tryGetInt(key);
+    }
+    if ((kinds & LONG) != 0) {
+      cfg.tryGetLong(key);
+    }
+    if ((kinds & BIG_DECIMAL) != 0) {
+      cfg.tryGetBigDecimal(key);
+    }
+    if ((kinds & STRING_LIST) != 0 && cfg.tryGetString(key).isOk()) {
+      cfg.getStringList(key, null);
+    }
+    if ((kinds & DURATION) != 0) {
+      cfg.tryGetDuration(key);
+    }
+    if ((kinds & BYTE_SIZE) != 0) {
+      cfg.tryGetByteSize(key);
+    }
+  }
+}
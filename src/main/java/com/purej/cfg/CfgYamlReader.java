@@ -0,0 +1,536 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming reader for a subset of YAML that flattens nested mappings and sequences into dotted keys - only for
+ * internal usage.
+ * <p/>
+ * Reads one line at a time and passes every scalar to the visitor as soon as it is read, with the path of mapping
+ * keys and sequence indexes as key, like {@link CfgJsonReader}. Supported are the constructs typically used for
+ * configs:
+ * <ul>
+ * <li>Block mappings and sequences by indentation (spaces), including <code>- key: value</code> items and
+ * sequences at the same indentation as their parent key.</li>
+ * <li>Plain, single- and double-quoted scalars on one line, <code>~</code> and <code>null</code> as null value.</li>
+ * <li>Literal (<code>|</code>) and folded (<code>&gt;</code>) block scalars with optional chomping indicator.</li>
+ * <li>Flow sequences and mappings of scalars on one line, eg. <code>[a, b]</code> or <code>{x: 1, y: 2}</code>.</li>
+ * <li>Comments, a leading document start <code>---</code> and the document end <code>...</code>.</li>
+ * </ul>
+ * Anchors, aliases, tags, directives, complex keys, multi-line flow scalars and multiple documents are not supported
+ * and reported as error.
+ *
+ * @author Stefan Mueller
+ */
+final class CfgYamlReader {
+  private final BufferedReader _reader;
+  private final StringBuilder _key = new StringBuilder();
+  private CfgVisitor _visitor;
+  private String _pendingLine;
+  private int _lineNumber;
+  private boolean _content;
+  // The current non-empty line, split into indentation and right-trimmed text (null at the end):
+  private int _indent;
+  private String _text;
+
+  /**
+   * Creates a new instance of this class.
+   *
+   * @param reader the reader to read from
+   */
+  CfgYamlReader(Reader reader) {
+    _reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+  }
+
+  /**
+   * Parses the whole document and passes all flattened key/value pairs to the given visitor.
+   *
+   * @return true if all pairs have been visited, false if the visitor stopped
+   * @throws CfgException if the document is malformed or uses unsupported constructs
+   */
+  boolean parse(CfgVisitor visitor) throws IOException {
+    _visitor = visitor;
+    advance();
+    if (_text == null) {
+      return true;
+    }
+    if (!parseNode(_indent)) {
+      return false;
+    }
+    if (_text != null) {
+      throw error("Unexpected indentation");
+    }
+    return true;
+  }
+
+  private boolean parseNode(int indent) throws IOException {
+    return isSequenceItem(_text) ? parseSequence(indent) : parseMapping(indent);
+  }
+
+  private boolean parseMapping(int indent) throws IOException {
+    while (_text != null && _indent == indent && !isSequenceItem(_text)) {
+      String text = _text;
+      int colon = findMappingColon(text);
+      if (colon < 0) {
+        throw error("Expected 'key: value' but found '" + text + "'");
+      }
+      String key = parseKey(text.substring(0, colon).trim());
+      int length = _key.length();
+      if (length > 0) {
+        _key.append('.');
+      }
+      _key.append(key);
+      if (!parseValue(text.substring(colon + 1).trim(), indent, true)) {
+        return false;
+      }
+      _key.setLength(length);
+    }
+    if (_text != null && _indent > indent) {
+      throw error("Unexpected indentation");
+    }
+    return true;
+  }
+
+  private boolean parseSequence(int indent) throws IOException {
+    for (int index = 0; _text != null && _indent == indent && isSequenceItem(_text); index++) {
+      String text = _text;
+      int offset = 1;
+      while (offset < text.length() && text.charAt(offset) == ' ') {
+        offset++;
+      }
+      String content = text.substring(offset);
+      int length = _key.length();
+      if (length > 0) {
+        _key.append('.');
+      }
+      _key.append(index);
+      boolean result;
+      if (!content.startsWith("#") && (isSequenceItem(content) || findMappingColon(content) >= 0)) {
+        // A nested node starts on the same line, continue as if it started on its own line:
+        _indent = indent + offset;
+        _text = content;
+        result = parseNode(_indent);
+      }
+      else {
+        result = parseValue(content, indent, false);
+      }
+      if (!result) {
+        return false;
+      }
+      _key.setLength(length);
+    }
+    if (_text != null && _indent > indent) {
+      throw error("Unexpected indentation");
+    }
+    return true;
+  }
+
+  /**
+   * Parses the value following a mapping key or sequence indicator on the current line, eventually continued on the
+   * following lines.
+   */
+  private boolean parseValue(String value, int indent, boolean mapping) throws IOException {
+    if (value.isEmpty() || value.charAt(0) == '#') {
+      advance();
+      if (_text != null && (_indent > indent || (mapping && _indent == indent && isSequenceItem(_text)))) {
+        return parseNode(_indent);
+      }
+      return _visitor.visit(_key.toString(), null);
+    }
+    char c = value.charAt(0);
+    if (c == '|' || c == '>') {
+      return _visitor.visit(_key.toString(), readBlockScalar(value, indent));
+    }
+    if (c == '[' || c == '{') {
+      boolean result = parseFlow(value);
+      advance();
+      return result;
+    }
+    String scalar = parseScalar(value);
+    advance();
+    return _visitor.visit(_key.toString(), scalar);
+  }
+
+  /**
+   * Parses a single-line flow sequence or mapping of scalars.
+   */
+  private boolean parseFlow(String value) {
+    char end = value.charAt(0) == '[' ? ']' : '}';
+    int length = _key.length();
+    int pos = 1;
+    int index = 0;
+    while (true) {
+      pos = skipSpaces(value, pos);
+      if (pos < value.length() && value.charAt(pos) == end && index == 0) {
+        pos++;
+        break;
+      }
+      if (pos < value.length() && (value.charAt(pos) == '[' || value.charAt(pos) == '{')) {
+        throw unsupported("Nested flow collections");
+      }
+      int start = pos;
+      pos = skipFlowScalar(value, pos, end);
+      String key;
+      if (end == '}') {
+        if (pos >= value.length() || value.charAt(pos) != ':') {
+          throw error("Expected 'key: value' in flow mapping '" + value + "'");
+        }
+        key = parseKey(value.substring(start, pos).trim());
+        start = pos = skipSpaces(value, pos + 1);
+        pos = skipFlowScalar(value, pos, end);
+      }
+      else {
+        key = String.valueOf(index);
+      }
+      String scalar = value.substring(start, pos).trim();
+      if (length > 0) {
+        _key.append('.');
+      }
+      _key.append(key);
+      if (!_visitor.visit(_key.toString(), scalar.isEmpty() ? null : parseScalar(scalar))) {
+        return false;
+      }
+      _key.setLength(length);
+      index++;
+      if (pos < value.length() && value.charAt(pos) == ',') {
+        pos++;
+        continue;
+      }
+      if (pos < value.length() && value.charAt(pos) == end) {
+        pos++;
+        break;
+      }
+      throw error("Unterminated flow collection '" + value + "'");
+    }
+    pos = skipSpaces(value, pos);
+    if (pos < value.length() && value.charAt(pos) != '#') {
+      throw error("Unexpected '" + value.substring(pos) + "' after flow collection");
+    }
+    return true;
+  }
+
+  /**
+   * Returns the position after the scalar starting at the given position, at the next ',', ':' (in mappings) or end
+   * char outside of quotes.
+   */
+  private int skipFlowScalar(String value, int pos, char end) {
+    if (pos < value.length() && (value.charAt(pos) == '"' || value.charAt(pos) == '\'')) {
+      pos = skipQuoted(value, pos);
+      if (pos < 0) {
+        throw unsupported("Multi-line quoted scalars");
+      }
+      return skipSpaces(value, pos);
+    }
+    while (pos < value.length()) {
+      char c = value.charAt(pos);
+      if (c == ',' || c == end || (end == '}' && c == ':' && (pos + 1 == value.length() || value.charAt(pos + 1) == ' '))) {
+        break;
+      }
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * Reads a literal or folded block scalar with the given header, the current line is the one following the block.
+   */
+  private String readBlockScalar(String header, int indent) throws IOException {
+    boolean folded = header.charAt(0) == '>';
+    char chomping = header.length() > 1 ? header.charAt(1) : ' ';
+    String rest = header.substring(chomping == '-' || chomping == '+' ? 2 : 1).trim();
+    if (!rest.isEmpty() && rest.charAt(0) != '#') {
+      throw unsupported("Block scalar indentation indicators");
+    }
+    StringBuilder builder = new StringBuilder();
+    int blockIndent = -1;
+    int emptyLines = 0;
+    String line;
+    while ((line = readLine()) != null) {
+      int lineIndent = indentation(line);
+      if (lineIndent == line.length()) {
+        emptyLines++;
+        continue;
+      }
+      if (blockIndent < 0) {
+        if (lineIndent <= indent) {
+          break;
+        }
+        blockIndent = lineIndent;
+      }
+      else if (lineIndent < blockIndent) {
+        break;
+      }
+      // Line breaks are kept by literal scalars, folded scalars join adjacent lines with a space:
+      int lineBreaks = builder.length() == 0 || folded ? emptyLines : emptyLines + 1;
+      if (folded && builder.length() > 0 && emptyLines == 0) {
+        builder.append(' ');
+      }
+      for (int i = 0; i < lineBreaks; i++) {
+        builder.append('\n');
+      }
+      builder.append(line, blockIndent, line.length());
+      emptyLines = 0;
+    }
+    if (line != null) {
+      _pendingLine = line;
+      _lineNumber--;
+    }
+    advance();
+    // Clip keeps the final line break, strip ('-') removes it, keep ('+') also keeps trailing empty lines:
+    if (chomping != '-' && builder.length() > 0) {
+      builder.append('\n');
+      for (int i = 0; chomping == '+' && i < emptyLines; i++) {
+        builder.append('\n');
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Parses a scalar (plain or quoted) followed by an optional comment.
+   */
+  private String parseScalar(String value) {
+    char c = value.charAt(0);
+    if (c == '"' || c == '\'') {
+      int end = skipQuoted(value, 0);
+      if (end < 0) {
+        throw unsupported("Multi-line quoted scalars");
+      }
+      int pos = skipSpaces(value, end);
+      if (pos < value.length() && value.charAt(pos) != '#') {
+        throw error("Unexpected '" + value.substring(pos) + "' after quoted scalar");
+      }
+      return unquote(value.substring(0, end));
+    }
+    if (c == '&' || c == '*' || c == '!') {
+      throw unsupported("Anchors, aliases and tags");
+    }
+    if (c == '@' || c == '`' || c == '%') {
+      throw error("Reserved indicator '" + c + "' at start of plain scalar");
+    }
+    int comment = value.indexOf(" #");
+    String plain = comment >= 0 ? value.substring(0, comment).trim() : value;
+    return plain.equals("~") || plain.equals("null") || plain.equals("Null") || plain.equals("NULL") ? null : plain;
+  }
+
+  private String parseKey(String key) {
+    if (key.isEmpty()) {
+      throw error("Empty key");
+    }
+    char c = key.charAt(0);
+    if (c == '"' || c == '\'') {
+      return unquote(key);
+    }
+    if (c == '?' || c == '&' || c == '*' || c == '!') {
+      throw unsupported("Complex keys, anchors, aliases and tags");
+    }
+    return key;
+  }
+
+  /**
+   * Returns the index of the colon that ends the key of a mapping entry on the given text, -1 if it is no mapping
+   * entry.
+   */
+  private static int findMappingColon(String text) {
+    int pos = 0;
+    if (!text.isEmpty() && (text.charAt(0) == '"' || text.charAt(0) == '\'')) {
+      pos = skipQuoted(text, 0);
+      if (pos < 0) {
+        return -1;
+      }
+      pos = skipSpaces(text, pos);
+      return pos < text.length() && text.charAt(pos) == ':' && (pos + 1 == text.length() || text.charAt(pos + 1) == ' ')
+          ? pos : -1;
+    }
+    if (!text.isEmpty() && (text.charAt(0) == '[' || text.charAt(0) == '{')) {
+      return -1;
+    }
+    for (; pos < text.length(); pos++) {
+      char c = text.charAt(pos);
+      if (c == ':' && (pos + 1 == text.length() || text.charAt(pos + 1) == ' ')) {
+        return pos;
+      }
+      if (c == '#' && pos > 0 && text.charAt(pos - 1) == ' ') {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the position after the closing quote of the quoted scalar at the given position, -1 if unterminated.
+   */
+  private static int skipQuoted(String text, int pos) {
+    char quote = text.charAt(pos);
+    for (int i = pos + 1; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\\' && quote == '"') {
+        i++;
+      }
+      else if (c == quote) {
+        if (quote == '\'' && i + 1 < text.length() && text.charAt(i + 1) == '\'') {
+          i++;
+        }
+        else {
+          return i + 1;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private String unquote(String quoted) {
+    char quote = quoted.charAt(0);
+    int end = quoted.length() - 1;
+    StringBuilder builder = new StringBuilder(end);
+    for (int i = 1; i < end; i++) {
+      char c = quoted.charAt(i);
+      if (quote == '\'') {
+        builder.append(c);
+        if (c == '\'') {
+          i++;
+        }
+        continue;
+      }
+      if (c != '\\') {
+        builder.append(c);
+        continue;
+      }
+      c = quoted.charAt(++i);
+      switch (c) {
+        case '0':
+          builder.append('\0');
+          break;
+        case 'a':
+          builder.append('\u0007');
+          break;
+        case 'b':
+          builder.append('\b');
+          break;
+        case 't':
+          builder.append('\t');
+          break;
+        case 'n':
+          builder.append('\n');
+          break;
+        case 'v':
+          builder.append('\u000B');
+          break;
+        case 'f':
+          builder.append('\f');
+          break;
+        case 'r':
+          builder.append('\r');
+          break;
+        case 'e':
+          builder.append('\u001B');
+          break;
+        case ' ':
+        case '"':
+        case '/':
+        case '\\':
+          builder.append(c);
+          break;
+        case 'x':
+        case 'u':
+        case 'U':
+          int digits = c == 'x' ? 2 : c == 'u' ? 4 : 8;
+          if (i + digits >= end) {
+            throw error("Invalid escape sequence in '" + quoted + "'");
+          }
+          try {
+            builder.appendCodePoint(Integer.parseInt(quoted.substring(i + 1, i + 1 + digits), 16));
+          }
+          catch (IllegalArgumentException e) {
+            throw error("Invalid escape sequence in '" + quoted + "'");
+          }
+          i += digits;
+          break;
+        default:
+          throw error("Invalid escape sequence '\\" + c + "'");
+      }
+    }
+    return builder.toString();
+  }
+
+  private static boolean isSequenceItem(String text) {
+    return text.equals("-") || text.startsWith("- ");
+  }
+
+  private static int skipSpaces(String text, int pos) {
+    while (pos < text.length() && text.charAt(pos) == ' ') {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int indentation(String line) {
+    return skipSpaces(line, 0);
+  }
+
+  /**
+   * Moves to the next line with content, skipping empty lines, comments and the document start.
+   */
+  private void advance() throws IOException {
+    String line;
+    while ((line = readLine()) != null) {
+      int indent = indentation(line);
+      int end = line.length();
+      while (end > indent && Character.isWhitespace(line.charAt(end - 1))) {
+        end--;
+      }
+      if (end == indent || line.charAt(indent) == '#') {
+        continue;
+      }
+      if (line.charAt(indent) == '\t') {
+        throw error("Tabs are not allowed for indentation");
+      }
+      String text = line.substring(indent, end);
+      if (indent == 0 && (text.equals("---") || text.startsWith("--- #"))) {
+        if (_content) {
+          throw unsupported("Multiple documents");
+        }
+        continue;
+      }
+      if (indent == 0 && (text.equals("...") || text.startsWith("... #"))) {
+        break;
+      }
+      if (indent == 0 && text.charAt(0) == '%') {
+        throw unsupported("Directives");
+      }
+      _content = true;
+      _indent = indent;
+      _text = text;
+      return;
+    }
+    _text = null;
+  }
+
+  private String readLine() throws IOException {
+    String line = _pendingLine;
+    if (line != null) {
+      _pendingLine = null;
+    }
+    else {
+      line = _reader.readLine();
+      if (line != null && _lineNumber == 0 && !line.isEmpty() && line.charAt(0) == '\uFEFF') {
+        line = line.substring(1);
+      }
+    }
+    if (line != null) {
+      _lineNumber++;
+    }
+    return line;
+  }
+
+  private CfgException error(String message) {
+    return new CfgException("Invalid YAML at line " + _lineNumber + ": " + message + "!");
+  }
+
+  private CfgException unsupported(String construct) {
+    return new CfgException("Unsupported YAML at line " + _lineNumber + ": " + construct + " are not supported!");
+  }
+}
@@ -0,0 +1,162 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgBinderTest {
+
+  /** Interface binding. */
+  public interface ServerCfg {
+    @CfgKey("host")
+    String getHost();
+
+    @CfgKey("port")
+    int getPort();
+
+    @CfgKey(value = "secure", required = false)
+    boolean isSecure();
+
+    @CfgKey(value = "timeout", defaultValue = "5000")
+    long getTimeout();
+
+    @CfgKey(value = "unit", defaultValue = "SECONDS")
+    TimeUnit getUnit();
+
+    @CfgKey(value = "ratio", required = false)
+    BigDecimal getRatio();
+
+    @CfgKey("aliases")
+    List<String> getAliases();
+  }
+
+  /** Constructor binding (like a record). */
+  public static final class ClientCfg {
+    private final String _host;
+    private final Integer _port;
+
+    ClientCfg(@CfgKey("host") String host, @CfgKey(value = "port", required = false) Integer port) {
+      _host = host;
+      _port = port;
+    }
+  }
+
+  /** Field binding. */
+  public static class PoolCfg {
+    @CfgKey("pool.size")
+    int size;
+    @CfgKey(value = "pool.names", defaultValue = "a,b")
+    String[] names;
+    String notBound = "x";
+  }
+
+  /** A throwable that is neither an exception nor an error. */
+  public static final class Failure extends Throwable {
+    private static final long serialVersionUID = 1L;
+  }
+
+  /** Constructor binding that fails. */
+  public static final class FailingCfg {
+    FailingCfg(@CfgKey("host") String host) throws Failure {
+      throw new Failure();
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testBindInterface() throws Exception {
+    Cfg cfg = createCfg();
+    ServerCfg server = cfg.subset("server").bind(ServerCfg.class);
+    Assert.assertEquals("localhost", server.getHost());
+    Assert.assertEquals(8080, server.getPort());
+    Assert.assertEquals(false, server.isSecure());
+    Assert.assertEquals(5000, server.getTimeout());
+    Assert.assertEquals(TimeUnit.SECONDS, server.getUnit());
+    Assert.assertEquals(null, server.getRatio());
+    Assert.assertEquals(Arrays.asList("a1", "a2"), server.getAliases());
+    Assert.assertEquals(true, server.equals(server));
+    Assert.assertEquals(false, server.equals(cfg.subset("server").bind(ServerCfg.class)));
+    System.out.println("Bound: " + server);
+
+    // Values are bound once:
+    cfg.put("server.port", 9090);
+    Assert.assertEquals(8080, server.getPort());
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testBindConstructorAndFields() throws Exception {
+    Cfg cfg = createCfg();
+    ClientCfg client = cfg.subset("server").bind(ClientCfg.class);
+    Assert.assertEquals("localhost", client._host);
+    Assert.assertEquals(Integer.valueOf(8080), client._port);
+    client = cfg.subset("client").bind(ClientCfg.class);
+    Assert.assertEquals("remote", client._host);
+    Assert.assertEquals(null, client._port);
+
+    PoolCfg pool = cfg.bind(PoolCfg.class);
+    Assert.assertEquals(12, pool.size);
+    Assert.assertArrayEquals(new String[] {"a", "b"}, pool.names);
+    Assert.assertEquals("x", pool.notBound);
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testBindErrors() throws Exception {
+    Cfg cfg = new Cfg();
+    cfg.put("port", "x");
+    cfg.put("unit", "DAYZ");
+    try {
+      cfg.bind(ServerCfg.class);
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      System.out.println("Expected exception: " + e.toString());
+      Assert.assertEquals(true, e.getMessage().contains("No value configured for key 'host'!"));
+      Assert.assertEquals(true, e.getMessage().contains("Value 'x' for key 'port' is no valid int!"));
+      Assert.assertEquals(true, e.getMessage().contains("Value 'DAYZ' for key 'unit' is no valid Enum"));
+      Assert.assertEquals(true, e.getMessage().contains("No value configured for key 'aliases'!"));
+    }
+    try {
+      createCfg().subset("client").bind(FailingCfg.class);
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Instance of type '" + FailingCfg.class.getName() + "' could not be created!", e.getMessage());
+      Assert.assertEquals(Failure.class, e.getCause().getClass());
+    }
+    try {
+      cfg.bind(Runnable.class);
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      System.out.println("Expected exception: " + e.toString());
+    }
+  }
+
+  private static Cfg createCfg() {
+    Cfg cfg = new Cfg();
+    cfg.put("server.host", "localhost");
+    cfg.put("server.port", "${server.default.port}");
+    cfg.put("server.default.port", 8080);
+    cfg.put("server.aliases", "a1, a2");
+    cfg.put("client.host", "remote");
+    cfg.put("pool.size", 12);
+    return cfg;
+  }
+}
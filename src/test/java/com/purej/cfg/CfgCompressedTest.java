@@ -0,0 +1,175 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgCompressedTest {
+
+  private static Cfg createLarge(int count) {
+    Map<String, String> map = new HashMap<String, String>();
+    for (int i = 0; i < count; i++) {
+      String prefix = "cluster.node" + (i / 100) + ".service" + (i % 100);
+      map.put(prefix + ".url", "https://service" + (i % 100) + ".node" + (i / 100) + ".example.com:8443/api/v1");
+      map.put(prefix + ".timeout", String.valueOf(1000 + i % 7 * 500));
+    }
+    return new Cfg(map, null);
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testStoreAndLoad() throws Exception {
+    Cfg cfg = new Cfg();
+    cfg.put("a", "1");
+    cfg.put("b.c", "\u00e4\u00f6\u00fc \u20ac ${a}");
+    cfg.put("b.d", (String) null);
+    cfg.put("b.e", "");
+    File file = new File("target/tmp/cfg-compressed.cfz");
+    cfg.storeCompressed(file);
+    Cfg loaded = Cfg.fromCompressed(file);
+    Assert.assertEquals(4, loaded.getKeys().size());
+    Assert.assertEquals("\u00e4\u00f6\u00fc \u20ac 1", loaded.getString("b.c"));
+    Assert.assertEquals(true, loaded.containsKey("b.d"));
+    Assert.assertEquals(null, loaded.getString("b.d", null));
+    Assert.assertEquals(true, loaded.containsKey("b.e"));
+    Assert.assertEquals(cfg.getKeys(), Cfg.fromCompressed(file.getPath()).getKeys());
+
+    // Subset and empty config over streams:
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    cfg.subset("b").storeCompressed(out, 1);
+    Assert.assertEquals("[c, d, e]", new TreeSet<String>(Cfg.fromCompressed(new ByteArrayInputStream(out.toByteArray())).getKeys()).toString());
+    out.reset();
+    new Cfg().storeCompressed(out, 0);
+    Assert.assertEquals(0, Cfg.fromCompressed(new ByteArrayInputStream(out.toByteArray())).getKeys().size());
+
+    // Many blocks, each level:
+    Cfg large = createLarge(20000);
+    for (int level = -1; level <= 9; level++) {
+      out.reset();
+      large.storeCompressed(out, level);
+      Cfg copy = Cfg.fromCompressed(new ByteArrayInputStream(out.toByteArray()));
+      Assert.assertEquals(40000, copy.getKeys().size());
+      Assert.assertEquals(large.getString("cluster.node199.service99.url"), copy.getString("cluster.node199.service99.url"));
+    }
+    Assert.assertTrue(out.size() < 1000000);
+
+    try {
+      cfg.storeCompressed(file, 10);
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Invalid compression level 10, must be between 0 and 9 or -1!", e.getMessage());
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testCorrupt() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    createLarge(20000).storeCompressed(out, Deflater.DEFAULT_COMPRESSION);
+    byte[] bytes = out.toByteArray();
+
+    // Flipped byte within the data of the first block:
+    byte[] corrupt = bytes.clone();
+    corrupt[100] ^= 0x10;
+    assertError(corrupt, "Invalid compressed config, block 0 is corrupt (");
+
+    // Changed checksum of the first block:
+    corrupt = bytes.clone();
+    corrupt[23] ^= 0x01;
+    assertError(corrupt, "Invalid compressed config, block 0 is corrupt (checksum mismatch)!");
+
+    // Truncated, missing end marker, unknown format:
+    byte[] truncated = new byte[bytes.length / 2];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    assertError(truncated, "Invalid compressed config, unexpected end of stream!");
+    truncated = new byte[bytes.length - 4];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    assertError(truncated, "Invalid compressed config, unexpected end of stream!");
+    assertError("a=b\n".getBytes("UTF-8"), "Invalid compressed config, ");
+
+    // Forged block lengths:
+    assertError(forge(10, Integer.MAX_VALUE - 16), "Invalid compressed config, block 0 is corrupt (invalid block header)!");
+    assertError(forge(Integer.MAX_VALUE, 10), "Invalid compressed config, block 0 is corrupt (invalid block header)!");
+    assertError(forge(Integer.MAX_VALUE - 16, Integer.MAX_VALUE - 16), "Invalid compressed config, unexpected end of stream!");
+  }
+
+  private static byte[] forge(int rawLength, int compressedLength) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(CfgCompressed.MAGIC);
+    data.writeInt(CfgCompressed.VERSION);
+    data.writeInt(1);
+    data.writeInt(rawLength);
+    data.writeInt(compressedLength);
+    data.writeInt(0);
+    return out.toByteArray();
+  }
+
+  private static void assertError(byte[] bytes, String messagePrefix) {
+    try {
+      Cfg.fromCompressed(new ByteArrayInputStream(bytes));
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().startsWith(messagePrefix));
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testPerformance() throws Exception {
+    Cfg cfg = createLarge(100000);
+    File plain = new File("target/tmp/cfg-compressed-perf.properties");
+    File compressed = new File("target/tmp/cfg-compressed-perf.cfz");
+    int runs = 5;
+
+    // Plain properties as baseline:
+    cfg.store(plain);
+    new Cfg(plain);
+    long tick = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      new Cfg(plain);
+    }
+    double plainNanos = (System.nanoTime() - tick) / (double) runs;
+    System.out.println("CfgCompressed - Properties: " + plain.length() / 1024 + "KB, time per load: " + plainNanos / 1000 + "micros");
+
+    // Each level, CPU cost of store and load against the saved bytes to read:
+    for (int level : new int[] {1, 6, 9}) {
+      tick = System.nanoTime();
+      cfg.storeCompressed(compressed, level);
+      double storeNanos = System.nanoTime() - tick;
+      Cfg.fromCompressed(compressed);
+      tick = System.nanoTime();
+      for (int i = 0; i < runs; i++) {
+        Assert.assertEquals(200000, Cfg.fromCompressed(compressed).getKeys().size());
+      }
+      double loadNanos = (System.nanoTime() - tick) / (double) runs;
+      long savedBytes = plain.length() - compressed.length();
+      String breakEven = loadNanos <= plainNanos ? "always faster"
+          : "faster below " + (long) (savedBytes / ((loadNanos - plainNanos) / 1e9) / (1024 * 1024)) + "MB/s read throughput";
+      System.out.println("CfgCompressed - Level " + level + ": " + compressed.length() / 1024 + "KB (ratio "
+          + plain.length() / compressed.length() + "), time per store: " + storeNanos / 1000 + "micros, time per load: "
+          + loadNanos / 1000 + "micros, " + breakEven);
+    }
+  }
+}
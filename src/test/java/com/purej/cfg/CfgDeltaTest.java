@@ -0,0 +1,251 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgDeltaTest {
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testDiffAndApply() {
+    Cfg from = Cfg.of("a.k1", "v1", "a.k2", "v2", "b.k3", "v3");
+    from.put("n1", (String) null);
+    Cfg to = Cfg.of("a.k1", "v1", "a.k2", "changed", "c.k4", "v4");
+    to.put("n1", "v");
+    to.put("n2", (String) null);
+
+    CfgDelta delta = CfgDelta.diff(from, to);
+    Assert.assertEquals(4, delta.getPuts().size());
+    Assert.assertEquals("changed", delta.getPuts().get("a.k2"));
+    Assert.assertEquals("v4", delta.getPuts().get("c.k4"));
+    Assert.assertEquals("v", delta.getPuts().get("n1"));
+    Assert.assertEquals(true, delta.getPuts().containsKey("n2"));
+    Assert.assertEquals("[b.k3]", delta.getRemoves().toString());
+    Assert.assertEquals(to.toMap(), delta.apply(from).toMap());
+    Assert.assertEquals(4, from.getKeys().size()); // Unchanged
+    Assert.assertEquals(true, CfgDelta.diff(to, to).isEmpty());
+
+    // Subsets are compared by their relative keys, but deltas are only applied to root configs:
+    Assert.assertEquals("{k2=changed}", CfgDelta.diff(from.subset("a"), to.subset("a")).getPuts().toString());
+    try {
+      delta.apply(from.subset("a"));
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Deltas can only be applied to root level configs (no subsets)!", e.getMessage());
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testVersionsDiff() {
+    Random random = new Random(46);
+    CfgVersions versions = new CfgVersions(10);
+    Map<String, String> expected = new HashMap<String, String>();
+    for (int i = 0; i < 5000; i++) {
+      expected.put("key." + random.nextInt(10000), "v" + i);
+    }
+    versions.putAll(expected);
+
+    for (int round = 0; round < 50; round++) {
+      long fromVersion = versions.getVersion();
+      Cfg fromCfg = versions.getCfg();
+      Map<String, String> changes = new HashMap<String, String>();
+      for (int i = 0; i < 20; i++) {
+        changes.put("key." + random.nextInt(10000), i % 5 == 0 ? null : "r" + round + "-" + i);
+      }
+      versions.putAll(changes);
+      for (int i = 0; i < 10; i++) {
+        versions.remove("key." + random.nextInt(10000));
+      }
+      CfgDelta delta = CfgDelta.diff(versions, fromVersion, versions.getVersion());
+      Assert.assertEquals(CfgDelta.diff(new Cfg(fromCfg.toMap()), new Cfg(versions.getCfg().toMap())).toString(),
+          delta.toString());
+      Assert.assertEquals(delta.toString(), CfgDelta.diff(fromCfg, versions.getCfg()).toString());
+
+      // Apply to a replica as one version:
+      CfgVersions replica = new CfgVersions(fromCfg, 1);
+      Assert.assertEquals(delta.isEmpty() ? 1 : 2, replica.apply(delta));
+      Assert.assertEquals(versions.getCfg().toMap(), replica.getCfg().toMap());
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testEncoding() throws Exception {
+    Cfg from = Cfg.of("app.db.url", "jdbc:x", "app.db.user", "sa", "gone.1", "x", "gone.2", "y");
+    Cfg to = Cfg.of("app.db.url", "jdbc:y", "app.db.user", "sa", "app.db.pwd", "", "app.\u00e4\ud83d\ude00", "\u00fc");
+    to.put("app.db.pool", (String) null);
+    CfgDelta delta = CfgDelta.diff(from, to);
+    byte[] bytes = delta.toBytes();
+    CfgDelta decoded = CfgDelta.fromBytes(bytes);
+    Assert.assertEquals(delta.toString(), decoded.toString());
+    Assert.assertEquals(null, decoded.getPuts().get("app.db.pool"));
+    Assert.assertEquals("", decoded.getPuts().get("app.db.pwd"));
+    Assert.assertEquals(to.toMap(), decoded.apply(from).toMap());
+    Assert.assertEquals(true, CfgDelta.fromBytes(CfgDelta.diff(to, to).toBytes()).isEmpty());
+
+    // Invalid data:
+    try {
+      CfgDelta.fromBytes(new byte[] { 1, 2, 3, 4, 0, 0 });
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Invalid delta, unknown format!", e.getMessage());
+    }
+    byte[] truncated = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    try {
+      CfgDelta.fromBytes(truncated);
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Invalid delta, unexpected end of data!", e.getMessage());
+    }
+
+    // Forged frame lengths are rejected before allocation:
+    for (int length : new int[] {-1, CfgDelta.MAX_FRAME_LENGTH + 1, Integer.MAX_VALUE}) {
+      byte[] frame = new byte[] {(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length};
+      try {
+        CfgDelta.read(new ByteArrayInputStream(frame));
+        Assert.fail();
+      }
+      catch (CfgException e) {
+        Assert.assertEquals("Invalid delta frame length " + length + "!", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testLoopbackReplication() throws Exception {
+    final CfgVersions primary = new CfgVersions(100);
+    final CfgVersions replica = new CfgVersions(1);
+    final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    final AtomicReference<Exception> error = new AtomicReference<Exception>();
+    Thread receiver = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Socket socket = server.accept();
+          try {
+            InputStream in = socket.getInputStream();
+            CfgDelta delta;
+            while ((delta = CfgDelta.read(in)) != null) {
+              replica.apply(delta);
+            }
+          }
+          finally {
+            socket.close();
+          }
+        }
+        catch (Exception e) {
+          error.set(e);
+        }
+      }
+    };
+    receiver.start();
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+    try {
+      OutputStream out = socket.getOutputStream();
+      long sent = primary.getVersion();
+      for (int i = 0; i < 200; i++) {
+        primary.put("service" + (i % 7) + ".timeout", String.valueOf(i));
+        if (i % 3 == 0) {
+          primary.remove("service" + (i % 5) + ".timeout");
+        }
+        if (i % 10 == 9) {
+          CfgDelta.diff(primary, sent, primary.getVersion()).write(out);
+          sent = primary.getVersion();
+        }
+      }
+    }
+    finally {
+      socket.close();
+    }
+    receiver.join(10000);
+    server.close();
+    Assert.assertEquals(null, error.get());
+    Assert.assertEquals(primary.getCfg().toMap(), replica.getCfg().toMap());
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testPerformance() throws Exception {
+    CfgVersions versions = new CfgVersions(3);
+    Map<String, String> map = new HashMap<String, String>();
+    for (int i = 0; i < 100000; i++) {
+      map.put("my.path" + (i % 100) + ".service" + i + ".value", "value-" + i);
+    }
+    versions.putAll(map);
+    long base = versions.getVersion();
+    Cfg baseCfg = versions.getCfg();
+    map.clear();
+    for (int i = 0; i < 100; i++) {
+      map.put("my.path" + (i % 100) + ".service" + (i * 997) + ".value", "changed-" + i);
+    }
+    versions.putAll(map);
+    versions.remove("my.path1.service1.value");
+    Cfg current = versions.getCfg();
+
+    // Bandwidth:
+    ByteArrayOutputStream full = new ByteArrayOutputStream();
+    current.store(full);
+    byte[] deltaBytes = CfgDelta.diff(versions, base, versions.getVersion()).toBytes();
+    System.out.println("CfgDelta - Full state: " + full.size() + " bytes, delta: " + deltaBytes.length + " bytes");
+    Assert.assertTrue(deltaBytes.length * 100 < full.size());
+
+    // Diff and apply time:
+    int runs = 1000;
+    long tick = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      CfgDelta.diff(versions, base, versions.getVersion());
+    }
+    double nanos = System.nanoTime() - tick;
+    System.out.println("CfgDelta - Time per diff (versions): " + (nanos / runs) / 1000 + "micros");
+
+    CfgVersions replica = new CfgVersions(baseCfg, 1);
+    tick = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      replica.apply(CfgDelta.fromBytes(deltaBytes));
+    }
+    nanos = System.nanoTime() - tick;
+    System.out.println("CfgDelta - Time per decode and apply (versions): " + (nanos / runs) / 1000 + "micros");
+    Assert.assertEquals(current.toMap(), replica.getCfg().toMap());
+
+    runs = 10;
+    tick = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      new Cfg(new ByteArrayInputStream(full.toByteArray()));
+    }
+    nanos = System.nanoTime() - tick;
+    System.out.println("CfgDelta - Time per full state load: " + (nanos / runs) / 1000 + "micros");
+  }
+}
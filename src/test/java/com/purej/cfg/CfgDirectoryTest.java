@@ -0,0 +1,201 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgDirectoryTest {
+
+  private static File createDir(String name) {
+    File dir = new File("target/tmp/" + name);
+    delete(dir);
+    dir.mkdirs();
+    return dir;
+  }
+
+  private static void delete(File file) {
+    File[] files = Files.isSymbolicLink(file.toPath()) ? null : file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static void write(File file, String content) throws IOException {
+    Files.write(file.toPath(), content.getBytes("UTF-8"));
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testRefresh() throws Exception {
+    File dir = createDir("cfg-dir");
+    write(new File(dir, "db.url"), "jdbc:x\n");
+    write(new File(dir, "db.user"), "sa");
+    write(new File(dir, "text"), "\u00e4\u00f6\u00fc\r\n");
+    write(new File(dir, ".hidden"), "x");
+    new File(dir, "subdir").mkdir();
+
+    CfgStats stats = CfgStats.getInstance();
+    stats.reset();
+    CfgDirectory directory = CfgDirectory.open(dir);
+    Cfg cfg = directory.getCfg();
+    Assert.assertEquals(3, cfg.getKeys().size());
+    Assert.assertEquals("jdbc:x", cfg.getString("db.url"));
+    Assert.assertEquals("sa", cfg.subset("db").getString("user"));
+    Assert.assertEquals("\u00e4\u00f6\u00fc", cfg.getString("text"));
+    Assert.assertEquals(1, stats.getReloadCount());
+    Assert.assertEquals(3, stats.getLastReloadChangedKeyCount());
+    try {
+      cfg.put("db.url", "x");
+      Assert.fail();
+    }
+    catch (UnsupportedOperationException e) {
+      // Expected...
+    }
+
+    // Unchanged:
+    Assert.assertEquals(false, directory.refresh());
+    Assert.assertSame(cfg, directory.getCfg());
+    Assert.assertEquals(2, stats.getReloadCount());
+    Assert.assertEquals(1, stats.getReloadChangeCount());
+    Assert.assertEquals(0, stats.getLastReloadChangedKeyCount());
+
+    // Changed size, changed modification time with same size, added and removed:
+    write(new File(dir, "db.url"), "jdbc:longer");
+    write(new File(dir, "db.user"), "xy");
+    new File(dir, "db.user").setLastModified(System.currentTimeMillis() + 10000);
+    write(new File(dir, "db.pwd"), "secret");
+    new File(dir, "text").delete();
+    Assert.assertEquals(true, directory.refresh());
+    Assert.assertEquals(4, stats.getLastReloadChangedKeyCount());
+    Cfg changed = directory.getCfg();
+    Assert.assertEquals("jdbc:longer", changed.getString("db.url"));
+    Assert.assertEquals("xy", changed.getString("db.user"));
+    Assert.assertEquals("secret", changed.getString("db.pwd"));
+    Assert.assertEquals(false, changed.containsKey("text"));
+
+    // The previous config is not affected:
+    Assert.assertEquals("jdbc:x", cfg.getString("db.url"));
+    Assert.assertEquals(true, cfg.containsKey("text"));
+    CfgDelta delta = CfgDelta.diff(cfg, changed);
+    Assert.assertEquals("[db.pwd, db.url, db.user]", delta.getPuts().keySet().toString());
+    Assert.assertEquals("[text]", delta.getRemoves().toString());
+
+    try {
+      CfgDirectory.open(new File(dir, "missing"));
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("The config directory '" + new File(dir, "missing") + "' does not exist!", e.getMessage());
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testSymlinkSwap() throws Exception {
+    // Kubernetes layout: key -> ..data/key, ..data -> ..v1 (swapped atomically to ..v2):
+    File dir = createDir("cfg-dir-k8s");
+    Path root = dir.toPath();
+    Files.createDirectory(root.resolve("..v1"));
+    write(root.resolve("..v1").resolve("key").toFile(), "v1");
+    write(root.resolve("..v1").resolve("other").toFile(), "same");
+    Files.createSymbolicLink(root.resolve("..data"), Paths.get("..v1"));
+    Files.createSymbolicLink(root.resolve("key"), Paths.get("..data/key"));
+    Files.createSymbolicLink(root.resolve("other"), Paths.get("..data/other"));
+    CfgDirectory directory = CfgDirectory.open(dir);
+    Assert.assertEquals("v1", directory.getCfg().getString("key"));
+    Assert.assertEquals(2, directory.getCfg().getKeys().size());
+
+    // Same size and modification time, but another link target:
+    Files.createDirectory(root.resolve("..v2"));
+    write(root.resolve("..v2").resolve("key").toFile(), "v2");
+    write(root.resolve("..v2").resolve("other").toFile(), "same");
+    File v1 = root.resolve("..v1").resolve("key").toFile();
+    root.resolve("..v2").resolve("key").toFile().setLastModified(v1.lastModified());
+    root.resolve("..v2").resolve("other").toFile().setLastModified(v1.lastModified());
+    Files.createSymbolicLink(root.resolve("..data_tmp"), Paths.get("..v2"));
+    Files.move(root.resolve("..data_tmp"), root.resolve("..data"), StandardCopyOption.ATOMIC_MOVE);
+    Assert.assertEquals(true, directory.refresh());
+    Assert.assertEquals("v2", directory.getCfg().getString("key"));
+    Assert.assertEquals("same", directory.getCfg().getString("other"));
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testFailedRefresh() throws Exception {
+    File dir = createDir("cfg-dir-failed");
+    for (int i = 0; i < 20; i++) {
+      write(new File(dir, "key" + i), "v1");
+    }
+    CfgDirectory directory = CfgDirectory.open(dir);
+    Cfg cfg = directory.getCfg();
+
+    // Changed and added entries, but a symbolic link loop fails the rescan:
+    for (int i = 0; i < 20; i++) {
+      write(new File(dir, "key" + i), "v2-longer");
+    }
+    write(new File(dir, "added"), "new");
+    Path loop = dir.toPath().resolve("loop");
+    Files.createSymbolicLink(loop, Paths.get("loop"));
+    try {
+      directory.refresh();
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("The config file '" + loop + "' could not be read!", e.getMessage());
+    }
+    Assert.assertSame(cfg, directory.getCfg());
+
+    // The next rescan reads all changes:
+    Files.delete(loop);
+    Assert.assertEquals(true, directory.refresh());
+    Assert.assertEquals(21, directory.getCfg().getKeys().size());
+    Assert.assertEquals("new", directory.getCfg().getString("added"));
+    for (int i = 0; i < 20; i++) {
+      Assert.assertEquals("v2-longer", directory.getCfg().getString("key" + i));
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testPerformance() throws Exception {
+    File dir = createDir("cfg-dir-perf");
+    for (int i = 0; i < 2000; i++) {
+      write(new File(dir, "my.key" + i), "value" + i);
+    }
+    long tick = System.nanoTime();
+    CfgDirectory directory = CfgDirectory.open(dir);
+    double nanos = System.nanoTime() - tick;
+    System.out.println("CfgDirectory - Time for open of 2000 entries: " + nanos / 1000 + "micros");
+
+    int runs = 20;
+    tick = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      Assert.assertEquals(false, directory.refresh());
+    }
+    nanos = System.nanoTime() - tick;
+    System.out.println("CfgDirectory - Time per unchanged rescan of 2000 entries: " + (nanos / runs) / 1000 + "micros");
+    Assert.assertEquals("value1999", directory.getCfg().getString("my.key1999"));
+  }
+}
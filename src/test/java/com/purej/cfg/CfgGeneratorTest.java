@@ -0,0 +1,185 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgGeneratorTest {
+
+  static Cfg template() {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("server.host", "");
+    map.put("server.port", "8080");
+    map.put("server.secure", "false");
+    map.put("server.timeout-millis", "5000000000");
+    map.put("server.ratio", "0.75");
+    map.put("server.name", "my \"server\"");
+    map.put("class", "x");
+    map.put("int.value", "1");
+    return new Cfg(map);
+  }
+
+  /**
+   * Compiles the given source files and returns a class-loader for them, null if no compiler is available.
+   */
+  static ClassLoader compile(File outputDir, File... sources) throws Exception {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      return null;
+    }
+    String classpath = new File(Cfg.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    String[] args = new String[sources.length + 4];
+    args[0] = "-cp";
+    args[1] = classpath;
+    args[2] = "-d";
+    args[3] = outputDir.getPath();
+    for (int i = 0; i < sources.length; i++) {
+      args[i + 4] = sources[i].getPath();
+    }
+    Assert.assertEquals(0, compiler.run(null, null, null, args));
+    return new URLClassLoader(new URL[] {outputDir.toURI().toURL()}, Cfg.class.getClassLoader());
+  }
+
+  static File tempDir() throws Exception {
+    File dir = File.createTempFile("cfg-gen", "");
+    Assert.assertTrue(dir.delete());
+    Assert.assertTrue(dir.mkdirs());
+    return dir;
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testNames() {
+    Assert.assertArrayEquals(new String[] {"serverHost", "myKey_2", "_1stValue"},
+        CfgGenerator.names(new String[] {"server.host", "my-key_2", "1st.value"}));
+    Assert.assertArrayEquals(new String[] {"class_", "int_", "myClass", "true_"},
+        CfgGenerator.names(new String[] {"class", "int", "my.class", "true"}));
+    Assert.assertArrayEquals(new String[] {"Class_"}, CfgGenerator.names(new String[] {"Class"}));
+    try {
+      CfgGenerator.names(new String[] {"aB", "AB"});
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Keys 'aB' and 'AB' map to the same java name 'AB'!", e.getMessage());
+    }
+    try {
+      CfgGenerator.names(new String[] {"a.b", "a-b"});
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Keys 'a.b' and 'a-b' map to the same java name 'aB'!", e.getMessage());
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testGenerateAccessors() throws Exception {
+    String source = CfgGenerator.generateAccessors(template(), "com.example.ServerCfg");
+    Assert.assertTrue(source.contains("package com.example;"));
+    Assert.assertTrue(source.contains("public final class ServerCfg {"));
+    Assert.assertTrue(source.contains("_serverHost = cfg.getString(\"server.host\");"));
+    Assert.assertTrue(source.contains("_serverPort = cfg.getInt(\"server.port\", 8080);"));
+    Assert.assertTrue(source.contains("_serverTimeoutMillis = cfg.getLong(\"server.timeout-millis\", 5000000000L);"));
+    Assert.assertTrue(source.contains("_serverName = cfg.getString(\"server.name\", \"my \\\"server\\\"\");"));
+    Assert.assertTrue(source.contains("public boolean isServerSecure() {"));
+    Assert.assertTrue(source.contains("public java.math.BigDecimal getServerRatio() {"));
+
+    File dir = tempDir();
+    File file = CfgGenerator.generateAccessors(template(), "com.example.ServerCfg", dir);
+    Assert.assertEquals(new File(dir, "com/example/ServerCfg.java"), file);
+    ClassLoader loader = compile(dir, file);
+    if (loader == null) {
+      return; // No compiler in this runtime
+    }
+    Class<?> type = loader.loadClass("com.example.ServerCfg");
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("server.host", "localhost");
+    map.put("server.port", "9090");
+    Object instance = type.getConstructor(Cfg.class).newInstance(new Cfg(map));
+    Assert.assertEquals("localhost", type.getMethod("getServerHost").invoke(instance));
+    Assert.assertEquals(Integer.valueOf(9090), type.getMethod("getServerPort").invoke(instance));
+    Assert.assertEquals(Boolean.FALSE, type.getMethod("isServerSecure").invoke(instance));
+    Assert.assertEquals(Long.valueOf(5000000000L), type.getMethod("getServerTimeoutMillis").invoke(instance));
+    Assert.assertEquals(new BigDecimal("0.75"), type.getMethod("getServerRatio").invoke(instance));
+    Assert.assertEquals("my \"server\"", type.getMethod("getServerName").invoke(instance));
+    Assert.assertEquals("x", type.getMethod("getClass_").invoke(instance));
+    Assert.assertEquals(Integer.valueOf(1), type.getMethod("getIntValue").invoke(instance));
+    try {
+      type.getConstructor(Cfg.class).newInstance(new Cfg());
+      Assert.fail();
+    }
+    catch (java.lang.reflect.InvocationTargetException e) {
+      Assert.assertTrue(e.getCause() instanceof CfgException);
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testGenerateConstants() throws Exception {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("app.home", "/opt/app");
+    map.put("app.log", "${app.home}/log");
+    map.put("app.empty", "");
+    map.put("app.null", null);
+    map.put("app.text", "line1\nline2 \u00e9");
+    for (int i = 0; i < 2500; i++) {
+      map.put("app.key" + i, "value" + i);
+    }
+    String source = CfgGenerator.generateConstants(new Cfg(map), "com.example.Defaults");
+    Assert.assertTrue(source.contains("a[2] = \"app.home\";"));
+    Assert.assertTrue(source.contains("a[3] = \"/opt/app\";"));
+    Assert.assertTrue(source.contains("] = \"/opt/app/log\";"));
+    Assert.assertTrue(source.contains("\"line1\\nline2 \\u00e9\""));
+    Assert.assertTrue(source.contains("private static void init2(String[] a) {"));
+    Assert.assertTrue(source.contains("a[0] = \"app.empty\";") && source.contains("a[1] = \"\";"));
+
+    File dir = tempDir();
+    ClassLoader loader = compile(dir, CfgGenerator.generateConstants(new Cfg(map), "com.example.Defaults", dir));
+    if (loader == null) {
+      return; // No compiler in this runtime
+    }
+    Cfg cfg = (Cfg) loader.loadClass("com.example.Defaults").getMethod("create").invoke(null);
+    Assert.assertEquals(2504, cfg.getKeys().size());
+    Assert.assertEquals(true, cfg.containsKey("app.empty"));
+    Assert.assertEquals("default", cfg.getString("app.empty", "default"));
+    Assert.assertEquals(false, cfg.containsKey("app.null"));
+    Assert.assertEquals("/opt/app/log", cfg.getString("app.log"));
+    Assert.assertEquals("line1\nline2 \u00e9", cfg.getString("app.text"));
+    Assert.assertEquals("value2499", cfg.getString("app.key2499"));
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testOf() {
+    Cfg cfg = Cfg.of("k1", "v1", "k2", "${k1}");
+    Assert.assertEquals("v1", cfg.getString("k2"));
+    try {
+      Cfg.of("k1");
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Key/value arguments must be a multiple of 2 but is 1!", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgLazyTest {
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testLoadOnFirstAccess() throws Exception {
+    File file = new File("target/tmp/lazy.properties");
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), "k1=v1\n".getBytes("ISO-8859-1"));
+    Cfg cfg = Cfg.lazy(file);
+    Cfg sub = Cfg.lazy("target/tmp/lazy.properties").subset("k");
+    Files.write(file.toPath(), "k1=v2\nk.x=y\n".getBytes("ISO-8859-1"));
+
+    // Loaded on access:
+    Assert.assertEquals("v2", cfg.getString("k1"));
+    Assert.assertEquals("y", sub.getString("x"));
+    Files.write(file.toPath(), "k1=v3\n".getBytes("ISO-8859-1"));
+    Assert.assertEquals("v2", cfg.getString("k1"));
+    cfg.put("k2", "v2");
+    Assert.assertEquals(3, cfg.getKeys().size());
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testFailure() throws Exception {
+    Cfg cfg = Cfg.lazy("src/test/resources/xxx");
+    for (int i = 0; i < 2; i++) {
+      try {
+        cfg.getString("k1", null);
+        Assert.fail();
+      }
+      catch (CfgException e) {
+        Assert.assertEquals("The file or resource 'src/test/resources/xxx' does not exist!", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testPrefetchConcurrent() throws Exception {
+    final AtomicInteger loads = new AtomicInteger();
+    CfgStats stats = CfgStats.getInstance();
+    long loadCount = stats.getLoadCount();
+    final Cfg cfg = Cfg.lazy("/test-01.properties");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      cfg.prefetch(executor);
+      final CountDownLatch latch = new CountDownLatch(1);
+      for (int i = 0; i < 8; i++) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              latch.await();
+              if ("value-01".equals(cfg.getString("mykey"))) {
+                loads.incrementAndGet();
+              }
+            }
+            catch (InterruptedException e) {
+              // Ignored...
+            }
+          }
+        });
+      }
+      latch.countDown();
+    }
+    finally {
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    Assert.assertEquals(8, loads.get());
+    Assert.assertEquals(loadCount + 1, stats.getLoadCount());
+  }
+}
@@ -2,6 +2,9 @@
 package com.purej.cfg;
 
 import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.Properties;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -90,6 +93,88 @@ public class CfgLoadStoreTest {
     Assert.assertEquals("xxx  ", cfg.getString("k5"));
   }
 
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testStoreSorted() throws Exception {
+    Cfg cfg = new Cfg();
+    cfg.put("k3", "c");
+    cfg.put("k1", "a");
+    cfg.put("k2", " b=:#!\\ \t\u00e4\u20ac");
+    cfg.put("k 4", (String) null);
+    cfg.put("sub.k5", "${k1}");
+    cfg.store(new File("target/tmp/tmp-sorted.properties"));
+
+    // Read again, also with the plain java properties:
+    String content = readFile(new File("target/tmp/tmp-sorted.properties"));
+    Assert.assertEquals(true, content.indexOf("k1=a") < content.indexOf("k2=") && content.indexOf("k2=") < content.indexOf("k3=c"));
+    Properties properties = new Properties();
+    properties.load(new StringReader(content));
+    Assert.assertEquals(cfg.toMap().size(), properties.size());
+    Assert.assertEquals(" b=:#!\\ \t\u00e4\u20ac", properties.getProperty("k2"));
+    Assert.assertEquals("", properties.getProperty("k 4"));
+    Assert.assertEquals("${k1}", properties.getProperty("sub.k5"));
+
+    // Subsets store resolved values:
+    cfg.subset("sub").store(new File("target/tmp/tmp-sorted.properties"));
+    Assert.assertEquals("a", new Cfg("target/tmp/tmp-sorted.properties").getString("k5"));
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testStoreIncremental() throws Exception {
+    File file = new File("target/tmp/tmp-incremental.properties");
+    String original = "# Header comment\r\n\r\n"
+        + "k1 = v1\r\n"
+        + "  ! Comment for k2\r\n"
+        + "k2 : multi \\\r\n     line\r\n"
+        + "k3=v3\r\n"
+        + "k\\ 4=\\u00e4\r\n"
+        + "# Trailer comment";
+    writeFile(file, original);
+
+    // Unchanged config does not touch the file:
+    Cfg cfg = new Cfg(file);
+    Assert.assertEquals("multi line", cfg.getString("k2"));
+    Assert.assertEquals("\u00e4", cfg.getString("k 4"));
+    file.setLastModified(1000000000000L);
+    cfg.store(file, true);
+    Assert.assertEquals(1000000000000L, file.lastModified());
+    Assert.assertEquals(original, readFile(file));
+
+    // Change, remove and add keys:
+    cfg.put("k1", "v1-new");
+    cfg.remove("k3");
+    cfg.put("k0", "v0");
+    cfg.store(file, true);
+    String expected = "# Header comment\r\n\r\n"
+        + "k1=v1-new\r\n"
+        + "  ! Comment for k2\r\n"
+        + "k2 : multi \\\r\n     line\r\n"
+        + "k\\ 4=\\u00e4\r\n"
+        + "# Trailer comment" + System.getProperty("line.separator")
+        + "k0=v0" + System.getProperty("line.separator");
+    Assert.assertEquals(expected, readFile(file));
+    Assert.assertEquals(cfg.toMap(), new Cfg(file).toMap());
+
+    // Not existing file is written completely:
+    file.delete();
+    cfg.store(file, true);
+    Assert.assertEquals(cfg.toMap(), new Cfg(file).toMap());
+  }
+
+  private static String readFile(File file) throws Exception {
+    return new String(Files.readAllBytes(file.toPath()), "ISO-8859-1");
+  }
+
+  private static void writeFile(File file, String content) throws Exception {
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes("ISO-8859-1"));
+  }
+
   /**
    * Tests the named functionality.
    */
@@ -0,0 +1,269 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgParserTest {
+  private static final String CONTENT = "# Comment\n"
+      + "! Other comment \\\n"
+      + "a.k1=v1\n"
+      + "  a.k2 = v2  \r\n"
+      + "a.k3:v3\r"
+      + "a.k4 v4\n"
+      + "\t\f a.k5\t=\t\n"
+      + "a.k6\n"
+      + "b.k1 = multi \\\n"
+      + "    line \\\\\n"
+      + "b.k2 = multi \\\r\n"
+      + "\n"
+      + "b.k\\ 3 = \\u00e4\\t\\n\\=\\:\\#x\n"
+      + "b\\.k4 = \\\\\n"
+      + "a\\\\k7 =:=\n"
+      + "a.k1=v1-again\n"
+      + "a.k8 = last\\";
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testParseLikeProperties() throws Exception {
+    Properties properties = new Properties();
+    properties.load(stream());
+    final Map<String, String> map = new HashMap<String, String>();
+    Assert.assertEquals(true, CfgParser.parse(stream(), new CfgVisitor() {
+      @Override
+      public boolean visit(String key, String value) {
+        map.put(key, value);
+        return true;
+      }
+    }));
+    Assert.assertEquals(properties, map);
+    Assert.assertEquals(new Cfg(properties).toMap(), new Cfg(stream()).toMap());
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testParsePrefix() throws Exception {
+    final Map<String, String> map = new HashMap<String, String>();
+    CfgParser.parse(stream(), "b.", new CfgVisitor() {
+      @Override
+      public boolean visit(String key, String value) {
+        map.put(key, value);
+        return true;
+      }
+    });
+    Assert.assertEquals(4, map.size());
+    Assert.assertEquals("multi line \\", map.get("b.k1"));
+    Assert.assertEquals("\u00e4\t\n=:#x", map.get("b.k 3"));
+    Assert.assertEquals("\\", map.get("b.k4"));
+
+    // Stop visiting:
+    final int[] count = new int[1];
+    Assert.assertEquals(false, CfgParser.parse(stream(), "a.", new CfgVisitor() {
+      @Override
+      public boolean visit(String key, String value) {
+        count[0]++;
+        return count[0] < 2;
+      }
+    }));
+    Assert.assertEquals(2, count[0]);
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testStream() throws Exception {
+    Map<String, String> map = CfgParser.stream(stream(), "a.k").collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (v1, v2) -> v2));
+    Assert.assertEquals(7, map.size());
+    Assert.assertEquals("v1-again", map.get("a.k1"));
+    Assert.assertEquals("last", map.get("a.k8"));
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testMalformed() throws Exception {
+    try {
+      CfgParser.parse(new ByteArrayInputStream("k=\\u00zz".getBytes("ISO-8859-1")), null, new CfgVisitor() {
+        @Override
+        public boolean visit(String key, String value) {
+          return true;
+        }
+      });
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      System.out.println("Expected exception: " + e.toString());
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testJson() throws Exception {
+    String json = "\uFEFF{\n"
+        + "  \"server\": {\"host\": \"localhost\", \"port\": 8080, \"secure\": false, \"ratio\": -1.5e3,\n"
+        + "    \"hosts\": [{\"name\": \"a\", \"tags\": [\"x\", \"y\"]}, {\"name\": \"b\\u00e4\\n\\\"q\\\"\"}],\n"
+        + "    \"empty\": {}, \"none\": [], \"nothing\": null, \"text\": \"\"},\n"
+        + "  \"matrix\": [[1, 2], [3]]\n"
+        + "}\n";
+    Map<String, String> map = parseJson(json);
+    Assert.assertEquals("{server.host=localhost, server.port=8080, server.secure=false, server.ratio=-1.5e3, "
+        + "server.hosts.0.name=a, server.hosts.0.tags.0=x, server.hosts.0.tags.1=y, server.hosts.1.name=b\u00e4\n\"q\", "
+        + "server.nothing=null, server.text=, matrix.0.0=1, matrix.0.1=2, matrix.1.0=3}", map.toString());
+
+    Cfg cfg = Cfg.fromJson(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    Assert.assertEquals(8080, cfg.getInt("server.port"));
+    Assert.assertEquals(2, cfg.subset("server.hosts").subsets().size());
+    Assert.assertEquals("b\u00e4\n\"q\"", cfg.subset("server.hosts", 1).getString("name"));
+    Assert.assertEquals(true, cfg.containsKey("server.nothing"));
+    Assert.assertEquals("{0=a}", parseJson("[\"a\"]").toString());
+
+    // The visitor can stop:
+    final int[] count = new int[1];
+    Assert.assertEquals(false, CfgParser.parseJson(new StringReader(json), new CfgVisitor() {
+      @Override
+      public boolean visit(String key, String value) {
+        return ++count[0] < 3;
+      }
+    }));
+    Assert.assertEquals(3, count[0]);
+
+    // Malformed documents:
+    assertJsonError("", "Invalid JSON at line 1: Expected an object or array as root value but found end of stream!");
+    assertJsonError("\"x\"", "Invalid JSON at line 1: Expected an object or array as root value but found '\"'!");
+    assertJsonError("{\"a\": 1,\n}", "Invalid JSON at line 2: Expected a member name but found '}'!");
+    assertJsonError("{\"a\" 1}", "Invalid JSON at line 1: Expected ':' but found '1'!");
+    assertJsonError("{\"a\": 01}", "Invalid JSON at line 1: Invalid value '01'!");
+    assertJsonError("{\"a\": tru}", "Invalid JSON at line 1: Invalid value 'tru'!");
+    assertJsonError("{\"a\": \"x}", "Invalid JSON at line 1: Unterminated string!");
+    assertJsonError("{\"a\": \"\\q\"}", "Invalid JSON at line 1: Invalid escape sequence '\\q'!");
+    assertJsonError("[1, 2", "Invalid JSON at line 1: Expected ',' or ']' but found end of stream!");
+    assertJsonError("{} {}", "Invalid JSON at line 1: Unexpected '{' after the root value!");
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testYaml() throws Exception {
+    String yaml = "# Server config\n"
+        + "---\n"
+        + "server:\n"
+        + "  host: localhost   # comment\n"
+        + "  port: 8080\n"
+        + "  url: http://localhost:8080/x#y\n"
+        + "  'quoted key': \"b\\u00e4\\t\\\"q\\\"\"\n"
+        + "  single: 'it''s'\n"
+        + "  hosts:\n"
+        + "  - name: a\n"
+        + "    tags: [x, 'y, z']\n"
+        + "  -   name: b\n"
+        + "  - plain\n"
+        + "  -\n"
+        + "    - nested\n"
+        + "  limits: {cpu: 2, memory: \"1 GB\"}\n"
+        + "  none: ~\n"
+        + "  nothing:\n"
+        + "  empty: []\n"
+        + "\n"
+        + "script: |\n"
+        + "  line 1\n"
+        + "\n"
+        + "    indented\n"
+        + "  line 3\n"
+        + "\n"
+        + "folded: >-\n"
+        + "  a\n"
+        + "  b\n"
+        + "\n"
+        + "  c\n"
+        + "last: end\n"
+        + "...\n"
+        + "ignored: x\n";
+    Map<String, String> map = new LinkedHashMap<String, String>();
+    Assert.assertEquals(true, CfgParser.parseYaml(new StringReader(yaml), visitor(map)));
+    Assert.assertEquals("{server.host=localhost, server.port=8080, server.url=http://localhost:8080/x#y, "
+        + "server.quoted key=b\u00e4\t\"q\", server.single=it's, server.hosts.0.name=a, server.hosts.0.tags.0=x, "
+        + "server.hosts.0.tags.1=y, z, server.hosts.1.name=b, server.hosts.2=plain, server.hosts.3.0=nested, "
+        + "server.limits.cpu=2, server.limits.memory=1 GB, server.none=null, server.nothing=null, "
+        + "script=line 1\n\n  indented\nline 3\n, folded=a b\nc, last=end}", map.toString());
+
+    Cfg cfg = Cfg.fromYaml(new ByteArrayInputStream(yaml.getBytes("UTF-8")));
+    Assert.assertEquals(8080, cfg.getInt("server.port"));
+    Assert.assertEquals("[0, 1, 2, 3]", cfg.subset("server.hosts").childNames().toString());
+
+    // Root sequence and keep chomping:
+    map.clear();
+    CfgParser.parseYaml(new StringReader("- a\n- b: |+\n    x\n\n- c\n"), visitor(map));
+    Assert.assertEquals("{0=a, 1.b=x\n\n, 2=c}", map.toString());
+
+    // Malformed and unsupported documents:
+    assertYamlError("a: 1\n  b: 2\n", "Invalid YAML at line 2: Unexpected indentation!");
+    assertYamlError("a: 1\njust text\n", "Invalid YAML at line 2: Expected 'key: value' but found 'just text'!");
+    assertYamlError("a: &anchor 1\n", "Unsupported YAML at line 1: Anchors, aliases and tags are not supported!");
+    assertYamlError("a: 1\n---\nb: 2\n", "Unsupported YAML at line 2: Multiple documents are not supported!");
+    assertYamlError("a: [[1]]\n", "Unsupported YAML at line 1: Nested flow collections are not supported!");
+    assertYamlError("a: \"x\n", "Unsupported YAML at line 1: Multi-line quoted scalars are not supported!");
+    assertYamlError("a:\n\t- x\n", "Invalid YAML at line 2: Tabs are not allowed for indentation!");
+  }
+
+  private static Map<String, String> parseJson(String json) {
+    Map<String, String> map = new LinkedHashMap<String, String>();
+    Assert.assertEquals(true, CfgParser.parseJson(new StringReader(json), visitor(map)));
+    return map;
+  }
+
+  private static CfgVisitor visitor(final Map<String, String> map) {
+    return new CfgVisitor() {
+      @Override
+      public boolean visit(String key, String value) {
+        map.put(key, value);
+        return true;
+      }
+    };
+  }
+
+  private static void assertJsonError(String json, String message) {
+    try {
+      parseJson(json);
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals(message, e.getMessage());
+    }
+  }
+
+  private static void assertYamlError(String yaml, String message) {
+    try {
+      CfgParser.parseYaml(new StringReader(yaml), visitor(new HashMap<String, String>()));
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals(message, e.getMessage());
+    }
+  }
+
+  private static InputStream stream() throws Exception {
+    return new ByteArrayInputStream(CONTENT.getBytes("ISO-8859-1"));
+  }
+}
@@ -0,0 +1,167 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgPublisherTest {
+
+  /** Subscriber that queues all signals. */
+  static final class QueueSubscriber implements CfgPublisher.Subscriber {
+    final BlockingQueue<Object> signals = new LinkedBlockingQueue<Object>();
+    final CountDownLatch subscribed = new CountDownLatch(1);
+    volatile CountDownLatch blocker;
+    volatile CfgPublisher.Subscription subscription;
+
+    @Override
+    public void onSubscribe(CfgPublisher.Subscription s) {
+      subscription = s;
+      subscribed.countDown();
+    }
+
+    @Override
+    public void onNext(Map<String, String> changes) {
+      signals.add(new HashMap<String, String>(changes));
+      CountDownLatch latch = blocker;
+      if (latch != null) {
+        try {
+          latch.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      signals.add(error);
+    }
+
+    @Override
+    public void onComplete() {
+      signals.add("complete");
+    }
+
+    Object next() throws InterruptedException {
+      Object signal = signals.poll(5, TimeUnit.SECONDS);
+      Assert.assertNotNull(signal);
+      return signal;
+    }
+  }
+
+  private static Map<String, String> map(String... keyValues) {
+    Map<String, String> map = new HashMap<String, String>();
+    for (int i = 0; i < keyValues.length; i += 2) {
+      map.put(keyValues[i], keyValues[i + 1]);
+    }
+    return map;
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testDemandAndCoalescing() throws Exception {
+    Cfg cfg = new Cfg();
+    QueueSubscriber subscriber = new QueueSubscriber();
+    cfg.changes().subscribe(subscriber);
+    Assert.assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+
+    // No demand yet - changes are buffered and coalesced:
+    cfg.put("k1", "a");
+    cfg.put("k1", "b");
+    cfg.subset("sub").put("k2", "c");
+    cfg.remove("k3");
+    Assert.assertEquals(null, subscriber.signals.poll(100, TimeUnit.MILLISECONDS));
+    subscriber.subscription.request(1);
+    Assert.assertEquals(map("k1", "b", "sub.k2", "c", "k3", null), subscriber.next());
+
+    // Merge is published as one batch:
+    Cfg other = new Cfg(map("k4", "d", "k5", "e"));
+    cfg.merge(other);
+    subscriber.subscription.request(1);
+    Assert.assertEquals(map("k4", "d", "k5", "e"), subscriber.next());
+
+    // Cancel:
+    subscriber.subscription.cancel();
+    Assert.assertEquals(0, cfg.changes().getSubscriberCount());
+    cfg.put("k1", "x");
+    Assert.assertEquals(null, subscriber.signals.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testSlowSubscriber() throws Exception {
+    Cfg cfg = new Cfg();
+    QueueSubscriber subscriber = new QueueSubscriber();
+    subscriber.blocker = new CountDownLatch(1);
+    cfg.changes().subscribe(subscriber);
+    Assert.assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+    subscriber.subscription.request(Long.MAX_VALUE);
+
+    cfg.put("k0", "v");
+    Assert.assertEquals(map("k0", "v"), subscriber.next());
+    // The subscriber is blocked now, writers are not:
+    for (int i = 0; i < 10000; i++) {
+      cfg.put("k" + (i % 10), "v" + i);
+    }
+    subscriber.blocker.countDown();
+    Map<String, String> expected = new HashMap<String, String>();
+    for (int i = 9990; i < 10000; i++) {
+      expected.put("k" + (i % 10), "v" + i);
+    }
+    Assert.assertEquals(expected, subscriber.next());
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testErrorAndComplete() throws Exception {
+    Cfg cfg = new Cfg();
+    QueueSubscriber subscriber = new QueueSubscriber();
+    cfg.changes().subscribe(subscriber);
+    Assert.assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+    subscriber.subscription.request(0);
+    Assert.assertTrue(subscriber.next() instanceof IllegalArgumentException);
+    Assert.assertEquals(0, cfg.changes().getSubscriberCount());
+
+    QueueSubscriber completed = new QueueSubscriber();
+    cfg.changes().subscribe(completed);
+    Assert.assertTrue(completed.subscribed.await(5, TimeUnit.SECONDS));
+    completed.subscription.request(2);
+    cfg.put("k1", "v1");
+    Assert.assertEquals(map("k1", "v1"), completed.next());
+
+    // Completion does not wait on demand, unrequested changes are dropped:
+    QueueSubscriber buffered = new QueueSubscriber();
+    cfg.changes().subscribe(buffered);
+    Assert.assertTrue(buffered.subscribed.await(5, TimeUnit.SECONDS));
+    cfg.put("k2", "v2");
+    Assert.assertEquals(map("k2", "v2"), completed.next());
+    cfg.changes().close();
+    Assert.assertEquals("complete", completed.next());
+    Assert.assertEquals("complete", buffered.next());
+    buffered.subscription.request(1);
+    Assert.assertEquals(null, buffered.signals.poll(100, TimeUnit.MILLISECONDS));
+
+    // Subscribing to a closed publisher completes immediately:
+    QueueSubscriber late = new QueueSubscriber();
+    cfg.changes().subscribe(late);
+    Assert.assertEquals("complete", late.next());
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgSchemaTest {
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testValidate() throws Exception {
+    CfgSchema schema = createSchema();
+    Cfg cfg = new Cfg();
+    cfg.put("server.port", 8080);
+    cfg.put("server.timeunit", TimeUnit.SECONDS);
+    cfg.put("server.name", "my-server-1");
+    cfg.put("server.secure", "TRUE");
+    cfg.put("timeouts.connect", 1000L);
+    cfg.put("timeouts.read", "${timeouts.connect}");
+    cfg.put("unknown.key", "any value");
+    Assert.assertEquals(0, schema.validate(cfg).size());
+    schema.check(cfg);
+    CfgSchema subsetSchema = new CfgSchema();
+    subsetSchema.key("connect", CfgSchema.Type.LONG).required().range(0, 1000);
+    subsetSchema.check(cfg.subset("timeouts"));
+
+    // Collects all errors:
+    cfg.put("server.port", 0);
+    cfg.put("server.timeunit", "SECONDZ");
+    cfg.put("server.name", "My Server");
+    cfg.put("server.secure", "yes");
+    cfg.put("timeouts.connect", "x");
+    cfg.put("timeouts.write", 60001);
+    cfg.put("timeouts.socket", "${missing}");
+    cfg.put("ratio", "1.5");
+    List<String> errors = schema.validate(cfg);
+    System.out.println("Expected errors: " + errors);
+    Assert.assertEquals(9, errors.size());
+    Assert.assertEquals("Value '1.5' for key 'ratio' is bigger then allowed max-value '1'!", errors.get(0));
+    Assert.assertEquals("Value '0' for key 'server.port' is smaller then allowed min-value '1'!", errors.get(2));
+    Assert.assertEquals("The substitution key 'missing' does not exist!", errors.get(7));
+
+    // Missing required keys:
+    errors = schema.validate(new Cfg());
+    Assert.assertEquals(2, errors.size());
+    Assert.assertEquals("No value configured for key 'server.port'!", errors.get(0));
+    Assert.assertEquals("No value configured for any key with prefix 'timeouts.'!", errors.get(1));
+    try {
+      schema.check(new Cfg());
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      System.out.println("Expected exception: " + e.toString());
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testValidateParallel() throws Exception {
+    CfgSchema schema = new CfgSchema();
+    schema.prefix("server.", CfgSchema.Type.INT).range(0, 1000);
+    Cfg cfg = new Cfg();
+    int count = CfgSchema.PARALLEL_THRESHOLD * 2;
+    for (int i = 0; i < count; i++) {
+      cfg.put("server." + i, i % 1000 == 0 ? "x" : "1");
+    }
+    List<String> errors = schema.validate(cfg);
+    Assert.assertEquals(count / 1000, errors.size());
+    Assert.assertEquals("Value 'x' for key 'server.0' is no valid int!", errors.get(0));
+    Assert.assertEquals("Value 'x' for key 'server.1000' is no valid int!", errors.get(1));
+  }
+
+  private static CfgSchema createSchema() {
+    CfgSchema schema = new CfgSchema();
+    schema.key("server.port", CfgSchema.Type.INT).required().range(1, 65535);
+    schema.key("server.timeunit", CfgSchema.Type.STRING).values(TimeUnit.class);
+    schema.key("server.name", CfgSchema.Type.STRING).pattern("[a-z0-9-]+");
+    schema.key("server.secure", CfgSchema.Type.BOOLEAN);
+    schema.key("ratio", CfgSchema.Type.BIG_DECIMAL).range(BigDecimal.ZERO, BigDecimal.ONE);
+    schema.prefix("timeouts.", CfgSchema.Type.LONG).required().range(0, 60000);
+    return schema;
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgSharedTest {
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testPublishAndRefresh() throws Exception {
+    File file = new File("target/tmp/shared.bin");
+    file.delete();
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("k1", "v1");
+    map.put("k2", "${k1}-x");
+    map.put("k3", "");
+    map.put("k4", "${missing}");
+    map.put("k\u00e4", "\u00e4\u00f6\u00fc");
+    for (int i = 0; i < 1000; i++) {
+      map.put("key" + i, "value" + i);
+    }
+    Assert.assertEquals(1, CfgShared.publish(new Cfg(map), file));
+
+    CfgShared shared = CfgShared.open(file);
+    Cfg cfg = shared.getCfg();
+    Assert.assertEquals(1, shared.getGeneration());
+    Assert.assertEquals("v1", cfg.getString("k1"));
+    Assert.assertEquals("v1-x", cfg.getString("k2"));
+    Assert.assertEquals(null, cfg.getString("k3", null));
+    Assert.assertEquals("\u00e4\u00f6\u00fc", cfg.getString("k\u00e4"));
+    Assert.assertEquals("value999", cfg.getString("key999"));
+    Assert.assertEquals(null, cfg.getString("missing", null));
+    Assert.assertEquals(false, cfg.containsKey("kx"));
+    Assert.assertEquals(1005, cfg.getKeys().size());
+    Assert.assertEquals(map.keySet(), cfg.getKeys());
+    try {
+      cfg.getString("k4");
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("The substitution key 'missing' does not exist!", e.getMessage());
+    }
+    try {
+      cfg.put("k1", "v2");
+      Assert.fail();
+    }
+    catch (UnsupportedOperationException e) {
+      // Expected...
+    }
+
+    // Unchanged generation:
+    Assert.assertEquals(false, shared.refresh());
+    Assert.assertEquals(0, CfgStats.getInstance().getLastReloadChangedKeyCount());
+
+    // Republish with a new generation:
+    map.put("k1", "v2");
+    map.remove("key999");
+    Assert.assertEquals(2, CfgShared.publish(new Cfg(map), file));
+    Assert.assertEquals("v1", cfg.getString("k1"));
+    Assert.assertEquals(true, shared.refresh());
+    Assert.assertEquals(-1, CfgStats.getInstance().getLastReloadChangedKeyCount());
+    Assert.assertEquals(2, shared.getGeneration());
+    Assert.assertEquals("v2", cfg.getString("k1"));
+    Assert.assertEquals("v2-x", cfg.getString("k2"));
+    Assert.assertEquals(false, cfg.containsKey("key999"));
+    Assert.assertEquals(2, CfgShared.open(file).getGeneration());
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testOpenInvalid() throws Exception {
+    try {
+      CfgShared.open(new File("target/tmp/not-existing.bin"));
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("The shared config file 'target/tmp/not-existing.bin' does not exist!".replace('/', File.separatorChar), e.getMessage());
+    }
+    File file = new File("target/tmp/not-shared.properties");
+    new Cfg().store(file);
+    try {
+      CfgShared.open(file);
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertTrue(e.getMessage().endsWith("is not a shared config!"));
+    }
+  }
+}
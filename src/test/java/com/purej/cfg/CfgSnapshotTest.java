@@ -0,0 +1,126 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgSnapshotTest {
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testLoad() throws Exception {
+    File source = new File("target/tmp/snapshot.properties");
+    File snapshot = new File("target/tmp/snapshot.properties.bin");
+    snapshot.delete();
+    write(source, "k1=v1\nk2=${k1}-x\nk3=\nk4=${missing}\nk5=\u00e4\u00f6\u00fc\n");
+
+    // First load parses the source and writes the snapshot:
+    Cfg cfg = CfgSnapshot.load(source, snapshot);
+    Assert.assertEquals(true, snapshot.exists());
+    Assert.assertEquals("${k1}-x", cfg.toMap().get("k2"));
+    doTestValues(cfg);
+
+    // Second load reads the snapshot with the same raw values:
+    cfg = CfgSnapshot.load(source, snapshot, true);
+    Assert.assertEquals("${k1}-x", cfg.toMap().get("k2"));
+    doTestValues(cfg);
+
+    // Substitution follows changes of referenced keys and stored values keep their references:
+    cfg.put("k1", "v1-put");
+    Assert.assertEquals("v1-put-x", cfg.getString("k2"));
+    File stored = new File("target/tmp/snapshot-stored.properties");
+    cfg.store(stored);
+    Assert.assertEquals("${k1}-x", new Cfg(stored).toMap().get("k2"));
+
+    // The snapshot is not held open and can be replaced right after a load:
+    Assert.assertEquals(true, snapshot.delete());
+    CfgSnapshot.store(new Cfg(source), source, snapshot);
+    Assert.assertEquals(true, snapshot.exists());
+
+    // Changed source invalidates the snapshot:
+    write(source, "k1=v1-changed\nk2=${k1}-x\n");
+    cfg = CfgSnapshot.load(source, snapshot);
+    Assert.assertEquals("${k1}-x", cfg.toMap().get("k2"));
+    Assert.assertEquals("v1-changed-x", cfg.getString("k2"));
+    cfg = CfgSnapshot.load(source, snapshot);
+    Assert.assertEquals("${k1}-x", cfg.toMap().get("k2"));
+    Assert.assertEquals("v1-changed-x", cfg.getString("k2"));
+    Assert.assertEquals(2, cfg.getKeys().size());
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testChecksum() throws Exception {
+    File source = new File("target/tmp/snapshot-checksum.properties");
+    File snapshot = new File("target/tmp/snapshot-checksum.properties.bin");
+    snapshot.delete();
+    write(source, "k1=v1\n");
+    long modified = source.lastModified();
+
+    // Snapshot without checksum is not valid for a load that verifies it, that one stores the checksum:
+    CfgSnapshot.store(new Cfg(source), source, snapshot);
+    Assert.assertEquals(CfgBinary.NO_CHECKSUM, CfgBinary.readHeader(snapshot).sourceChecksum);
+    Assert.assertEquals("v1", CfgSnapshot.load(source, snapshot, true).getString("k1"));
+    Assert.assertEquals(CfgFiles.checksum(source), CfgBinary.readHeader(snapshot).sourceChecksum);
+
+    // Same size and modification time, only the checksum detects the change:
+    write(source, "k1=v2\n");
+    source.setLastModified(modified);
+    Assert.assertEquals("v1", CfgSnapshot.load(source, snapshot).getString("k1"));
+    Assert.assertEquals("v2", CfgSnapshot.load(source, snapshot, true).getString("k1"));
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testCorruptSnapshot() throws Exception {
+    File source = new File("target/tmp/snapshot-corrupt.properties");
+    File snapshot = new File("target/tmp/snapshot-corrupt.properties.bin");
+    write(source, "k1=v1\n");
+    write(snapshot, "no snapshot");
+    Assert.assertEquals("v1", CfgSnapshot.load(source, snapshot).getString("k1"));
+    Assert.assertEquals("v1", CfgSnapshot.load(source, snapshot).getString("k1"));
+  }
+
+  private static void doTestValues(Cfg cfg) {
+    Assert.assertEquals(5, cfg.getKeys().size());
+    Assert.assertEquals("v1", cfg.getString("k1"));
+    Assert.assertEquals("v1-x", cfg.getString("k2"));
+    Assert.assertEquals(true, cfg.containsKey("k3"));
+    Assert.assertEquals(null, cfg.getString("k3", null));
+    Assert.assertEquals("\u00e4\u00f6\u00fc", cfg.getString("k5"));
+    try {
+      cfg.getString("k4");
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      System.out.println("Expected exception for missing subst: " + e.toString());
+    }
+  }
+
+  private static void write(File file, String content) throws Exception {
+    file.getParentFile().mkdirs();
+    OutputStream stream = new FileOutputStream(file);
+    try {
+      stream.write(content.getBytes("ISO-8859-1"));
+    }
+    finally {
+      stream.close();
+    }
+    // Make sure the modification is detected even on coarse file-time granularity:
+    file.setLastModified(System.currentTimeMillis() - 1000 + content.length());
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgStatsTest {
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testLoadAndResolve() throws Exception {
+    CfgStats stats = CfgStats.getInstance();
+    stats.reset();
+    Cfg cfg = new Cfg(new File("src/test/resources/perf-test.properties"));
+    Assert.assertEquals(1, stats.getLoadCount());
+    Assert.assertEquals(cfg.getKeys().size(), stats.getLastLoadKeyCount());
+
+    // Lookups are not counted by default:
+    cfg.put("my.key.1", "Value1");
+    cfg.put("my.key.2", "${my.key.1}");
+    Assert.assertEquals(false, stats.isEnabled());
+    cfg.getString("my.key.2");
+    Assert.assertEquals(0, stats.getResolveCount());
+
+    // Lookups without substitution are not counted:
+    stats.setEnabled(true);
+    try {
+      cfg.getString("my.key.1");
+      Assert.assertEquals(0, stats.getResolveCount());
+      cfg.getString("my.key.2");
+      Assert.assertEquals(1, stats.getResolveCount());
+      Assert.assertEquals(true, cfg.tryGetString("my.key.2").isOk());
+      Assert.assertEquals(2, stats.getResolveCount());
+
+      // Every substitution is slow with a zero threshold:
+      long threshold = stats.getSlowResolveThresholdMicros();
+      try {
+        stats.setSlowResolveThresholdMicros(-1);
+        cfg.getString("my.key.2");
+        Assert.assertEquals(1, stats.getSlowResolveCount());
+      }
+      finally {
+        stats.setSlowResolveThresholdMicros(threshold);
+      }
+    }
+    finally {
+      stats.setEnabled(false);
+    }
+    System.out.println("Stats: " + stats);
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testRegister() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(CfgStats.OBJECT_NAME);
+    CfgStats.register();
+    CfgStats.register();
+    Assert.assertEquals(true, server.isRegistered(name));
+    Assert.assertNotNull(server.getAttribute(name, "LoadCount"));
+    CfgStats.unregister();
+    Assert.assertEquals(false, server.isRegistered(name));
+  }
+}
@@ -1,10 +1,22 @@
 // Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
 package com.purej.cfg;
 
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -292,6 +304,483 @@ public class CfgTest {
     }
   }
 
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testStringListCache() throws Exception {
+    // Same semantics as the regex-split:
+    Cfg cfg = new Cfg();
+    String[] values = {" ", "a", "a,b", " a ; b : c ", ",a", "a,", "a,,", ",", ",,,", "a,,b", " , ", ";:", "a b,c d"};
+    for (String value : values) {
+      cfg.put("k", value);
+      String[] split = value.split("[,;:]");
+      for (int i = 0; i < split.length; i++) {
+        split[i] = split[i].trim();
+      }
+      Assert.assertArrayEquals(split, cfg.getStringArray("k"));
+      Assert.assertEquals(Arrays.asList(split), cfg.getStringList("k"));
+    }
+
+    // Cached instance is returned as long as the value does not change:
+    cfg.put("my.list", "x, y, z");
+    List<String> list = cfg.getStringList("my.list");
+    Assert.assertSame(list, cfg.getStringList("my.list"));
+    Assert.assertSame(list, cfg.subset("my").getStringList("list"));
+    Assert.assertNotSame(cfg.getStringArray("my.list"), cfg.getStringArray("my.list"));
+    try {
+      list.add("a");
+      Assert.fail();
+    }
+    catch (UnsupportedOperationException e) {
+      // Expected...
+    }
+    cfg.subset("my").put("list", "x");
+    Assert.assertEquals(Arrays.asList("x"), cfg.getStringList("my.list"));
+    cfg.remove("my.list");
+    Assert.assertEquals(null, cfg.getStringList("my.list", null));
+
+    // Changed substitution:
+    cfg.put("my.hosts", "${my.host1}, b");
+    cfg.put("my.host1", "a");
+    Assert.assertEquals(Arrays.asList("a", "b"), cfg.getStringList("my.hosts"));
+    cfg.put("my.host1", "c");
+    Assert.assertEquals(Arrays.asList("c", "b"), cfg.getStringList("my.hosts"));
+
+    // For each element:
+    final StringBuilder builder = new StringBuilder();
+    Consumer<String> consumer = new Consumer<String>() {
+      @Override
+      public void accept(String element) {
+        builder.append(element);
+      }
+    };
+    cfg.forEachElement("my.hosts", consumer);
+    cfg.forEachElement("my.missing", consumer);
+    Assert.assertEquals("cb", builder.toString());
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testTryGet() throws Exception {
+    Cfg cfg = new Cfg();
+    cfg.put("my.int", 1234);
+    cfg.put("my.long", Long.MIN_VALUE);
+    cfg.put("my.decimal", "-1.5E-3");
+    cfg.put("my.enum", TimeUnit.HOURS);
+    cfg.put("my.string", "${my.int}x");
+    cfg.put("my.empty", "");
+    cfg.put("my.missing.subst", "${missing}");
+    cfg.put("my.circular", "${my.circular}");
+    Cfg sub = cfg.subset("my");
+
+    // Valid values:
+    Assert.assertEquals(Integer.valueOf(1234), sub.tryGetInt("int").getValue());
+    Assert.assertEquals(Long.valueOf(Long.MIN_VALUE), sub.tryGetLong("long").getValue());
+    Assert.assertEquals(new BigDecimal("-1.5E-3"), sub.tryGetBigDecimal("decimal").getValue());
+    Assert.assertEquals(TimeUnit.HOURS, sub.tryGetEnum("enum", TimeUnit.class).getValue());
+    Assert.assertEquals("1234x", sub.tryGetString("string").getValue());
+    Assert.assertEquals(Boolean.FALSE, sub.tryGetBoolean("string").getValue());
+    Assert.assertEquals(CfgResult.Status.OK, sub.tryGetString("string").getStatus());
+    Assert.assertEquals(null, sub.tryGetString("string").getMessage());
+
+    // Missing and invalid values, with the same messages as the getters:
+    assertResult(CfgResult.Status.MISSING, sub.tryGetInt("empty"), "No value configured for key 'empty' in subset 'my.'!");
+    try {
+      sub.getInt("empty");
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals(sub.tryGetInt("empty").getMessage(), e.getMessage());
+    }
+    assertResult(CfgResult.Status.MISSING, cfg.tryGetString("xy"), "No value configured for key 'xy'!");
+    assertResult(CfgResult.Status.INVALID, sub.tryGetInt("long"), "Value '" + Long.MIN_VALUE + "' for key 'long' is no valid int!");
+    assertResult(CfgResult.Status.INVALID, sub.tryGetLong("decimal"), "Value '-1.5E-3' for key 'decimal' is no valid long!");
+    assertResult(CfgResult.Status.INVALID, sub.tryGetBigDecimal("enum"), "Value 'HOURS' for key 'enum' is no valid BigDecimal!");
+    assertResult(CfgResult.Status.INVALID, sub.tryGetEnum("int", TimeUnit.class),
+        "Value '1234' for key 'int' is no valid Enum for 'class java.util.concurrent.TimeUnit'!");
+    assertResult(CfgResult.Status.INVALID, sub.tryGetString("missing.subst"), "The substitution key 'missing' does not exist!");
+    assertResult(CfgResult.Status.INVALID, sub.tryGetString("circular"), "Key 'my.circular' leads to a circular, non-resolvable substitution!");
+    Assert.assertEquals(Integer.valueOf(42), sub.tryGetInt("string").getValue(42));
+
+    // Same number parsing as the JDK:
+    String[] numbers = {"0", "-0", "+1", "-", "+", "", " 1", "1 ", "12a", "2147483647", "2147483648", "-2147483648", "-2147483649",
+        "9223372036854775807", "9223372036854775808", "-9223372036854775808", "-9223372036854775809", "\u0661\u0662",
+        "1.", ".1", ".", "1e5", "1E+5", "1e", "-1.2e-3", "1e99999999999", "e5", "1.2.3", "0x1"};
+    for (String number : numbers) {
+      cfg.put("n", number);
+      Assert.assertEquals(number, parse(number, Integer.class), cfg.tryGetInt("n").getValue());
+      Assert.assertEquals(number, parse(number, Long.class), cfg.tryGetLong("n").getValue());
+      Assert.assertEquals(number, parse(number, BigDecimal.class), cfg.tryGetBigDecimal("n").getValue());
+    }
+  }
+
+  private static void assertResult(CfgResult.Status status, CfgResult<?> result, String message) {
+    Assert.assertEquals(status, result.getStatus());
+    Assert.assertEquals(false, result.isOk());
+    Assert.assertEquals(null, result.getValue());
+    Assert.assertEquals(message, result.getMessage());
+  }
+
+  private static Object parse(String number, Class<?> type) {
+    try {
+      return type == Integer.class ? Integer.valueOf(number) : type == Long.class ? (Object) Long.valueOf(number) : new BigDecimal(number);
+    }
+    catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testIteration() throws Exception {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("a.k1", "v1");
+    map.put("a.k2", "${a.k1}-x");
+    map.put("a.b.k3", "");
+    map.put("c.k4", "${missing}");
+    map.put("k5", null);
+    Cfg cfg = new Cfg(map);
+    Cfg subset = cfg.subset("a");
+
+    final Map<String, String> result = new HashMap<String, String>();
+    subset.forEach(new BiConsumer<String, String>() {
+      @Override
+      public void accept(String key, String value) {
+        result.put(key, value);
+      }
+    });
+    Assert.assertEquals(subset.toMap(), result);
+    Assert.assertEquals("v1-x", result.get("k2"));
+
+    Assert.assertEquals(true, subset.anyValue((key, value) -> "v1-x".equals(value)));
+    Assert.assertEquals(false, subset.anyValue((key, value) -> key.startsWith("a.")));
+    try {
+      cfg.forEach((key, value) -> { });
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("The substitution key 'missing' does not exist!", e.getMessage());
+    }
+
+    // Spliterator with lazily resolved values:
+    List<String> keys = new ArrayList<String>();
+    StreamSupport.stream(cfg.spliterator("a."), false).forEach(e -> keys.add(e.getKey()));
+    Collections.sort(keys);
+    Assert.assertEquals(Arrays.asList("a.b.k3", "a.k1", "a.k2"), keys);
+    Assert.assertEquals(1, StreamSupport.stream(cfg.spliterator("c."), false).count());
+    Map<String, String> b = StreamSupport.stream(subset.spliterator("k"), true)
+        .collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue()));
+    Assert.assertEquals("{k1=v1, k2=v1-x}", new TreeMap<String, String>(b).toString());
+
+    Assert.assertEquals(true, subset.containsKeys());
+    Assert.assertEquals(true, subset.containsValues());
+    Assert.assertEquals(true, subset.subset("b").containsKeys());
+    Assert.assertEquals(false, subset.subset("b").containsValues());
+    Assert.assertEquals(false, subset.subset("x").containsKeys());
+    Assert.assertEquals("Cfg(subset=a.)[b.k3=, k1=v1, k2=${a.k1}-x]", subset.toString());
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testChildNames() throws Exception {
+    Map<String, String> map = new HashMap<String, String>();
+    for (int i = 0; i < 12; i++) {
+      map.put("server." + i + ".host", "host" + i);
+      map.put("server." + i + ".port", String.valueOf(8000 + i));
+    }
+    map.put("server.default", "x");
+    map.put("a", "1");
+    map.put("a-b", "2");
+    map.put("a.x", "3");
+    Cfg cfg = new Cfg(map);
+    Assert.assertEquals(Arrays.asList("a", "a-b", "server"), cfg.childNames());
+    Assert.assertEquals(2, cfg.subsets().size());
+    Assert.assertEquals("a", cfg.subsets().get(0).getSubsetName());
+    Assert.assertEquals("server", cfg.subsets().get(1).getSubsetName());
+
+    Cfg servers = cfg.subset("server");
+    Assert.assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "default"), servers.childNames());
+    List<Cfg> subsets = servers.subsets();
+    Assert.assertEquals(12, subsets.size());
+    Assert.assertEquals("host11", subsets.get(11).getString("host"));
+    Assert.assertEquals(Arrays.asList("host", "port"), subsets.get(3).childNames());
+    Assert.assertEquals(8003, cfg.subset("server", 3).getInt("port"));
+    Assert.assertEquals("host3", cfg.subset("server.", 3).getString("host"));
+
+    // Index is rebuilt after keys have been added or removed:
+    cfg.put("server.12.host", "host12");
+    Assert.assertEquals(13, servers.subsets().size());
+    cfg.remove("server.12.host");
+    cfg.put("server.13.host", "host13");
+    Assert.assertEquals("13", servers.subsets().get(12).getSubsetName().substring("server.".length()));
+    cfg.put("server.13.host", "changed");
+    Assert.assertEquals(13, servers.subsets().size());
+    Assert.assertEquals(Arrays.asList(), cfg.subset("missing").childNames());
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testOverlay() throws Exception {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("my.path1.int.value", "1");
+    map.put("my.path1.int-value", "2");
+    map.put("my.path1.string", "${my.path1.int.value}-x");
+    map.put("other", "o");
+    Cfg cfg = new Cfg(map);
+    Map<String, String> env = new HashMap<String, String>();
+    env.put("MY_PATH1_INT_VALUE", "42");
+    env.put("JAVA_HOME", "/opt/java");
+    Cfg overlaid = cfg.withOverlay(env);
+
+    Assert.assertEquals(42, overlaid.getInt("my.path1.int.value"));
+    Assert.assertEquals(42, overlaid.getInt("my.path1.int-value"));
+    Assert.assertEquals(42, overlaid.getInt("MY_PATH1_INT_VALUE"));
+    Assert.assertEquals("42-x", overlaid.getString("my.path1.string"));
+    Assert.assertEquals("42-x", overlaid.subset("my.path1").getString("string"));
+    Assert.assertEquals("/opt/java", overlaid.getString("java.home"));
+    Assert.assertEquals("o", overlaid.getString("other"));
+    Assert.assertEquals(1, cfg.getInt("my.path1.int.value"));
+    Assert.assertEquals(5, overlaid.getKeys().size());
+    Assert.assertEquals("42", overlaid.toMap().get("my.path1.int-value"));
+    Assert.assertEquals("/opt/java", overlaid.toMap().get("java.home"));
+
+    // Changes go to the base config, overlay values take precedence:
+    overlaid.put("new.key", "n");
+    Assert.assertEquals("n", cfg.getString("new.key"));
+    Assert.assertEquals(6, overlaid.getKeys().size());
+    overlaid.put("my.path1.int.value", "3");
+    Assert.assertEquals(42, overlaid.getInt("my.path1.int.value"));
+
+    // Key changes over the base config with the same size invalidate the overlay's index and size:
+    Assert.assertEquals(true, overlaid.containsKey(new StringBuilder("other")));
+    Assert.assertEquals("[java, my, new, other]", overlaid.childNames().toString());
+    cfg.remove("other");
+    cfg.put("java.home", "/usr/java");
+    Assert.assertEquals(false, overlaid.containsKey(new StringBuilder("other")));
+    Assert.assertEquals(true, overlaid.containsKey(new StringBuilder("java.home")));
+    Assert.assertEquals("[java, my, new]", overlaid.childNames().toString());
+    Assert.assertEquals(5, overlaid.getKeys().size());
+    Assert.assertEquals("/opt/java", overlaid.getString("java.home"));
+
+    Assert.assertEquals(System.getProperty("java.version"), new Cfg().withSystemProperties().getString("JAVA_VERSION"));
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testDurationAndByteSize() throws Exception {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("d1", "30s");
+    map.put("d2", " 250 ms ");
+    map.put("d3", "1.5h");
+    map.put("d4", "1500");
+    map.put("d5", "PT1M");
+    map.put("d6", "2d");
+    map.put("d7", "10\u00b5s");
+    map.put("d8", "${d1}");
+    map.put("b1", "64MiB");
+    map.put("b2", "64k");
+    map.put("b3", "1.5GB");
+    map.put("b4", "512");
+    map.put("b5", "2 tb");
+    map.put("x1", "30x");
+    map.put("x2", "-1s");
+    map.put("x3", "s");
+    map.put("x4", "99999999999999999999");
+    map.put("x5", "9999999999d");
+    Cfg cfg = new Cfg(map);
+
+    Assert.assertEquals(Duration.ofSeconds(30), cfg.getDuration("d1"));
+    Assert.assertEquals(Duration.ofMillis(250), cfg.getDuration("d2"));
+    Assert.assertEquals(Duration.ofMinutes(90), cfg.getDuration("d3"));
+    Assert.assertEquals(Duration.ofMillis(1500), cfg.getDuration("d4"));
+    Assert.assertEquals(Duration.ofMinutes(1), cfg.getDuration("d5"));
+    Assert.assertEquals(Duration.ofDays(2), cfg.getDuration("d6"));
+    Assert.assertEquals(Duration.ofNanos(10000), cfg.getDuration("d7"));
+    Assert.assertEquals(Duration.ofSeconds(30), cfg.getDuration("d8"));
+    Assert.assertEquals(Duration.ofSeconds(5), cfg.getDuration("missing", Duration.ofSeconds(5)));
+    Assert.assertSame(cfg.getDuration("d1"), cfg.getDuration("d1"));
+    Assert.assertEquals(Duration.ofSeconds(30), Cfg.checkMax(cfg.getDuration("d1"), Duration.ofMinutes(1)));
+
+    Assert.assertEquals(64L << 20, cfg.getByteSize("b1"));
+    Assert.assertEquals(64L << 10, cfg.getByteSize("b2"));
+    Assert.assertEquals(1500000000L, cfg.getByteSize("b3"));
+    Assert.assertEquals(512, cfg.getByteSize("b4"));
+    Assert.assertEquals(2000000000000L, cfg.getByteSize("b5"));
+    Assert.assertEquals(Long.valueOf(1), cfg.getByteSize("missing", Long.valueOf(1)));
+    Assert.assertEquals(Long.valueOf(64L << 20), Cfg.checkMinMax(cfg.getByteSize("b1"), 1L, 1L << 30));
+
+    for (String key : new String[] { "x1", "x2", "x3", "x4", "x5" }) {
+      Assert.assertEquals(CfgResult.Status.INVALID, cfg.tryGetDuration(key).getStatus());
+      Assert.assertEquals(CfgResult.Status.INVALID, cfg.tryGetByteSize(key).getStatus());
+    }
+    Assert.assertEquals("Value '30x' for key 'x1' is no valid Duration!", cfg.tryGetDuration("x1").getMessage());
+    Assert.assertEquals("Value '30x' for key 'x1' is no valid byte size!", cfg.tryGetByteSize("x1").getMessage());
+    Assert.assertEquals(Duration.ofSeconds(30), cfg.tryGetDuration("d1").getValue());
+    try {
+      cfg.getByteSize("d1");
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Value '30s' for key 'd1' is no valid byte size!", e.getMessage());
+    }
+
+    // Value changes are detected by the cache:
+    cfg.put("d1", "31s");
+    Assert.assertEquals(Duration.ofSeconds(31), cfg.getDuration("d1"));
+    Assert.assertEquals(Duration.ofSeconds(31), cfg.getDuration("d8"));
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testScopes() throws Exception {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("tenant.name", "default");
+    map.put("tenant.hosts", "a, b");
+    map.put("tenant.url", "http://${tenant.name}");
+    final Cfg cfg = new Cfg(map);
+    Cfg tenant = cfg.subset("tenant");
+    Assert.assertEquals(2, tenant.getStringList("hosts").size());
+
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("name", "canary");
+    overrides.put("hosts", "c");
+    overrides.put("new", "n");
+    CfgScope scope = tenant.withOverrides(overrides);
+    try {
+      Assert.assertEquals("canary", cfg.getString("tenant.name"));
+      Assert.assertEquals("http://canary", tenant.getString("url"));
+      Assert.assertEquals(Arrays.asList("c"), tenant.getStringList("hosts"));
+      Assert.assertEquals(true, tenant.containsKey("new"));
+      Assert.assertEquals("n", tenant.tryGetString("new").getValue());
+
+      // Nested scope, the outer one can not be closed before it:
+      CfgScope inner = cfg.withOverrides(Collections.singletonMap("tenant.name", "inner"));
+      try {
+        Assert.assertEquals("http://inner", tenant.getString("url"));
+        try {
+          scope.close();
+          Assert.fail();
+        }
+        catch (CfgException e) {
+          Assert.assertEquals("A scope must be closed by the thread that opened it, after all its inner scopes!", e.getMessage());
+        }
+      }
+      finally {
+        inner.close();
+      }
+      Assert.assertEquals("canary", cfg.getString("tenant.name"));
+
+      // Other threads and other configs are not affected:
+      final String[] other = new String[1];
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          other[0] = cfg.getString("tenant.url");
+        }
+      };
+      thread.start();
+      thread.join();
+      Assert.assertEquals("http://default", other[0]);
+      Assert.assertEquals("default", new Cfg(map).getString("tenant.name"));
+    }
+    finally {
+      scope.close();
+    }
+    Assert.assertEquals("default", cfg.getString("tenant.name"));
+    Assert.assertEquals(Arrays.asList("a", "b"), tenant.getStringList("hosts"));
+    Assert.assertEquals(false, tenant.containsKey("new"));
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testCharSequenceAndByteKeys() throws Exception {
+    Cfg cfg = Cfg.of("server.host", "localhost", "server.port", "8080", "server.url", "http://${server.host}",
+        "server.empty", "", "k\u00e4y.\ud83d\ude00", "unicode");
+    Cfg server = cfg.subset("server");
+    StringBuilder key = new StringBuilder("server.host");
+    Assert.assertEquals(true, cfg.containsKey(key));
+    Assert.assertEquals("localhost", cfg.getString(key, null));
+    Assert.assertEquals("http://localhost", cfg.getString(new StringBuilder("server.url"), null));
+    Assert.assertEquals("default", cfg.getString(new StringBuilder("server.empty"), "default"));
+    Assert.assertEquals(false, cfg.containsKey(new StringBuilder("server.hos")));
+    Assert.assertEquals("8080", server.getString(new StringBuilder("port"), null));
+    Assert.assertEquals(false, server.containsKey(new StringBuilder("server.port")));
+    Assert.assertEquals("unicode", cfg.getString(new StringBuilder("k\u00e4y.\ud83d\ude00"), null));
+
+    // UTF-8 bytes as array slice and buffer:
+    byte[] bytes = "xxserver.portxx".getBytes("UTF-8");
+    Assert.assertEquals("8080", cfg.getString(bytes, 2, 11, null));
+    Assert.assertEquals("8080", server.getString(bytes, 9, 4, null));
+    Assert.assertEquals(false, server.containsKey(bytes, 9, 5));
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, 11);
+    Assert.assertEquals("8080", cfg.getString(buffer, null));
+    Assert.assertEquals(2, buffer.position());
+    ByteBuffer direct = ByteBuffer.allocateDirect(32);
+    direct.put("k\u00e4y.\ud83d\ude00".getBytes("UTF-8")).flip();
+    Assert.assertEquals(true, cfg.containsKey(direct));
+    Assert.assertEquals("unicode", cfg.getString(direct, null));
+    Assert.assertEquals(false, cfg.containsKey(new byte[] { 'k', (byte) 0xC3 }, 0, 2)); // Malformed
+    Assert.assertEquals(false, cfg.containsKey(new byte[] { (byte) 0xC0, (byte) 0x80 }, 0, 2)); // Overlong
+    try {
+      cfg.containsKey(bytes, 10, 10);
+      Assert.fail();
+    }
+    catch (IndexOutOfBoundsException e) {
+      // Expected...
+    }
+
+    // Index is rebuilt on added keys, scopes are respected:
+    cfg.put("server.new", "v");
+    Assert.assertEquals("v", cfg.getString(new StringBuilder("server.new"), null));
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("port", "9090");
+    overrides.put("other", "o");
+    CfgScope scope = server.withOverrides(overrides);
+    try {
+      Assert.assertEquals("9090", server.getString(new StringBuilder("port"), null));
+      Assert.assertEquals("o", server.getString("xxother".getBytes("UTF-8"), 2, 5, null));
+      Assert.assertEquals(true, server.containsKey(ByteBuffer.wrap("other".getBytes("UTF-8"))));
+    }
+    finally {
+      scope.close();
+    }
+    Assert.assertEquals("8080", server.getString(new StringBuilder("port"), null));
+
+    // Repeated lookups with a reused key create no garbage:
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+      long id = Thread.currentThread().getId();
+      StringBuilder port = new StringBuilder("port");
+      long allocated = 0;
+      for (int round = 0; round < 3; round++) {
+        allocated = sunThreads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 10000; i++) {
+          cfg.getString(buffer, null);
+          server.getString(port, null);
+        }
+        allocated = sunThreads.getThreadAllocatedBytes(id) - allocated;
+        System.out.println("Bytes allocated by 20000 lookups: " + allocated);
+      }
+      Assert.assertTrue(allocated < 10000);
+    }
+  }
+
   /**
    * Tests the named functionality.
    */
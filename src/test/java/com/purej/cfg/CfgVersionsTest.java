@@ -0,0 +1,164 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgVersionsTest {
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testVersions() {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("k1", "v1");
+    map.put("k2", "${k1}-x");
+    CfgVersions versions = new CfgVersions(new Cfg(map), 3);
+    Cfg v1 = versions.getCfg();
+    Assert.assertEquals(1, versions.getVersion());
+    Assert.assertEquals("v1-x", v1.getString("k2"));
+
+    Assert.assertEquals(2, versions.put("k1", "v2"));
+    Assert.assertEquals(2, versions.put("k1", "v2")); // Unchanged
+    Assert.assertEquals(2, versions.remove("missing")); // Unchanged
+    Assert.assertEquals("v1-x", v1.getString("k2"));
+    Assert.assertEquals("v2-x", versions.getCfg().getString("k2"));
+
+    map.clear();
+    map.put("k3", "v3");
+    map.put("k4", null);
+    Assert.assertEquals(3, versions.putAll(map));
+    Assert.assertEquals(4, versions.remove("k1"));
+    Cfg v4 = versions.getCfg();
+    Assert.assertEquals(false, v4.containsKey("k1"));
+    Assert.assertEquals(true, v4.containsKey("k4"));
+    Assert.assertEquals(3, v4.getKeys().size());
+    try {
+      v4.put("k1", "v");
+      Assert.fail();
+    }
+    catch (UnsupportedOperationException e) {
+      // Expected...
+    }
+
+    // History of 3 versions:
+    Assert.assertEquals(2, versions.getOldestVersion());
+    Assert.assertEquals("v2", versions.getCfg(2).getString("k1"));
+    try {
+      versions.getCfg(1);
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Version 1 does not exist, available are versions 2 to 4!", e.getMessage());
+    }
+
+    // Rollback:
+    Assert.assertEquals(5, versions.rollback(2));
+    Assert.assertEquals("v2", versions.getCfg().getString("k1"));
+    Assert.assertEquals(false, versions.getCfg().containsKey("k3"));
+    Assert.assertEquals(false, v4.containsKey("k1"));
+
+    // Null keys:
+    try {
+      versions.put(null, "v");
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Key must not be null!", e.getMessage());
+    }
+    try {
+      versions.putAll(Collections.singletonMap((String) null, "v"));
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Key must not be null!", e.getMessage());
+    }
+    try {
+      versions.remove(null);
+      Assert.fail();
+    }
+    catch (CfgException e) {
+      Assert.assertEquals("Key must not be null!", e.getMessage());
+    }
+    Assert.assertEquals(5, versions.getVersion());
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testTrie() {
+    Random random = new Random(42);
+    Map<String, String> expected = new HashMap<String, String>();
+    CfgTrie trie = CfgTrie.EMPTY;
+    List<CfgTrie> tries = new ArrayList<CfgTrie>();
+    List<Map<String, String>> maps = new ArrayList<Map<String, String>>();
+    for (int i = 0; i < 20000; i++) {
+      // "Aa" and "BB" have the same hash code:
+      String key = (random.nextBoolean() ? "Aa" : "BB") + random.nextInt(3000);
+      if (random.nextInt(4) == 0) {
+        trie = trie.remove(key);
+        expected.remove(key);
+      }
+      else {
+        String value = random.nextInt(10) == 0 ? null : "v" + i;
+        trie = trie.put(key, value);
+        expected.put(key, value);
+      }
+      if (i % 5000 == 0) {
+        tries.add(trie);
+        maps.add(new HashMap<String, String>(expected));
+      }
+    }
+    tries.add(trie);
+    maps.add(expected);
+    for (int i = 0; i < tries.size(); i++) {
+      Assert.assertEquals(maps.get(i), tries.get(i).asMap());
+      Assert.assertEquals(maps.get(i).size(), tries.get(i).size());
+    }
+    for (String key : expected.keySet()) {
+      trie = trie.remove(key);
+    }
+    Assert.assertSame(CfgTrie.EMPTY, trie);
+  }
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testConcurrentPuts() throws Exception {
+    final CfgVersions versions = new CfgVersions(10);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 1000; i++) {
+            versions.put("t" + id + ".k" + i, "v" + i);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(4001, versions.getVersion());
+    Assert.assertEquals(4000, versions.getCfg().getKeys().size());
+    Assert.assertEquals(3992, versions.getOldestVersion());
+    Assert.assertEquals(3991, versions.getCfg(3992).getKeys().size());
+  }
+}
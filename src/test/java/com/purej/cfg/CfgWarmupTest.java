@@ -0,0 +1,68 @@
+// Copyright (c), 2009, adopus consulting GmbH Switzerland, all rights reserved.
+package com.purej.cfg;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the named functionality.
+ *
+ * @author Stefan Mueller
+ */
+public class CfgWarmupTest {
+
+  /**
+   * Tests the named functionality.
+   */
+  @Test
+  public void testRecordAndWarmup() throws Exception {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("server.port", "8080");
+    map.put("server.timeout", "30s");
+    map.put("server.hosts", "a, b");
+    map.put("server.name", "${server.hosts}");
+    map.put("unused", "x");
+    Cfg cfg = new Cfg(map);
+
+    CfgWarmup recorder = CfgWarmup.record(cfg);
+    Cfg server = cfg.subset("server");
+    Assert.assertEquals(8080, server.getInt("port"));
+    Assert.assertEquals(30, server.getDuration("timeout").getSeconds());
+    Assert.assertEquals(2, server.getStringList("hosts").size());
+    Assert.assertEquals("a, b", server.tryGetString("name").getValue());
+    Assert.assertEquals(null, cfg.getString("missing", null));
+    recorder.stop();
+    cfg.getString("unused");
+    Assert.assertEquals(5, recorder.getKeyCount());
+
+    File profile = new File("target/tmp/warmup.properties");
+    recorder.store(profile);
+    Cfg stored = new Cfg(profile);
+    Assert.assertEquals("string,int", stored.getString("server.port"));
+    Assert.assertEquals("duration", stored.getString("server.timeout"));
+    Assert.assertEquals("list", stored.getString("server.hosts"));
+    Assert.assertEquals("string", stored.getString("server.name"));
+    Assert.assertEquals(false, stored.containsKey("unused"));
+
+    // Warmup parses and caches the recorded values (the missing key is skipped):
+    map.put("server.timeout", "invalid");
+    Cfg restarted = new Cfg(map);
+    CfgStats stats = CfgStats.getInstance();
+    Assert.assertEquals(4, CfgWarmup.warmup(restarted, profile));
+    stats.setEnabled(true);
+    try {
+      long misses = stats.getCacheMissCount();
+      long hits = stats.getCacheHitCount();
+      Assert.assertEquals(2, restarted.getStringList("server.hosts").size());
+      Assert.assertEquals(misses, stats.getCacheMissCount());
+      Assert.assertEquals(hits + 1, stats.getCacheHitCount());
+    }
+    finally {
+      stats.setEnabled(false);
+    }
+    Assert.assertEquals(0, CfgWarmup.warmup(restarted, new File("target/tmp/not-existing.properties")));
+  }
+}